@@ -0,0 +1,156 @@
+package bench;
+
+import com.google.gson.Gson;
+import hibernate.Cart;
+import hibernate.FetchPlans;
+import hibernate.HibernateUtil;
+import hibernate.Product;
+import hibernate.QueryCatalog;
+import hibernate.TrackedDirtinessStrategy;
+import hibernate.User;
+import java.util.List;
+import org.hibernate.Criteria;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.bytecode.internal.javassist.FieldHandled;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+
+/**
+ * Measures what entity enhancement and self dirty tracking change on the two
+ * paths they target:
+ * <ul>
+ * <li>SearchProducts: pages of product cards loaded with the search fetch plan
+ * and serialized with Gson, in a read-only session like a GET request.</li>
+ * <li>CheckOut: a transaction that loads a user's cart with its products, takes
+ * the stock and flushes, with a number of other products already managed by
+ * the session, then rolls back so the data is unchanged.</li>
+ * </ul>
+ * Run it twice against the same database: once on classes compiled without the
+ * build's -post-compile step and with -Dphonehub.dirtyTracking=false ("before"),
+ * once on enhanced classes with tracking on ("after"). Usage:
+ * EnhancementBenchmark [rounds] [pageSize] [managedProducts]
+ */
+public class EnhancementBenchmark {
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        int managed = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        try {
+            System.out.println("Product enhanced: " + FieldHandled.class.isAssignableFrom(Product.class)
+                    + ", dirty tracking: " + TrackedDirtinessStrategy.isEnabled());
+            // the first pass warms the JIT, caches and connections and is not reported
+            search(rounds / 4 + 1, pageSize, false);
+            search(rounds, pageSize, true);
+            checkout(rounds / 4 + 1, managed, false);
+            checkout(rounds, managed, true);
+        } finally {
+            HibernateUtil.shutdown();
+        }
+    }
+
+    private static void search(int rounds, int pageSize, boolean report) {
+        Gson gson = new Gson();
+        long products = count();
+        long bytes = 0;
+        int rows = 0;
+        boolean descriptionLoaded = false;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            Session s = HibernateUtil.getSessionFactory().openSession();
+            try {
+                s.setDefaultReadOnly(true);
+                s.setFlushMode(FlushMode.MANUAL);
+                Criteria c = s.createCriteria(Product.class);
+                FetchPlans.searchCard(c);
+                c.addOrder(Order.desc("id"));
+                c.setFirstResult((int) ((round * 7919L * pageSize) % Math.max(1, products - pageSize)));
+                c.setMaxResults(pageSize);
+                @SuppressWarnings("unchecked")
+                List<Product> page = c.list();
+                for (Product product : page) {
+                    product.setUser(null);
+                }
+                if (!page.isEmpty()) {
+                    descriptionLoaded = Hibernate.isPropertyInitialized(page.get(0), "description");
+                }
+                bytes += gson.toJson(page).length();
+                rows += page.size();
+            } finally {
+                s.close();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (report) {
+            System.out.println();
+            System.out.println("SearchProducts: " + rounds + " pages of " + pageSize);
+            System.out.printf("  %.3f ms per page, %d rows, %d JSON bytes per page, description loaded: %s%n",
+                    nanos / 1e6 / rounds, rows, bytes / Math.max(1, rounds), descriptionLoaded);
+        }
+    }
+
+    private static void checkout(int rounds, int managed, boolean report) {
+        int userId = cartOwner();
+        if (userId == 0) {
+            System.out.println("CheckOut: no cart in the database, skipped");
+            return;
+        }
+        long flushNanos = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            Session s = HibernateUtil.getSessionFactory().openSession();
+            try {
+                s.beginTransaction();
+                // what else the session holds when CheckOut flushes, e.g. after a product listing
+                s.createCriteria(Product.class).setMaxResults(managed).list();
+
+                User user = (User) s.get(User.class, userId);
+                @SuppressWarnings("unchecked")
+                List<Cart> cartList = s.getNamedQuery(QueryCatalog.CART_WITH_PRODUCT_BY_USER)
+                        .setParameter("user", user)
+                        .list();
+                for (Cart cart : cartList) {
+                    Product product = cart.getProduct();
+                    product.setQty(product.getQty() - cart.getQty());
+                }
+                long flushStart = System.nanoTime();
+                s.flush();
+                flushNanos += System.nanoTime() - flushStart;
+            } finally {
+                s.getTransaction().rollback();
+                s.close();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (report) {
+            System.out.println();
+            System.out.println("CheckOut: " + rounds + " transactions, " + managed + " other products managed");
+            System.out.printf("  %.3f ms per transaction, of which flush %.3f ms%n",
+                    nanos / 1e6 / rounds, flushNanos / 1e6 / rounds);
+        }
+    }
+
+    private static long count() {
+        Session s = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return (Long) s.getNamedQuery(QueryCatalog.PRODUCT_COUNT).uniqueResult();
+        } finally {
+            s.close();
+        }
+    }
+
+    private static int cartOwner() {
+        Session s = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Object userId = s.createCriteria(Cart.class)
+                    .setProjection(Projections.min("user.id"))
+                    .uniqueResult();
+            return userId == null ? 0 : (Integer) userId;
+        } finally {
+            s.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package bench;
+
+import hibernate.HibernateUtil;
+import hibernate.OptimisticRetry;
+import hibernate.Product;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+import org.hibernate.Transaction;
+
+/**
+ * Many buyers taking one unit each of a single product, once with the old
+ * read-check-write stock update and once with the versioned update retried by
+ * {@link OptimisticRetry}. Prints throughput, how many units were sold beyond
+ * the stock and how many decrements were lost.
+ * <p>
+ * Runs against the database in hibernate.cfg.xml and removes its product
+ * afterwards. Usage: StockContentionBenchmark [buyers] [stock] [attempts]
+ */
+public class StockContentionBenchmark {
+
+    /** Time between reading the stock and writing it, like a request doing its other work. */
+    private static final long THINK_MILLIS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int buyers = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int stock = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int attempts = args.length > 2 ? Integer.parseInt(args[2]) : OptimisticRetry.DEFAULT_ATTEMPTS;
+
+        try {
+            System.out.println(buyers + " buyers, " + stock + " in stock, " + attempts + " attempts per buyer");
+            run("read-modify-write", buyers, stock, attempts, false);
+            run("optimistic", buyers, stock, attempts, true);
+        } finally {
+            HibernateUtil.shutdown();
+        }
+    }
+
+    private static void run(String name, int buyers, int stock, final int attempts, final boolean versioned)
+            throws InterruptedException {
+        final int productId = createProduct(stock);
+        final AtomicInteger sold = new AtomicInteger();
+        final AtomicInteger outOfStock = new AtomicInteger();
+        final AtomicInteger conflicts = new AtomicInteger();
+        final AtomicInteger gaveUp = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(buyers);
+
+        for (int i = 0; i < buyers; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        boolean bought = versioned
+                                ? buyVersioned(productId, attempts, conflicts)
+                                : buyUnversioned(productId);
+                        if (bought) {
+                            sold.incrementAndGet();
+                        } else {
+                            outOfStock.incrementAndGet();
+                        }
+                    } catch (StaleStateException e) {
+                        gaveUp.incrementAndGet();
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                        System.err.println(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        int remaining = stockOf(productId);
+        deleteProduct(productId);
+
+        System.out.println();
+        System.out.println(name);
+        System.out.printf("  %.0f purchases/s (%d buyers in %.3f s)%n", buyers / seconds, buyers, seconds);
+        System.out.println("  sold " + sold + ", out of stock " + outOfStock + ", gave up " + gaveUp
+                + ", errors " + errors + ", conflicts retried " + conflicts);
+        System.out.println("  stock left " + remaining + ", oversold " + Math.max(0, sold.get() - stock)
+                + ", lost updates " + (sold.get() - (stock - remaining)));
+    }
+
+    /**
+     * What the servlets did before: read the stock, check it, write the new value.
+     * The bulk update skips the version, like the unversioned entity did.
+     */
+    private static boolean buyUnversioned(int productId) throws InterruptedException {
+        Session s = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Transaction tr = s.beginTransaction();
+            Product product = (Product) s.get(Product.class, productId);
+            if (product.getQty() < 1) {
+                tr.rollback();
+                return false;
+            }
+            Thread.sleep(THINK_MILLIS);
+            s.createQuery("UPDATE Product p SET p.qty = :qty WHERE p.id = :id")
+                    .setParameter("qty", product.getQty() - 1)
+                    .setParameter("id", productId)
+                    .executeUpdate();
+            tr.commit();
+            return true;
+        } finally {
+            s.close();
+        }
+    }
+
+    private static boolean buyVersioned(final int productId, int attempts, final AtomicInteger conflicts) {
+        final AtomicInteger tries = new AtomicInteger();
+        try {
+            return OptimisticRetry.run(attempts, new OptimisticRetry.Work<Boolean>() {
+                @Override
+                public Boolean run(Session s) {
+                    tries.incrementAndGet();
+                    Product product = (Product) s.get(Product.class, productId);
+                    if (product.getQty() < 1) {
+                        s.getTransaction().rollback();
+                        return false;
+                    }
+                    try {
+                        Thread.sleep(THINK_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    product.setQty(product.getQty() - 1);
+                    return true;
+                }
+            });
+        } finally {
+            conflicts.addAndGet(tries.get() - 1);
+        }
+    }
+
+    private static int createProduct(int stock) {
+        Session s = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Transaction tr = s.beginTransaction();
+            Product product = new Product();
+            product.setTitle("Stock contention benchmark");
+            product.setDescription("Temporary product, safe to delete");
+            product.setQty(stock);
+            product.setCreated_at(new Date());
+            s.save(product);
+            tr.commit();
+            return product.getId();
+        } finally {
+            s.close();
+        }
+    }
+
+    private static int stockOf(int productId) {
+        Session s = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return ((Product) s.get(Product.class, productId)).getQty();
+        } finally {
+            s.close();
+        }
+    }
+
+    private static void deleteProduct(int productId) {
+        Session s = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Transaction tr = s.beginTransaction();
+            s.createQuery("DELETE FROM Product p WHERE p.id = :id").setParameter("id", productId).executeUpdate();
+            tr.commit();
+        } finally {
+            s.close();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package bench;
+
+import hibernate.HibernateUtil;
+import hibernate.IdGenerators;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Fills an empty database with a reproducible shop for capacity tests: at
+ * scale 1, 1M products over the real brand/model/color/storage/quality lists,
+ * 200k users with an address each, 2M orders with 1-2 items and 50k users with
+ * a live cart. The same seed and scale always produce the same rows.
+ * <p>
+ * Meant for the embedded profile:
+ * <pre>
+ * java -Dphonehub.hibernate.config=/hibernate-bench.cfg.xml bench.SyntheticDataGenerator [scale] [seed]
+ * </pre>
+ * Hibernate creates the schema on startup; the rows are then written with
+ * batched JDBC inserts, which is far faster than going through the session.
+ */
+public class SyntheticDataGenerator {
+
+    public static final long DEFAULT_SEED = 42;
+
+    private static final int PRODUCTS = 1000000;
+    private static final int USERS = 200000;
+    private static final int ORDERS = 2000000;
+    private static final int CART_USERS = 50000;
+    /** Users 1..SELLERS list the products. */
+    private static final int SELLERS = 1000;
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int COMMIT_EVERY = 20000;
+    /** Dates are spread over the two years before this instant, independent of when the generator runs. */
+    private static final long END_MILLIS = Timestamp.valueOf("2025-01-01 00:00:00").getTime();
+    private static final long SPAN_MILLIS = 730L * 24 * 60 * 60 * 1000;
+
+    private static final String[][] MODELS = {
+        {"Apple", "iPhone 11", "iPhone 12", "iPhone 13", "iPhone 14", "iPhone 14 Pro", "iPhone 15", "iPhone 15 Pro Max", "iPhone SE"},
+        {"Samsung", "Galaxy S21", "Galaxy S22", "Galaxy S23 Ultra", "Galaxy S24", "Galaxy A14", "Galaxy A54", "Galaxy Z Flip5", "Galaxy Z Fold5"},
+        {"Google", "Pixel 6", "Pixel 6a", "Pixel 7", "Pixel 7 Pro", "Pixel 8", "Pixel 8 Pro"},
+        {"Xiaomi", "Redmi Note 12", "Redmi Note 13", "Redmi 12C", "Xiaomi 13", "Xiaomi 13T", "Poco X5"},
+        {"OnePlus", "OnePlus 10 Pro", "OnePlus 11", "OnePlus 12", "Nord 3", "Nord CE 3"},
+        {"Oppo", "Reno 8", "Reno 10", "A78", "Find X6"},
+        {"Vivo", "V27", "V29", "Y36", "X90"},
+        {"Huawei", "P50", "P60 Pro", "Nova 11", "Mate 50"},
+        {"Nokia", "G21", "G42", "C32", "X30"},
+        {"Motorola", "Moto G54", "Moto G84", "Edge 40", "Razr 40"},
+        {"Realme", "Realme 11", "Realme C55", "GT Neo 5"},
+        {"Sony", "Xperia 1 V", "Xperia 5 V", "Xperia 10 V"}
+    };
+    private static final String[] COLORS = {"Black", "White", "Blue", "Red", "Green", "Purple", "Gold", "Silver", "Graphite", "Pink", "Yellow", "Midnight"};
+    private static final String[] STORAGES = {"32GB", "64GB", "128GB", "256GB", "512GB", "1TB"};
+    private static final String[] QUALITIES = {"Brand New", "Used", "Refurbished"};
+    private static final String[] STATUSES = {"Active", "Inactive"};
+    private static final String[] ORDER_STATUSES = {"Processing", "Shipped", "Delivered", "Cancelled"};
+    // CheckOut charges delivery type 1 for Colombo (city 1) and type 2 elsewhere
+    private static final String[] CITIES = {"Colombo", "Kandy", "Galle", "Jaffna", "Negombo", "Kurunegala", "Matara", "Anuradhapura",
+        "Ratnapura", "Badulla", "Trincomalee", "Batticaloa", "Gampaha", "Kalutara", "Nuwara Eliya", "Hambantota"};
+    private static final String[] FIRST_NAMES = {"Nimal", "Kamal", "Sunil", "Ruwan", "Chamara", "Dilshan", "Kasun", "Tharindu",
+        "Nadeesha", "Sanduni", "Ishara", "Dilini", "Hiruni", "Amaya", "Sachini", "Kavindi", "Oshen", "Pasindu", "Yasiru", "Malsha"};
+    private static final String[] LAST_NAMES = {"Perera", "Fernando", "Silva", "Jayasinghe", "Bandara", "Wickramasinghe",
+        "Gunawardena", "Rajapaksa", "Herath", "Dissanayake", "Kumara", "Senanayake", "Rathnayake", "Weerasinghe"};
+
+    private final Connection connection;
+    private final Random random;
+    private final double scale;
+
+    public SyntheticDataGenerator(Connection connection, double scale, long seed) {
+        this.connection = connection;
+        this.scale = scale;
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        double scale = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_SEED;
+        try {
+            HibernateUtil.getSessionFactory(); // creates the schema, see hibernate-bench.cfg.xml
+            try (Connection connection = HibernateUtil.getConnectionPool().getConnection()) {
+                new SyntheticDataGenerator(connection, scale, seed).generate();
+            }
+        } finally {
+            HibernateUtil.shutdown();
+        }
+    }
+
+    public void generate() throws SQLException {
+        if (count("product") > 0 || count("user") > 0) {
+            System.err.println("The database already has products or users; generate into an empty one");
+            return;
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            long start = System.currentTimeMillis();
+            int models = referenceData();
+            int users = scaled(USERS);
+            int products = scaled(PRODUCTS);
+            users(users);
+            products(products, models, users);
+            orders(scaled(ORDERS), users, products);
+            carts(Math.min(scaled(CART_USERS), users), products);
+            finish();
+            System.out.println("Generated in " + (System.currentTimeMillis() - start) / 1000 + " s");
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private int referenceData() throws SQLException {
+        Rows brands = new Rows("brand", "id", "name");
+        Rows models = new Rows("model", "id", "name", "brand_id");
+        int modelId = 0;
+        for (int b = 0; b < MODELS.length; b++) {
+            brands.add(b + 1, MODELS[b][0]);
+            for (int m = 1; m < MODELS[b].length; m++) {
+                models.add(++modelId, MODELS[b][m], b + 1);
+            }
+        }
+        brands.close();
+        models.close();
+
+        values("color", COLORS);
+        values("storage", STORAGES);
+        values("quality", QUALITIES);
+        values("status", STATUSES);
+        values("order_status", ORDER_STATUSES);
+
+        Rows cities = new Rows("city", "id", "name");
+        for (int i = 0; i < CITIES.length; i++) {
+            cities.add(i + 1, CITIES[i]);
+        }
+        cities.close();
+
+        Rows delivery = new Rows("delivery_type", "id", "name", "price");
+        delivery.add(1, "Within Colombo", 500.0);
+        delivery.add(2, "Out of Colombo", 1000.0);
+        delivery.close();
+
+        Rows admins = new Rows("admin", "id", "first_name", "last_name", "email", "password", "created_at");
+        admins.add(1, "Bench", "Admin", "admin@bench.phonehub.lk", "Bench@1234", new Timestamp(END_MILLIS));
+        admins.close();
+
+        System.out.println("Reference data: " + MODELS.length + " brands, " + modelId + " models");
+        return modelId;
+    }
+
+    private void users(int count) throws SQLException {
+        Rows users = new Rows("user", "id", "first_name", "last_name", "email", "password", "verification", "created_at");
+        Rows addresses = new Rows("address", "id", "first_name", "last_name", "line_1", "line_2", "city_id",
+                "postal_code", "mobile", "user_id");
+        for (int id = 1; id <= count; id++) {
+            String first = pick(FIRST_NAMES);
+            String last = pick(LAST_NAMES);
+            users.add(id, first, last, "user" + id + "@bench.phonehub.lk", "Bench@1234",
+                    random.nextInt(20) == 0 ? String.valueOf(100000 + random.nextInt(900000)) : "verified",
+                    timestamp());
+            // address id = user id, the orders below rely on it
+            addresses.add(id, first, last, (1 + random.nextInt(300)) + ", " + pick(LAST_NAMES) + " Mawatha",
+                    pick(CITIES) + " Road", 1 + random.nextInt(CITIES.length),
+                    String.format("%05d", random.nextInt(100000)),
+                    String.format("07%08d", random.nextInt(100000000)), id);
+        }
+        users.close();
+        addresses.close();
+        System.out.println("Users: " + count);
+    }
+
+    private void products(int count, int models, int users) throws SQLException {
+        Rows products = new Rows("product", "id", "title", "model_id", "description", "price", "qty", "created_at",
+                "color_id", "storage_id", "quality_id", "status_id", "user_id", "version");
+        // model ids are numbered brand by brand, remember each model's brand and name
+        String[] modelNames = new String[models + 1];
+        String[] brandNames = new String[models + 1];
+        int modelId = 0;
+        for (String[] brand : MODELS) {
+            for (int m = 1; m < brand.length; m++) {
+                modelNames[++modelId] = brand[m];
+                brandNames[modelId] = brand[0];
+            }
+        }
+        for (int id = 1; id <= count; id++) {
+            int model = 1 + random.nextInt(models);
+            int color = 1 + random.nextInt(COLORS.length);
+            int storage = 1 + random.nextInt(STORAGES.length);
+            int quality = 1 + random.nextInt(QUALITIES.length);
+            double price = Math.round((40000 + random.nextInt(360000)) * (1 + storage * 0.1)
+                    * (quality == 1 ? 1.0 : 0.7) / 100) * 100.0;
+            String title = brandNames[model] + " " + modelNames[model] + " " + STORAGES[storage - 1] + " "
+                    + COLORS[color - 1];
+            products.add(id, title, model, QUALITIES[quality - 1] + " " + title + ", " + (1 + random.nextInt(12))
+                    + " months warranty", price, random.nextInt(50),
+                    new java.sql.Date(timestamp().getTime()), color, storage, quality,
+                    random.nextInt(10) == 0 ? 2 : 1, 1 + random.nextInt(Math.min(SELLERS, users)), 0);
+        }
+        products.close();
+        System.out.println("Products: " + count);
+    }
+
+    /**
+     * Orders of random users for mostly popular products: a product id is drawn
+     * from a skewed distribution so a few SKUs get most of the sales.
+     */
+    private void orders(int count, int users, int products) throws SQLException {
+        Rows orders = new Rows("orders", "id", "user_id", "created_at", "address_id");
+        for (int id = 1; id <= count; id++) {
+            int user = 1 + random.nextInt(users);
+            orders.add(id, user, timestamp(), user);
+        }
+        orders.close();
+
+        // a second pass, the item batches fill faster than the order batches they reference
+        Rows items = new Rows("order_items", "id", "product_id", "qty", "order_status_id", "delivery_type_id",
+                "rating", "orders_id");
+        int itemId = 0;
+        for (int id = 1; id <= count; id++) {
+            int lines = 1 + random.nextInt(2);
+            for (int i = 0; i < lines; i++) {
+                items.add(++itemId, popularProduct(products), 1 + random.nextInt(3),
+                        1 + random.nextInt(ORDER_STATUSES.length), 1 + random.nextInt(2), random.nextInt(6), id);
+            }
+        }
+        items.close();
+        System.out.println("Orders: " + count + " with " + itemId + " items");
+    }
+
+    private void carts(int cartUsers, int products) throws SQLException {
+        Rows carts = new Rows("cart", "id", "qty", "user_id", "product_id", "version");
+        int id = 0;
+        for (int user = 1; user <= cartUsers; user++) {
+            Set<Integer> lines = new LinkedHashSet<>();
+            int size = 1 + random.nextInt(3);
+            while (lines.size() < size) {
+                lines.add(popularProduct(products));
+            }
+            for (int product : lines) {
+                carts.add(++id, 1 + random.nextInt(2), user, product, 0);
+            }
+        }
+        carts.close();
+        System.out.println("Cart lines: " + id + " for " + cartUsers + " users");
+    }
+
+    /**
+     * Moves the id counters past the generated rows so the application can
+     * insert without collisions.
+     */
+    private void finish() throws SQLException {
+        IdGenerators.reseed(connection, IdGenerators.ORDER_ITEMS, "order_items");
+        if ("H2".equals(connection.getMetaData().getDatabaseProductName())) {
+            // MySQL moves AUTO_INCREMENT past explicit ids by itself, H2 does not
+            for (String table : new String[]{"brand", "model", "color", "storage", "quality", "status", "order_status",
+                "city", "delivery_type", "admin", "user", "address", "product", "orders", "cart"}) {
+                try (Statement st = connection.createStatement()) {
+                    st.executeUpdate("ALTER TABLE " + table + " ALTER COLUMN id RESTART WITH " + (maxId(table) + 1));
+                }
+            }
+        }
+        connection.commit();
+    }
+
+    private int popularProduct(int products) {
+        return 1 + (int) (products * Math.pow(random.nextDouble(), 3));
+    }
+
+    private void values(String table, String[] values) throws SQLException {
+        Rows rows = new Rows(table, "id", "value");
+        for (int i = 0; i < values.length; i++) {
+            rows.add(i + 1, values[i]);
+        }
+        rows.close();
+    }
+
+    private int scaled(int count) {
+        return Math.max(1, (int) Math.round(count * scale));
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private Timestamp timestamp() {
+        return new Timestamp(END_MILLIS - (long) (random.nextDouble() * SPAN_MILLIS));
+    }
+
+    private long count(String table) throws SQLException {
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private long maxId(String table) throws SQLException {
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Batched inserts into one table, committed every {@link #COMMIT_EVERY} rows.
+     */
+    private class Rows {
+
+        private final PreparedStatement ps;
+        private int pending;
+        private long rows;
+
+        Rows(String table, String... columns) throws SQLException {
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+            StringBuilder params = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ", " : "").append(columns[i]);
+                params.append(i > 0 ? ", ?" : "?");
+            }
+            sql.append(") VALUES (").append(params).append(")");
+            ps = connection.prepareStatement(sql.toString());
+        }
+
+        void add(Object... values) throws SQLException {
+            for (int i = 0; i < values.length; i++) {
+                ps.setObject(i + 1, values[i]);
+            }
+            ps.addBatch();
+            rows++;
+            if (++pending == BATCH_SIZE) {
+                ps.executeBatch();
+                pending = 0;
+            }
+            if (rows % COMMIT_EVERY == 0) {
+                connection.commit();
+            }
+        }
+
+        void close() throws SQLException {
+            if (pending > 0) {
+                ps.executeBatch();
+            }
+            connection.commit();
+            ps.close();
+        }
+    }
+}
@@ -5,15 +5,20 @@
 package controller;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import hibernate.Cart;
+import hibernate.FetchPlans;
 import hibernate.HibernateUtil;
+import hibernate.OptimisticRetry;
 import hibernate.Product;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -24,7 +29,7 @@ import model.Util;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.Transaction;
+import org.hibernate.StaleStateException;
 import org.hibernate.criterion.Restrictions;
 
 /**
@@ -40,7 +45,7 @@ public class AddToCart extends HttpServlet {
         String prId = request.getParameter("prId");
         String qty = request.getParameter("qty");
         Gson gson = new Gson();
-        JsonObject responseObject = new JsonObject();
+        final JsonObject responseObject = new JsonObject();
         responseObject.addProperty("status", false);
 
         if (!Util.isInteger(prId)) {
@@ -52,43 +57,37 @@ public class AddToCart extends HttpServlet {
             // add-to-cart-process
             SessionFactory sf = HibernateUtil.getSessionFactory();
             Session s = sf.openSession();
-            Transaction tr = s.beginTransaction();
 
-            Product product = (Product) s.get(Product.class, Integer.valueOf(prId));
+            // guest carts keep the product in the HttpSession, so load everything LoadCartItems serializes
+            Criteria c0 = s.createCriteria(Product.class);
+            c0.add(Restrictions.idEq(Integer.valueOf(prId)));
+            FetchPlans.searchCard(c0);
+            Product product = (Product) c0.uniqueResult();
             if (product == null) {
                 responseObject.addProperty("message", "Product not found");
             } else { // product available in database
-                User user = (User) request.getSession().getAttribute("user");
+                final User user = (User) request.getSession().getAttribute("user");
                 if (user != null) { // add product to database cart -> user available
-                    Criteria c1 = s.createCriteria(Cart.class);
-                    c1.add(Restrictions.eq("user", user));
-                    c1.add(Restrictions.eq("product", product));
-                    if (c1.list().isEmpty()) { // product not available in same product id
-                        if (Integer.parseInt(qty) <= product.getQty()) { // product quantity available
-                            Cart cart = new Cart();
-                            cart.setQty(Integer.parseInt(qty));
-                            cart.setUser(user);
-                            cart.setProduct(product);
-
-                            s.save(cart);
-                            tr.commit();
-                            responseObject.addProperty("status", true);
-                            responseObject.addProperty("message", "Product add to cart successfully");
-                        } else {
-                            responseObject.addProperty("message", "OOPS... Insufficient Prodcut quantity!!!");
-                        }
-                    } else { // product available
-                        Cart cart = (Cart) c1.uniqueResult();
-                        int newQty = cart.getQty() + Integer.parseInt(qty);
-                        if (newQty <= product.getQty()) {
-                            cart.setQty(newQty);
-                            s.update(cart);
-                            tr.commit();
-                            responseObject.addProperty("status", true);
-                            responseObject.addProperty("message", "Product cart successfully updated...");
-                        } else {
-                            responseObject.addProperty("message", "OOPS... Insufficient Prodcut quantity!!!");
+                    final int productId = product.getId();
+                    final int addQty = Integer.parseInt(qty);
+                    try {
+                        // another tab changing the same cart line makes the update conflict and run again
+                        JsonObject published = OptimisticRetry.run(new OptimisticRetry.Work<JsonObject>() {
+                            @Override
+                            public JsonObject run(Session session) {
+                                // a response of its own, nothing a failed attempt wrote is sent
+                                JsonObject attempt = new JsonObject();
+                                attempt.addProperty("status", false);
+                                addToUserCart(session, user, productId, addQty, attempt);
+                                return attempt;
+                            }
+                        });
+                        for (Map.Entry<String, JsonElement> field : published.entrySet()) {
+                            responseObject.add(field.getKey(), field.getValue());
                         }
+                    } catch (StaleStateException e) {
+                        responseObject.addProperty("status", false);
+                        responseObject.addProperty("message", "Your cart was changed at the same time, please try again");
                     }
                 } else { // add product to session cart -> user not avaialble in the HttpSession
                     HttpSession ses = request.getSession();
@@ -141,6 +140,7 @@ public class AddToCart extends HttpServlet {
                     }
                 }
             }
+            s.close();
 
         }
 //        responseObject.addProperty("status", Boolean.TRUE);
@@ -150,4 +150,35 @@ public class AddToCart extends HttpServlet {
         response.getWriter().write(toJson);
     }
 
+    private void addToUserCart(Session s, User user, int productId, int qty, JsonObject responseObject) {
+        Product product = (Product) s.get(Product.class, productId);
+        Cart cart = (Cart) s.getNamedQuery(QueryCatalog.CART_BY_USER_AND_PRODUCT)
+                .setParameter("user", user)
+                .setParameter("product", product)
+                .uniqueResult();
+        if (cart == null) { // product not available in same product id
+            if (qty <= product.getQty()) { // product quantity available
+                cart = new Cart();
+                cart.setQty(qty);
+                cart.setUser(user);
+                cart.setProduct(product);
+
+                s.save(cart);
+                responseObject.addProperty("status", true);
+                responseObject.addProperty("message", "Product add to cart successfully");
+            } else {
+                responseObject.addProperty("message", "OOPS... Insufficient Prodcut quantity!!!");
+            }
+        } else { // product available
+            int newQty = cart.getQty() + qty;
+            if (newQty <= product.getQty()) {
+                cart.setQty(newQty);
+                responseObject.addProperty("status", true);
+                responseObject.addProperty("message", "Product cart successfully updated...");
+            } else {
+                responseObject.addProperty("message", "OOPS... Insufficient Prodcut quantity!!!");
+            }
+        }
+    }
+
 }
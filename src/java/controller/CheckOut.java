@@ -5,6 +5,7 @@
 package controller;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import hibernate.Address;
 import hibernate.Cart;
@@ -12,15 +13,18 @@ import hibernate.City;
 import hibernate.DeliveryTypes;
 import hibernate.HibernateUtil;
 import hibernate.OrderItems;
+import hibernate.OptimisticRetry;
 import hibernate.OrderStatus;
 import hibernate.Orders;
 import hibernate.Product;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -29,12 +33,8 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import model.PayHere;
 import model.Util;
-import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
-import org.hibernate.Transaction;
-import org.hibernate.criterion.Order;
-import org.hibernate.criterion.Restrictions;
+import org.hibernate.StaleStateException;
 
 /**
  *
@@ -71,13 +71,9 @@ public class CheckOut extends HttpServlet {
             System.out.println("Parsed data - isCurrentAddress: " + isCurrentAddress + ", firstName: " + firstName);
 
         
-        SessionFactory sf = HibernateUtil.getSessionFactory();
-        Session s = sf.openSession();
-        Transaction tr = s.beginTransaction();
-
-        JsonObject responseObject = new JsonObject();
+        final JsonObject responseObject = new JsonObject();
         responseObject.addProperty("status", false);
-        User user = (User) request.getSession().getAttribute("user");
+        final User user = (User) request.getSession().getAttribute("user");
 
          System.out.println("User from session: " + (user != null ? user.getFirst_name() : "null"));
 
@@ -85,65 +81,83 @@ public class CheckOut extends HttpServlet {
         if (user == null) {
             responseObject.addProperty("message", "Session expired! Please log in again");
         } else {
-            if (isCurrentAddress) {
-                Criteria c1 = s.createCriteria(Address.class);
-                c1.add(Restrictions.eq("user", user));
-                c1.addOrder(Order.desc("id"));
-                if (c1.list().isEmpty()) {
-                    responseObject.addProperty("message",
-                            "You current address is not found. Please add a new address");
-                } else {
-                    Address address = (Address) c1.list().get(0);
-                    // Update order notes for current address
-                    if (orderNotes != null && !orderNotes.isEmpty()) {
-                        address.setOrderNotes(orderNotes);
-                        s.update(address);
-                    }
-                    processCheckout(s, tr, user, address, responseObject);
-                }
-            } else {
-                if (firstName.isEmpty()) {
-                    responseObject.addProperty("message", "First Name is required.");
-                } else if (lastName.isEmpty()) {
-                    responseObject.addProperty("message", "Last Name is required.");
-                } else if (!Util.isInteger(citySelect)) {
-                    responseObject.addProperty("message", "Invalid city");
-                } else if (Integer.parseInt(citySelect) == CheckOut.SELECTOR_DEFAULT_VALUE) {
-                    responseObject.addProperty("message", "Invalid city");
-                } else {
-                    City city = (City) s.get(City.class, Integer.valueOf(citySelect));
-                    if (city == null) {
-                        responseObject.addProperty("message", "Invalid city name");
-                    } else {
-                        if (lineOne.isEmpty()) {
-                            responseObject.addProperty("message", "Address line one is required");
-                        } else if (lineTwo.isEmpty()) {
-                            responseObject.addProperty("message", "Address line two is required");
-                        } else if (postalCode.isEmpty()) {
-                            responseObject.addProperty("message", "Your postal code is required");
-                        } else if (!Util.isCodeValid(postalCode)) {
-                            responseObject.addProperty("message", "Invalid postal code number");
-                        } else if (mobile.isEmpty()) {
-                            responseObject.addProperty("message", "Mobile number is required");
-                        } else if (!Util.isMobileValid(mobile)) {
-                            responseObject.addProperty("message", "Invalid mobile number");
+            // a conflicting stock update rolls everything back and runs it again
+            try {
+                JsonObject published = OptimisticRetry.run(new OptimisticRetry.Work<JsonObject>() {
+                    @Override
+                    public JsonObject run(Session s) {
+                        // a response of its own, nothing a failed attempt wrote is sent
+                        JsonObject attempt = new JsonObject();
+                        attempt.addProperty("status", false);
+                        if (isCurrentAddress) {
+                            Address address = (Address) s.getNamedQuery(QueryCatalog.ADDRESS_BY_USER_NEWEST_FIRST)
+                                    .setParameter("user", user)
+                                    .setMaxResults(1)
+                                    .uniqueResult();
+                            if (address == null) {
+                                attempt.addProperty("message",
+                                        "You current address is not found. Please add a new address");
+                            } else {
+                                // Update order notes for current address
+                                if (orderNotes != null && !orderNotes.isEmpty()) {
+                                    address.setOrderNotes(orderNotes);
+                                    s.update(address);
+                                }
+                                processCheckout(s, user, address, attempt);
+                            }
                         } else {
-                            Address address = new Address();
-                            address.setFirstName(firstName);
-                            address.setLastName(lastName);
-                            address.setLineOne(lineOne);
-                            address.setLineTwo(lineTwo);
-                            address.setCity(city);
-                            address.setPostalCode(postalCode);
-                            address.setMobile(mobile);
-                            address.setUser(user);
-                            address.setOrderNotes(orderNotes);
-                            s.save(address);
-
-                            processCheckout(s, tr, user, address, responseObject);
+                            if (firstName.isEmpty()) {
+                                attempt.addProperty("message", "First Name is required.");
+                            } else if (lastName.isEmpty()) {
+                                attempt.addProperty("message", "Last Name is required.");
+                            } else if (!Util.isInteger(citySelect)) {
+                                attempt.addProperty("message", "Invalid city");
+                            } else if (Integer.parseInt(citySelect) == CheckOut.SELECTOR_DEFAULT_VALUE) {
+                                attempt.addProperty("message", "Invalid city");
+                            } else {
+                                City city = (City) s.get(City.class, Integer.valueOf(citySelect));
+                                if (city == null) {
+                                    attempt.addProperty("message", "Invalid city name");
+                                } else {
+                                    if (lineOne.isEmpty()) {
+                                        attempt.addProperty("message", "Address line one is required");
+                                    } else if (lineTwo.isEmpty()) {
+                                        attempt.addProperty("message", "Address line two is required");
+                                    } else if (postalCode.isEmpty()) {
+                                        attempt.addProperty("message", "Your postal code is required");
+                                    } else if (!Util.isCodeValid(postalCode)) {
+                                        attempt.addProperty("message", "Invalid postal code number");
+                                    } else if (mobile.isEmpty()) {
+                                        attempt.addProperty("message", "Mobile number is required");
+                                    } else if (!Util.isMobileValid(mobile)) {
+                                        attempt.addProperty("message", "Invalid mobile number");
+                                    } else {
+                                        Address address = new Address();
+                                        address.setFirstName(firstName);
+                                        address.setLastName(lastName);
+                                        address.setLineOne(lineOne);
+                                        address.setLineTwo(lineTwo);
+                                        address.setCity(city);
+                                        address.setPostalCode(postalCode);
+                                        address.setMobile(mobile);
+                                        address.setUser(user);
+                                        address.setOrderNotes(orderNotes);
+                                        s.save(address);
+
+                                        processCheckout(s, user, address, attempt);
+                                    }
+                                }
+                            }
                         }
+                        return attempt;
                     }
+                });
+                for (Map.Entry<String, JsonElement> field : published.entrySet()) {
+                    responseObject.add(field.getKey(), field.getValue());
                 }
+            } catch (StaleStateException e) {
+                responseObject.addProperty("status", false);
+                responseObject.addProperty("message", "These products are selling fast, please try again");
             }
         }
 
@@ -153,12 +167,25 @@ public class CheckOut extends HttpServlet {
     }
 
     private void processCheckout(Session s,
-            Transaction tr,
             User user,
             Address address,
             JsonObject responseObject) {
  System.out.println("processCheckout started");
         try {
+            List<Cart> cartList = s.getNamedQuery(QueryCatalog.CART_WITH_PRODUCT_BY_USER)
+                    .setParameter("user", user)
+                    .list();
+
+            // stock as of this transaction; the product versions make the update fail if it changes before commit
+            for (Cart cart : cartList) {
+                if (cart.getQty() > cart.getProduct().getQty()) {
+                    s.getTransaction().rollback();
+                    responseObject.addProperty("message", "Only " + cart.getProduct().getQty() + " of "
+                            + cart.getProduct().getTitle() + " left in stock");
+                    return;
+                }
+            }
+
             Orders orders = new Orders();
             orders.setAddress(address);
             orders.setCreatedAt(new Date());
@@ -166,10 +193,6 @@ public class CheckOut extends HttpServlet {
 
             int orderId = (int) s.save(orders);
 
-            Criteria c1 = s.createCriteria(Cart.class);
-            c1.add(Restrictions.eq("user", user));
-            List<Cart> cartList = c1.list();
-
             OrderStatus orderStatus = (OrderStatus) s.get(OrderStatus.class, CheckOut.ORDER_PROCESSING);
             DeliveryTypes withInColombo = (DeliveryTypes) s.get(DeliveryTypes.class, CheckOut.WITHIN_COLOMBO);
             DeliveryTypes outOfColombo = (DeliveryTypes) s.get(DeliveryTypes.class, CheckOut.OUT_OF_COLOMBO);
@@ -200,15 +223,19 @@ public class CheckOut extends HttpServlet {
 
                 s.save(orderItems);
 
-                //update product qty
+                //update product qty (flushed with the order items as one batch)
                 product.setQty(product.getQty() - cart.getQty());
-                s.update(product);
-
-                // delete cart item
-                s.delete(cart);
             }
 
-            tr.commit();
+            // write the stock updates first so a conflict shows up before the cart is cleared
+            s.flush();
+
+            // clear the cart in one statement
+            s.getNamedQuery(QueryCatalog.CART_DELETE_BY_USER)
+                    .setParameter("user", user)
+                    .executeUpdate();
+
+            s.getTransaction().commit();
 
             //PayHere process
             String merahantID = "1224009";
@@ -248,10 +275,12 @@ public class CheckOut extends HttpServlet {
             responseObject.add("payhereJson", new Gson().toJsonTree(payHereJson));
             
              System.out.println("Order created successfully, proceeding with PayHere");
+        } catch (StaleStateException e) {
+            throw e; // retried by OptimisticRetry
         } catch (Exception e) {
         System.out.println("Error in processCheckout: " + e.getMessage());
         e.printStackTrace();
-        tr.rollback();
+        s.getTransaction().rollback();
         responseObject.addProperty("message", "Checkout failed: " + e.getMessage());
    
         }
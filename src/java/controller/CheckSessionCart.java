@@ -4,12 +4,15 @@
 package controller;
 
 import hibernate.Cart;
-import hibernate.HibernateUtil;
+import hibernate.OptimisticRetry;
 import hibernate.Product;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -17,8 +20,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hibernate.Query;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
-import org.hibernate.Transaction;
 
 /**
  *
@@ -57,7 +58,7 @@ public class CheckSessionCart extends HttpServlet {
         response.getWriter().write(new com.google.gson.Gson().toJson(responseObject));
     }
     
-    private void processSessionCart(HttpServletRequest request, User user) {
+    private void processSessionCart(HttpServletRequest request, final User user) {
         ArrayList<Cart> sessionCarts = (ArrayList<Cart>) request.getSession().getAttribute("sessionCart");
         
         if (sessionCarts == null || sessionCarts.isEmpty()) {
@@ -67,89 +68,91 @@ public class CheckSessionCart extends HttpServlet {
         
         System.out.println("Processing " + sessionCarts.size() + " session cart items");
         
-        SessionFactory sf = HibernateUtil.getSessionFactory();
-        Session session = null;
-        Transaction transaction = null;
-        
+        final List<Cart> items = sessionCarts;
         try {
-            session = sf.openSession();
-            transaction = session.beginTransaction();
-            
-            // Get fresh user reference from database
-            User dbUser = (User) session.get(User.class, user.getId());
-            if (dbUser == null) {
-                System.err.println("User not found in database: " + user.getId());
-                return;
-            }
-            
-            for (Cart sessionCart : sessionCarts) {
-                try {
-                    processCartItem(session, dbUser, sessionCart);
-                } catch (Exception e) {
-                    System.err.println("Error processing cart item for product " + 
-                                     sessionCart.getProduct().getId() + ": " + e.getMessage());
-                    // Continue with other items
+            // all items are committed at once; a cart line changed meanwhile in another tab makes it run again
+            boolean merged = OptimisticRetry.run(new OptimisticRetry.Work<Boolean>() {
+                @Override
+                public Boolean run(Session session) {
+                    return mergeSessionCart(session, user, items);
                 }
+            });
+            if (merged) {
+                System.out.println("All session cart items processed successfully");
+                
+                // Clear session cart only after successful commit
+                request.getSession().removeAttribute("sessionCart");
             }
-            
-            // Commit all changes at once
-            transaction.commit();
-            System.out.println("All session cart items processed successfully");
-            
-            // Clear session cart only after successful commit
-            request.getSession().removeAttribute("sessionCart");
-            
         } catch (Exception e) {
             System.err.println("Error in session cart processing: " + e.getMessage());
             e.printStackTrace();
-            
-            if (transaction != null) {
-                try {
-                    transaction.rollback();
-                    System.out.println("Transaction rolled back");
-                } catch (Exception rollbackEx) {
-                    System.err.println("Error during rollback: " + rollbackEx.getMessage());
-                }
-            }
-        } finally {
-            if (session != null) {
-                try {
-                    session.close();
-                } catch (Exception closeEx) {
-                    System.err.println("Error closing session: " + closeEx.getMessage());
-                }
+        }
+    }
+    
+    private boolean mergeSessionCart(Session session, User user, List<Cart> sessionCarts) {
+        // Get fresh user reference from database
+        User dbUser = (User) session.get(User.class, user.getId());
+        if (dbUser == null) {
+            System.err.println("User not found in database: " + user.getId());
+            return false;
+        }
+        
+        // Load every product and the user's existing cart rows for them up front,
+        // one query each instead of two per session cart item
+        List<Integer> productIds = new ArrayList<>();
+        for (Cart sessionCart : sessionCarts) {
+            productIds.add(sessionCart.getProduct().getId());
+        }
+        
+        Map<Integer, Product> products = new HashMap<>();
+        Query productQuery = session.getNamedQuery(QueryCatalog.PRODUCT_BY_IDS);
+        QueryCatalog.setIds(productQuery, "ids", productIds);
+        for (Object row : productQuery.list()) {
+            Product product = (Product) row;
+            products.put(product.getId(), product);
+        }
+        
+        Map<Integer, Cart> existingCarts = new HashMap<>();
+        Query cartQuery = session.getNamedQuery(QueryCatalog.CART_BY_USER_AND_PRODUCTS);
+        cartQuery.setParameter("user", dbUser);
+        QueryCatalog.setIds(cartQuery, "productIds", productIds);
+        for (Object row : cartQuery.list()) {
+            Cart cart = (Cart) row;
+            existingCarts.put(cart.getProduct().getId(), cart);
+        }
+        
+        for (Cart sessionCart : sessionCarts) {
+            try {
+                processCartItem(session, dbUser, sessionCart, products, existingCarts);
+            } catch (Exception e) {
+                System.err.println("Error processing cart item for product " + 
+                                 sessionCart.getProduct().getId() + ": " + e.getMessage());
+                // Continue with other items
             }
         }
+        return true;
     }
     
-    private void processCartItem(Session session, User dbUser, Cart sessionCart) throws Exception {
+    private void processCartItem(Session session, User dbUser, Cart sessionCart,
+            Map<Integer, Product> products, Map<Integer, Cart> existingCarts) throws Exception {
         Integer productId = sessionCart.getProduct().getId();
         Integer sessionQty = sessionCart.getQty();
         
-        // Get fresh product reference from database
-        Product dbProduct = (Product) session.get(Product.class, productId);
+        Product dbProduct = products.get(productId);
         if (dbProduct == null) {
             System.err.println("Product not found: " + productId);
             return;
         }
         
         // Check if this product is already in user's cart
-        String hql = "FROM Cart c WHERE c.user.id = :userId AND c.product.id = :productId";
-        Query query = session.createQuery(hql);
-        query.setParameter("userId", dbUser.getId());
-        query.setParameter("productId", productId);
-        
-        @SuppressWarnings("unchecked")
-        List<Cart> existingCarts = query.list();
+        Cart existingCart = existingCarts.get(productId);
         
-        if (!existingCarts.isEmpty()) {
+        if (existingCart != null) {
             // Update existing cart item
-            Cart existingCart = existingCarts.get(0);
             int newQty = existingCart.getQty() + sessionQty;
             
             if (newQty <= dbProduct.getQty()) {
                 existingCart.setQty(newQty);
-                session.update(existingCart);
                 System.out.println("Updated cart item - Product: " + productId + ", New Qty: " + newQty);
             } else {
                 System.out.println("Cannot update - insufficient stock for product: " + productId + 
@@ -163,6 +166,7 @@ public class CheckSessionCart extends HttpServlet {
                 newCart.setProduct(dbProduct);
                 newCart.setQty(sessionQty);
                 session.save(newCart);
+                existingCarts.put(productId, newCart);
                 
                 System.out.println("Added new cart item - Product: " + productId + ", Qty: " + sessionQty);
             } else {
@@ -18,7 +18,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
 
 /**
  *
@@ -29,16 +28,15 @@ public class CityData extends HttpServlet {
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-        SessionFactory sf = HibernateUtil.getSessionFactory();
-        Session s = sf.openSession();
+        Session s = HibernateUtil.currentSession(HibernateUtil.Route.REPLICA);
         Criteria c = s.createCriteria(City.class);
+        c.setCacheable(true).setCacheRegion(HibernateUtil.REFERENCE_REGION);
         List<City> cityList = c.list();
         
         Gson gson = new Gson();
         String toJson = gson.toJson(cityList);
         response.setContentType("application/json");
         response.getWriter().write(toJson);
-        s.close();
     }
 
 }
@@ -9,8 +9,6 @@ import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Order;
-import org.hibernate.criterion.Projections;
-import org.hibernate.criterion.Restrictions;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -18,20 +16,26 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @WebServlet(name = "DashboardServlet", urlPatterns = {"/DashboardServlet"})
 public class DashboardServlet extends HttpServlet {
 
+    private static final int LOW_STOCK = 10;
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         Gson gson = new Gson();
         JsonObject responseObject = new JsonObject();
         responseObject.addProperty("status", false);
         
-        SessionFactory sf = HibernateUtil.getSessionFactory();
+        SessionFactory sf = HibernateUtil.getSessionFactory(HibernateUtil.Route.REPLICA);
         Session session = sf.openSession();
         
         try {
@@ -68,45 +72,23 @@ public class DashboardServlet extends HttpServlet {
         JsonObject summary = new JsonObject();
         
         try {
-            // Total Orders
-            Criteria orderCriteria = session.createCriteria(Orders.class);
-            Long totalOrders = (Long) orderCriteria.setProjection(Projections.rowCount()).uniqueResult();
-            summary.addProperty("totalOrders", totalOrders != null ? totalOrders : 0);
-            
-            // Total Products
-            Criteria productCriteria = session.createCriteria(Product.class);
-            Long totalProducts = (Long) productCriteria.setProjection(Projections.rowCount()).uniqueResult();
-            summary.addProperty("totalProducts", totalProducts != null ? totalProducts : 0);
-            
-            // Total Customers
-            Criteria userCriteria = session.createCriteria(User.class);
-            Long totalCustomers = (Long) userCriteria.setProjection(Projections.rowCount()).uniqueResult();
-            summary.addProperty("totalCustomers", totalCustomers != null ? totalCustomers : 0);
+            Date[] month = currentMonth();
+            summary.addProperty("totalOrders", count(session.getNamedQuery(QueryCatalog.ORDERS_COUNT)));
+            summary.addProperty("totalProducts", count(session.getNamedQuery(QueryCatalog.PRODUCT_COUNT)));
+            summary.addProperty("totalCustomers", count(session.getNamedQuery(QueryCatalog.USER_COUNT)));
             
             // Low Stock Count (products with qty <= 10)
-            Criteria lowStockCriteria = session.createCriteria(Product.class);
-            lowStockCriteria.add(Restrictions.le("qty", 10));
-            Long lowStockCount = (Long) lowStockCriteria.setProjection(Projections.rowCount()).uniqueResult();
-            summary.addProperty("lowStockCount", lowStockCount != null ? lowStockCount : 0);
+            summary.addProperty("lowStockCount", count(session.getNamedQuery(QueryCatalog.PRODUCT_COUNT_LOW_STOCK)
+                    .setParameter("qty", LOW_STOCK)));
             
             // Total Revenue - calculate from order items
-            String revenueQuery = "SELECT SUM(oi.qty * p.price) FROM OrderItems oi JOIN oi.product p";
-            Query query = session.createQuery(revenueQuery);
-            Object revenueResult = query.uniqueResult();
-            Double totalRevenue = 0.0;
-            if (revenueResult != null) {
-                if (revenueResult instanceof BigDecimal) {
-                    totalRevenue = ((BigDecimal) revenueResult).doubleValue();
-                } else if (revenueResult instanceof Double) {
-                    totalRevenue = (Double) revenueResult;
-                }
-            }
-            summary.addProperty("totalRevenue", totalRevenue);
+            Object revenueResult = session.getNamedQuery(QueryCatalog.ORDER_ITEMS_REVENUE).uniqueResult();
+            summary.addProperty("totalRevenue", toDouble(revenueResult));
             
             // Orders this month
-            String monthlyOrdersQuery = "SELECT COUNT(*) FROM Orders o WHERE MONTH(o.createdAt) = MONTH(CURRENT_DATE()) AND YEAR(o.createdAt) = YEAR(CURRENT_DATE())";
-            Long monthlyOrders = (Long) session.createQuery(monthlyOrdersQuery).uniqueResult();
-            summary.addProperty("monthlyOrders", monthlyOrders != null ? monthlyOrders : 0);
+            summary.addProperty("monthlyOrders", count(session.getNamedQuery(QueryCatalog.ORDERS_COUNT_CREATED_BETWEEN)
+                    .setParameter("from", month[0])
+                    .setParameter("to", month[1])));
             
         } catch (Exception e) {
             System.err.println("Error calculating summary statistics: " + e.getMessage());
@@ -131,7 +113,9 @@ public class DashboardServlet extends HttpServlet {
             Criteria criteria = session.createCriteria(Orders.class);
             criteria.addOrder(Order.desc("createdAt"));
             criteria.setMaxResults(5);
+            FetchPlans.adminOrderList(criteria);
             List<Orders> orders = criteria.list();
+            Map<Integer, Double> orderTotals = calculateOrderTotals(session, orders);
             
             SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
             
@@ -150,8 +134,8 @@ public class DashboardServlet extends HttpServlet {
                     sdf.format(order.getCreatedAt()) : "N/A");
                 
                 // Calculate order total
-                Double orderTotal = calculateOrderTotal(session, order.getId());
-                orderObj.addProperty("total", orderTotal);
+                Double orderTotal = orderTotals.get(order.getId());
+                orderObj.addProperty("total", orderTotal != null ? orderTotal : 0.0);
                 
                 // Add order status if available
                 orderObj.addProperty("status", "Processing"); // Default status
@@ -176,6 +160,7 @@ public class DashboardServlet extends HttpServlet {
             Criteria criteria = session.createCriteria(Product.class);
             criteria.addOrder(Order.desc("created_at"));
             criteria.setMaxResults(5);
+            FetchPlans.searchCard(criteria);
             List<Product> products = criteria.list();
             
             for (Product product : products) {
@@ -220,14 +205,12 @@ public class DashboardServlet extends HttpServlet {
         JsonObject metrics = new JsonObject();
         
         try {
+            Date[] month = currentMonth();
+            
             // Top selling product this month
-            String topProductQuery = "SELECT p.title, SUM(oi.qty) as totalSold " +
-                                   "FROM OrderItems oi JOIN oi.product p JOIN oi.orders o " +
-                                   "WHERE MONTH(o.createdAt) = MONTH(CURRENT_DATE()) " +
-                                   "AND YEAR(o.createdAt) = YEAR(CURRENT_DATE()) " +
-                                   "GROUP BY p.id, p.title " +
-                                   "ORDER BY totalSold DESC";
-            Query topProductQ = session.createQuery(topProductQuery);
+            Query topProductQ = session.getNamedQuery(QueryCatalog.ORDER_ITEMS_TOP_PRODUCTS_BETWEEN)
+                    .setParameter("from", month[0])
+                    .setParameter("to", month[1]);
             topProductQ.setMaxResults(1);
             List<Object[]> topProduct = topProductQ.list();
             
@@ -240,18 +223,13 @@ public class DashboardServlet extends HttpServlet {
             }
             
             // New customers this month
-            String newCustomersQuery = "SELECT COUNT(*) FROM User u " +
-                                     "WHERE MONTH(u.created_at) = MONTH(CURRENT_DATE()) " +
-                                     "AND YEAR(u.created_at) = YEAR(CURRENT_DATE())";
-            Long newCustomers = (Long) session.createQuery(newCustomersQuery).uniqueResult();
-            metrics.addProperty("newCustomers", newCustomers != null ? newCustomers : 0);
+            metrics.addProperty("newCustomers", count(session.getNamedQuery(QueryCatalog.USER_COUNT_CREATED_BETWEEN)
+                    .setParameter("from", month[0])
+                    .setParameter("to", month[1])));
             
-            // Pending orders count
-            String pendingOrdersQuery = "SELECT COUNT(*) FROM Orders o WHERE o.status = :status";
-            Query pendingQ = session.createQuery(pendingOrdersQuery);
-            pendingQ.setParameter("status", "Processing");
-            Long pendingOrders = (Long) pendingQ.uniqueResult();
-            metrics.addProperty("pendingOrders", pendingOrders != null ? pendingOrders : 0);
+            // Pending orders count: the status is kept on the order lines
+            metrics.addProperty("pendingOrders", count(session.getNamedQuery(QueryCatalog.ORDER_ITEMS_COUNT_ORDERS_WITH_STATUS)
+                    .setParameter("status", "Processing")));
             
         } catch (Exception e) {
             System.err.println("Error calculating dashboard metrics: " + e.getMessage());
@@ -261,24 +239,56 @@ public class DashboardServlet extends HttpServlet {
         return metrics;
     }
     
-    private Double calculateOrderTotal(Session session, int orderId) {
+    /**
+     * Totals of the given orders in one grouped query, keyed by order id.
+     */
+    private Map<Integer, Double> calculateOrderTotals(Session session, List<Orders> orders) {
+        Map<Integer, Double> totals = new HashMap<>();
+        if (orders.isEmpty()) {
+            return totals;
+        }
+        List<Integer> orderIds = new ArrayList<>();
+        for (Orders order : orders) {
+            orderIds.add(order.getId());
+        }
         try {
-            String totalQuery = "SELECT SUM(oi.qty * p.price) FROM OrderItems oi " +
-                              "JOIN oi.product p WHERE oi.orders.id = :orderId";
-            Query query = session.createQuery(totalQuery);
-            query.setParameter("orderId", orderId);
-            Object result = query.uniqueResult();
+            Query query = session.getNamedQuery(QueryCatalog.ORDER_ITEMS_TOTALS_BY_ORDERS);
+            QueryCatalog.setIds(query, "orderIds", orderIds);
+            List<Object[]> rows = query.list();
             
-            if (result != null) {
-                if (result instanceof BigDecimal) {
-                    return ((BigDecimal) result).doubleValue();
-                } else if (result instanceof Double) {
-                    return (Double) result;
+            for (Object[] row : rows) {
+                if (row[1] != null) {
+                    totals.put((Integer) row[0], toDouble(row[1]));
                 }
             }
         } catch (Exception e) {
-            System.err.println("Error calculating order total for order " + orderId + ": " + e.getMessage());
+            System.err.println("Error calculating order totals for orders " + orderIds + ": " + e.getMessage());
         }
-        return 0.0;
+        return totals;
+    }
+    
+    private long count(Query query) {
+        Number count = (Number) query.uniqueResult();
+        return count != null ? count.longValue() : 0;
+    }
+    
+    private double toDouble(Object sum) {
+        return sum instanceof Number ? ((Number) sum).doubleValue() : 0.0;
+    }
+    
+    /**
+     * Start of this month and of the next, so the created_at indexes can be used
+     * instead of comparing MONTH() and YEAR() of every row.
+     */
+    private Date[] currentMonth() {
+        Calendar from = Calendar.getInstance();
+        from.set(Calendar.DAY_OF_MONTH, 1);
+        from.set(Calendar.HOUR_OF_DAY, 0);
+        from.set(Calendar.MINUTE, 0);
+        from.set(Calendar.SECOND, 0);
+        from.set(Calendar.MILLISECOND, 0);
+        Calendar to = (Calendar) from.clone();
+        to.add(Calendar.MONTH, 1);
+        return new Date[]{from.getTime(), to.getTime()};
     }
-}
\ No newline at end of file
+}
@@ -173,39 +173,46 @@ public class EntityManagementServlet extends HttpServlet {
             JsonObject input = gson.fromJson(reader, JsonObject.class);
             
             tx = session.beginTransaction();
+            Class<?> entityClass;
             
             switch (entity.toLowerCase()) {
                 case "brand":
+                    entityClass = Brand.class;
                     Brand brand = new Brand();
                     brand.setName(input.get("name").getAsString());
                     session.save(brand);
                     break;
                     
                 case "color":
+                    entityClass = Color.class;
                     Color color = new Color();
                     color.setValue(input.get("value").getAsString());
                     session.save(color);
                     break;
                     
                 case "storage":
+                    entityClass = Storage.class;
                     Storage storage = new Storage();
                     storage.setValue(input.get("value").getAsString());
                     session.save(storage);
                     break;
                     
                 case "quality":
+                    entityClass = Quality.class;
                     Quality quality = new Quality();
                     quality.setValue(input.get("value").getAsString());
                     session.save(quality);
                     break;
                     
                 case "city":
+                    entityClass = City.class;
                     City city = new City();
                     city.setName(input.get("name").getAsString());
                     session.save(city);
                     break;
                     
                 case "deliverytype":
+                    entityClass = DeliveryTypes.class;
                     DeliveryTypes dt = new DeliveryTypes();
                     dt.setName(input.get("name").getAsString());
                     dt.setPrice(input.get("price").getAsDouble());
@@ -213,6 +220,7 @@ public class EntityManagementServlet extends HttpServlet {
                     break;
                     
                 case "model":
+                    entityClass = Model.class;
                     Model model = new Model();
                     model.setName(input.get("name").getAsString());
                     int brandId = input.get("brandId").getAsInt();
@@ -226,6 +234,7 @@ public class EntityManagementServlet extends HttpServlet {
             }
             
             tx.commit();
+            HibernateUtil.evictReferenceData(entityClass);
             responseObject.addProperty("status", true);
             responseObject.addProperty("message", entity + " added successfully");
             
@@ -253,39 +262,47 @@ public class EntityManagementServlet extends HttpServlet {
         try {
             tx = session.beginTransaction();
             int entityId = Integer.parseInt(id);
+            Class<?> entityClass;
             
             switch (entity.toLowerCase()) {
                 case "brand":
+                    entityClass = Brand.class;
                     Brand brand = (Brand) session.get(Brand.class, entityId);
                     if (brand != null) session.delete(brand);
                     break;
                     
                 case "color":
+                    entityClass = Color.class;
                     Color color = (Color) session.get(Color.class, entityId);
                     if (color != null) session.delete(color);
                     break;
                     
                 case "storage":
+                    entityClass = Storage.class;
                     Storage storage = (Storage) session.get(Storage.class, entityId);
                     if (storage != null) session.delete(storage);
                     break;
                     
                 case "quality":
+                    entityClass = Quality.class;
                     Quality quality = (Quality) session.get(Quality.class, entityId);
                     if (quality != null) session.delete(quality);
                     break;
                     
                 case "city":
+                    entityClass = City.class;
                     City city = (City) session.get(City.class, entityId);
                     if (city != null) session.delete(city);
                     break;
                     
                 case "deliverytype":
+                    entityClass = DeliveryTypes.class;
                     DeliveryTypes dt = (DeliveryTypes) session.get(DeliveryTypes.class, entityId);
                     if (dt != null) session.delete(dt);
                     break;
                     
                 case "model":
+                    entityClass = Model.class;
                     Model model = (Model) session.get(Model.class, entityId);
                     if (model != null) session.delete(model);
                     break;
@@ -295,6 +312,7 @@ public class EntityManagementServlet extends HttpServlet {
             }
             
             tx.commit();
+            HibernateUtil.evictReferenceData(entityClass);
             responseObject.addProperty("status", true);
             responseObject.addProperty("message", entity + " deleted successfully");
             
@@ -8,6 +8,7 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import hibernate.Cart;
 import hibernate.HibernateUtil;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -18,10 +19,7 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
-import org.hibernate.criterion.Restrictions;
 
 /**
  *
@@ -39,11 +37,10 @@ public class LoadCartItems extends HttpServlet {
 
         User user = (User) request.getSession().getAttribute("user");
         if (user != null) { //DB Cart
-            SessionFactory sf = HibernateUtil.getSessionFactory();
-            Session s = sf.openSession();
-            Criteria c1 = s.createCriteria(Cart.class);
-            c1.add(Restrictions.eq("user", user));
-            List<Cart> cartList = c1.list();
+            Session s = HibernateUtil.currentSession();
+            List<Cart> cartList = s.getNamedQuery(QueryCatalog.CART_VIEW_BY_USER)
+                    .setParameter("user", user)
+                    .list();
             if (cartList.isEmpty()) {
                 responseObject.addProperty("message", "Your cart is empty...");
             } else {
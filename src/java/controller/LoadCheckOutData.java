@@ -11,6 +11,7 @@ import hibernate.Cart;
 import hibernate.City;
 import hibernate.DeliveryTypes;
 import hibernate.HibernateUtil;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -22,9 +23,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Order;
-import org.hibernate.criterion.Restrictions;
 
 /**
  *
@@ -45,18 +44,17 @@ public class LoadCheckOutData extends HttpServlet {
         if (sessionUser == null) {
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED); // 401
         } else {
-            SessionFactory sf = HibernateUtil.getSessionFactory();
-            Session s = sf.openSession();
+            Session s = HibernateUtil.currentSession();
 
-            Criteria c1 = s.createCriteria(Address.class);
-            c1.add(Restrictions.eq("user", sessionUser));
-            c1.addOrder(Order.desc("id"));
+            Address address = (Address) s.getNamedQuery(QueryCatalog.ADDRESS_BY_USER_NEWEST_FIRST)
+                    .setParameter("user", sessionUser)
+                    .setMaxResults(1)
+                    .uniqueResult();
 
-            if (c1.list().isEmpty()) {
+            if (address == null) {
                 responseObject.addProperty("message",
                         "Your account details are incomplete. Please filling your shipping address");
             } else {
-                Address address = (Address) c1.list().get(0);
                 // retrive user first name and last name
 //                address.getUser().setEmail(null);
                 address.getUser().setPassword(null);
@@ -69,6 +67,7 @@ public class LoadCheckOutData extends HttpServlet {
 
             // all-city-data
             Criteria c2 = s.createCriteria(City.class);
+            c2.setCacheable(true).setCacheRegion(HibernateUtil.REFERENCE_REGION);
             c2.addOrder(Order.asc("name"));
             List<City> cityList = c2.list();
             responseObject.add("cityList", gson.toJsonTree(cityList));
@@ -76,6 +75,7 @@ public class LoadCheckOutData extends HttpServlet {
 // get delivery types - move this outside cart check  
             System.out.println("About to query delivery types...");
             Criteria c4 = s.createCriteria(DeliveryTypes.class);
+            c4.setCacheable(true).setCacheRegion(HibernateUtil.REFERENCE_REGION);
             List<DeliveryTypes> deliveryTypes = c4.list();
             System.out.println("Delivery types query completed. Count: " + deliveryTypes.size());
 
@@ -90,9 +90,9 @@ public class LoadCheckOutData extends HttpServlet {
             responseObject.add("deliveryTypes", gson.toJsonTree(deliveryTypes));
             System.out.println("Added delivery types to response: " + gson.toJsonTree(deliveryTypes));
             // get user carts
-            Criteria c3 = s.createCriteria(Cart.class);
-            c3.add(Restrictions.eq("user", sessionUser));
-            List<Cart> cartList = c3.list();
+            List<Cart> cartList = s.getNamedQuery(QueryCatalog.CART_VIEW_BY_USER)
+                    .setParameter("user", sessionUser)
+                    .list();
 
             if (cartList.isEmpty()) {
                 responseObject.addProperty("message", "empty-cart");
@@ -104,7 +104,6 @@ public class LoadCheckOutData extends HttpServlet {
                 responseObject.add("cartList", gson.toJsonTree(cartList));
                 responseObject.addProperty("status", true);
             }
-            s.close();
         }
 
         response.setContentType("application/json");
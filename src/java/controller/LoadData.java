@@ -26,7 +26,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 
@@ -42,30 +41,34 @@ public class LoadData extends HttpServlet {
         JsonObject responseObject = new JsonObject();
         responseObject.addProperty("status", false);
         Gson gson = new Gson();
-        SessionFactory sf = HibernateUtil.getSessionFactory();
-        Session s = sf.openSession();
+        Session s = HibernateUtil.currentSession(HibernateUtil.Route.REPLICA);
 
         //search-brands
         Criteria c1 = s.createCriteria(Brand.class);
+        c1.setCacheable(true).setCacheRegion(HibernateUtil.REFERENCE_REGION);
         List<Brand> brandList = c1.list();
 
         //get-models
         Criteria c2 = s.createCriteria(Model.class);
+        c2.setCacheable(true).setCacheRegion(HibernateUtil.REFERENCE_REGION);
         List<Model> modelList = c2.list();
  
 
         //get-colors
         Criteria c3 = s.createCriteria(Color.class);
+        c3.setCacheable(true).setCacheRegion(HibernateUtil.REFERENCE_REGION);
         List<Color> colorList = c3.list();
     
 
         //get-storage
         Criteria c4 = s.createCriteria(Storage.class);
+        c4.setCacheable(true).setCacheRegion(HibernateUtil.REFERENCE_REGION);
         List<Storage> storageList = c4.list();
 
 
         //get-quality
         Criteria c5 = s.createCriteria(Quality.class);
+        c5.setCacheable(true).setCacheRegion(HibernateUtil.REFERENCE_REGION);
         List<Quality> qualityList = c5.list();
   
 
@@ -77,7 +80,6 @@ public class LoadData extends HttpServlet {
         String toJson = gson.toJson(responseObject);
         response.setContentType("application/json");
         response.getWriter().write(toJson);
-        s.close();
     }
 
 }
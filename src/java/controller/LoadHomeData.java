@@ -7,7 +7,10 @@ package controller;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import hibernate.Brand;
+import hibernate.CatalogIndex;
+import hibernate.FetchPlans;
 import hibernate.HibernateUtil;
+import hibernate.PageCursor;
 import hibernate.Product;
 import hibernate.Status;
 import java.io.IOException;
@@ -20,7 +23,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 
@@ -31,6 +33,7 @@ import org.hibernate.criterion.Restrictions;
 @WebServlet(name = "LoadHomeData", urlPatterns = {"/LoadHomeData"})
 public class LoadHomeData extends HttpServlet {
     private static final int ACTIVE_STATUS_ID = 1;
+    private static final int NEW_ARRIVALS = 8;
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -38,23 +41,36 @@ public class LoadHomeData extends HttpServlet {
         JsonObject responseObject = new JsonObject();
         responseObject.addProperty("status", false);
         
-        SessionFactory sf = HibernateUtil.getSessionFactory();
-        Session s = sf.openSession();
+        Session s = HibernateUtil.currentSession(HibernateUtil.Route.REPLICA);
         
         Criteria c1 = s.createCriteria(Brand.class);
+        c1.setCacheable(true).setCacheRegion(HibernateUtil.REFERENCE_REGION);
         List<Brand> brandList = c1.list();
         responseObject.add("brandList", gson.toJsonTree(brandList));
         
         Criteria c2 = s.createCriteria(Product.class);
+        FetchPlans.searchCard(c2);
         c2.addOrder(Order.desc("id"));
         
         Status status = (Status)s.get(Status.class, LoadHomeData.ACTIVE_STATUS_ID);
         c2.add(Restrictions.eq("status", status));
         
+        // "after" is the "next" token of the previous strip: the products older than its last one
+        PageCursor after = PageCursor.parse(request.getParameter("after"), CatalogIndex.Sort.LATEST);
+        if (after != null) {
+            c2.add(Restrictions.lt("id", after.getId()));
+        }
+        
         c2.setFirstResult(0);
-        c2.setMaxResults(8);
+        c2.setMaxResults(LoadHomeData.NEW_ARRIVALS + 1); // one more tells whether there is a next strip
         
         List<Product> productList = c2.list();
+        if (productList.size() > LoadHomeData.NEW_ARRIVALS) {
+            productList = productList.subList(0, LoadHomeData.NEW_ARRIVALS);
+            Product last = productList.get(LoadHomeData.NEW_ARRIVALS - 1);
+            responseObject.addProperty("next", PageCursor.after(CatalogIndex.Sort.LATEST, last.getId(),
+                    last.getPrice(), last.getTitle()).toToken());
+        }
         for (Product product : productList) {
             product.setUser(null);
         }
@@ -23,7 +23,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
 
 /**
  *
@@ -38,8 +37,7 @@ public class LoadProdcutData extends HttpServlet {
         JsonObject responseObject = new JsonObject();
         responseObject.addProperty("status", false);
 
-        SessionFactory sf = HibernateUtil.getSessionFactory();
-        Session s = sf.openSession();
+        Session s = HibernateUtil.currentSession();
 
         //search-brands
         Criteria c1 = s.createCriteria(Brand.class);
@@ -77,7 +75,6 @@ public class LoadProdcutData extends HttpServlet {
         String toJson = gson.toJson(responseObject);
         response.setContentType("application/json");
         response.getWriter().write(toJson);
-        s.close();
     }
 
 }
@@ -6,8 +6,9 @@ package controller;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import hibernate.CatalogIndex;
+import hibernate.FetchPlans;
 import hibernate.HibernateUtil;
-import hibernate.Model;
 import hibernate.Product;
 import java.io.IOException;
 import java.util.List;
@@ -20,7 +21,6 @@ import model.Util;
 import org.hibernate.Criteria;
 import org.hibernate.ObjectNotFoundException;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Restrictions;
 
 /**
@@ -30,6 +30,9 @@ import org.hibernate.criterion.Restrictions;
 @WebServlet(name = "LoadSingleProduct", urlPatterns = {"/LoadSingleProduct"})
 public class LoadSingleProduct extends HttpServlet {
 
+    private static final int MAX_SIMILAR = 6;
+    private static final int ACTIVE_ID = 1;
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
@@ -38,34 +41,31 @@ public class LoadSingleProduct extends HttpServlet {
         responseObject.addProperty("status", false);
         String productId = request.getParameter("id");
         if (Util.isInteger(productId)) {
-            SessionFactory sf = HibernateUtil.getSessionFactory();
-            Session s = sf.openSession();
+            Session s = HibernateUtil.currentSession(HibernateUtil.Route.REPLICA);
             try {
-                Product product = (Product) s.get(Product.class, Integer.valueOf(productId));
+                Criteria c0 = s.createCriteria(Product.class);
+                c0.add(Restrictions.idEq(Integer.valueOf(productId)));
+                FetchPlans.productDetail(c0);
+                Product product = (Product) c0.uniqueResult();
                 if (product.getStatus().getValue().equals("Active")) {
+                    FetchPlans.withDescription(product);
                     product.getUser().setEmail(null);
                     product.getUser().setPassword(null);
                     product.getUser().setVerification(null);
                     product.getUser().setId(-1);
                     product.getUser().setCreated_at(null);
 
-                    // similer-product-data
-                    Criteria c1 = s.createCriteria(Model.class);
-                    c1.add(Restrictions.eq("brand", product.getModel().getBrand()));
-                    List<Model> modelList = c1.list();
+                    // similer-product-data: ranked in advance by the catalog index, see SimilarProducts
+                    List<Product> productList;
+                    if (CatalogIndex.isEnabled()) {
+                        List<Integer> similar = CatalogIndex.get().similar(product.getId(), LoadSingleProduct.MAX_SIMILAR);
+                        productList = CatalogIndex.hydrate(s, similar);
+                    } else {
+                        productList = sameBrand(s, product);
+                    }
 
-                    Criteria c2 = s.createCriteria(Product.class);
-                    c2.add(Restrictions.in("model", modelList));
-                    c2.add(Restrictions.ne("id", product.getId()));
-                    c2.setMaxResults(6);
-                    List<Product> productList = c2.list();
-                    
                     for (Product pr : productList) {
-                        pr.getUser().setEmail(null);
-                        pr.getUser().setPassword(null);
-                        pr.getUser().setVerification(null);
-                        pr.getUser().setId(-1);
-                        pr.getUser().setCreated_at(null);
+                        pr.setUser(null); // the carousel shows no seller
                     }
 
                     // similer-product-data-end
@@ -85,4 +85,19 @@ public class LoadSingleProduct extends HttpServlet {
         response.getWriter().write(toJson);
     }
 
+    /**
+     * Other active products of the same brand, when the catalog index is
+     * switched off.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Product> sameBrand(Session s, Product product) {
+        Criteria c = s.createCriteria(Product.class);
+        FetchPlans.searchCard(c);
+        c.createAlias("model", "m");
+        c.add(Restrictions.eq("m.brand", product.getModel().getBrand()));
+        c.add(Restrictions.eq("status.id", LoadSingleProduct.ACTIVE_ID));
+        c.add(Restrictions.ne("id", product.getId()));
+        c.setMaxResults(LoadSingleProduct.MAX_SIMILAR);
+        return c.list();
+    }
 }
@@ -9,6 +9,7 @@ import com.google.gson.JsonObject;
 import hibernate.Address;
 import hibernate.City;
 import hibernate.HibernateUtil;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -23,7 +24,6 @@ import javax.servlet.http.HttpSession;
 import model.Util;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Restrictions;
 
 /**
@@ -47,8 +47,7 @@ public class MyAccount extends HttpServlet {
             responseObject.addProperty("since", since);
 
             Gson gson = new Gson();
-            SessionFactory sf = HibernateUtil.getSessionFactory();
-            Session s = sf.openSession();
+            Session s = HibernateUtil.currentSession();
             Criteria c = s.createCriteria(Address.class);
             c.add(Restrictions.eq("user", user));
             if(!c.list().isEmpty()){
@@ -111,13 +110,13 @@ public class MyAccount extends HttpServlet {
             if (ses.getAttribute("user") != null) {
                 User u = (User) ses.getAttribute("user"); //get session user
 
-                SessionFactory sf = HibernateUtil.getSessionFactory();
-                Session s = sf.openSession();
+                Session s = HibernateUtil.currentSession();
 
-                Criteria c = s.createCriteria(User.class);
-                c.add(Restrictions.eq("email", u.getEmail()));//session user email
-                if (!c.list().isEmpty()) {
-                    User u1 = (User) c.list().get(0); //db user
+                User u1 = (User) s.getNamedQuery(QueryCatalog.USER_BY_EMAIL)
+                        .setParameter("email", u.getEmail()) //session user email
+                        .setMaxResults(1)
+                        .uniqueResult(); //db user
+                if (u1 != null) {
 
                     u1.setFirst_name(firstName);
                     u1.setLast_name(lastName);
@@ -145,7 +144,6 @@ public class MyAccount extends HttpServlet {
                     s.beginTransaction().commit();
                     responseObject.addProperty("status", true);
                     responseObject.addProperty("message", "User profile details update successfully!");
-                    s.close();
                 }
             }
         }
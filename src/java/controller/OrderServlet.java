@@ -3,16 +3,21 @@ package controller;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import hibernate.FetchPlans;
 import hibernate.HibernateUtil;
 import hibernate.Orders;
 import hibernate.OrderItems;
 import hibernate.OrderStatus;
+import hibernate.QueryCatalog;
 import hibernate.User;
+import model.Util;
 import org.hibernate.Criteria;
+import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 
 import javax.servlet.ServletException;
@@ -22,10 +27,16 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @WebServlet(name = "OrderServlet", urlPatterns = {"/OrderServlet"})
 public class OrderServlet extends HttpServlet {
+
+    private static final int PAGE_SIZE = 50;
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         String action = request.getParameter("action");
@@ -55,6 +66,11 @@ public class OrderServlet extends HttpServlet {
         }
     }
 
+    /**
+     * One page of orders, newest first, with their totals and status. The
+     * "next" field of a full page is the "before" parameter of the following
+     * one.
+     */
     private void listOrders(HttpServletRequest request, HttpServletResponse response) throws IOException {
         Gson gson = new Gson();
         JsonObject responseObject = new JsonObject();
@@ -63,8 +79,44 @@ public class OrderServlet extends HttpServlet {
         Session s = sf.openSession();
         try {
             Criteria c = s.createCriteria(Orders.class);
+            FetchPlans.adminOrderList(c);
+            String before = request.getParameter("before");
+            if (before != null && Util.isInteger(before)) {
+                c.add(Restrictions.lt("id", Integer.parseInt(before)));
+            }
             c.addOrder(Order.desc("id"));
+            c.setMaxResults(OrderServlet.PAGE_SIZE);
             List<Orders> orderList = c.list();
+
+            List<Integer> orderIds = new ArrayList<>();
+            for (Orders order : orderList) {
+                orderIds.add(order.getId());
+            }
+            // totals and status of the page's orders, grouped in the database
+            Map<Integer, Double> totals = new HashMap<>();
+            Map<Integer, String> statuses = new HashMap<>();
+            if (!orderIds.isEmpty()) {
+                Query totalsQuery = s.getNamedQuery(QueryCatalog.ORDER_ITEMS_TOTALS_BY_ORDERS);
+                QueryCatalog.setIds(totalsQuery, "orderIds", orderIds);
+                for (Object[] row : (List<Object[]>) totalsQuery.list()) {
+                    if (row[1] != null) {
+                        totals.put((Integer) row[0], ((Number) row[1]).doubleValue());
+                    }
+                }
+                // the status of an order is that of its first line
+                Criteria ci = s.createCriteria(OrderItems.class);
+                ci.createAlias("orderStatus", "st");
+                ci.add(Restrictions.in("orders.id", QueryCatalog.pad(orderIds)));
+                ci.setProjection(Projections.projectionList()
+                        .add(Projections.property("orders.id"))
+                        .add(Projections.property("st.value")));
+                ci.addOrder(Order.asc("id"));
+                for (Object[] row : (List<Object[]>) ci.list()) {
+                    if (!statuses.containsKey((Integer) row[0])) {
+                        statuses.put((Integer) row[0], (String) row[1]);
+                    }
+                }
+            }
             JsonArray arr = new JsonArray();
             for (Orders order : orderList) {
                 JsonObject o = new JsonObject();
@@ -72,24 +124,16 @@ public class OrderServlet extends HttpServlet {
                 User user = order.getUser();
                 o.addProperty("customerName", user != null ? user.getFirst_name() + " " + user.getLast_name() : "-");
                 o.addProperty("date", order.getCreatedAt() != null ? order.getCreatedAt().toString() : "");
-                // Calculate total amount
-                double amount = 0;
-                Criteria ci = s.createCriteria(OrderItems.class);
-                ci.add(Restrictions.eq("orders", order));
-                List<OrderItems> items = ci.list();
-                for (OrderItems item : items) {
-                    amount += item.getQty() * (item.getProduct() != null ? item.getProduct().getPrice() : 0);
-                }
-                o.addProperty("amount", amount);
-                // Get status
-                String status = "Processing";
-                if (!items.isEmpty() && items.get(0).getOrderStatus() != null) {
-                    status = items.get(0).getOrderStatus().getValue();
-                }
-                o.addProperty("status", status);
+                Double amount = totals.get(order.getId());
+                o.addProperty("amount", amount != null ? amount : 0);
+                String status = statuses.get(order.getId());
+                o.addProperty("status", status != null ? status : "Processing");
                 arr.add(o);
             }
             responseObject.add("orderList", arr);
+            if (orderList.size() == OrderServlet.PAGE_SIZE) {
+                responseObject.addProperty("next", orderList.get(orderList.size() - 1).getId());
+            }
             responseObject.addProperty("status", true);
         } catch (Exception e) {
             responseObject.addProperty("message", "Error loading orders: " + e.getMessage());
@@ -115,7 +159,10 @@ public class OrderServlet extends HttpServlet {
         SessionFactory sf = HibernateUtil.getSessionFactory();
         Session s = sf.openSession();
         try {
-            Orders order = (Orders) s.get(Orders.class, id);
+            Criteria c = s.createCriteria(Orders.class);
+            c.add(Restrictions.idEq(id));
+            FetchPlans.adminOrderList(c);
+            Orders order = (Orders) c.uniqueResult();
             if (order != null) {
                 JsonObject o = new JsonObject();
                 o.addProperty("id", order.getId());
@@ -124,6 +171,7 @@ public class OrderServlet extends HttpServlet {
                 o.addProperty("date", order.getCreatedAt() != null ? order.getCreatedAt().toString() : "");
                 // Items
                 Criteria ci = s.createCriteria(OrderItems.class);
+                FetchPlans.adminOrderItems(ci);
                 ci.add(Restrictions.eq("orders", order));
                 List<OrderItems> items = ci.list();
                 double amount = 0;
@@ -0,0 +1,71 @@
+package controller;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import hibernate.ConnectionPool;
+import hibernate.HibernateUtil;
+import hibernate.ReplicaMonitor;
+import hibernate.RequestDeadline;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+@WebServlet(name = "PoolStatusServlet", urlPatterns = {"/PoolStatusServlet"})
+public class PoolStatusServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Gson gson = new Gson();
+        JsonObject responseObject = new JsonObject();
+        responseObject.addProperty("status", false);
+        try {
+            ConnectionPool pool = HibernateUtil.getConnectionPool();
+            responseObject.add("pool", gson.toJsonTree(pool.getMetrics()));
+
+            ConnectionPool replicaPool = HibernateUtil.getReplicaPool();
+            if (replicaPool != null) {
+                ReplicaMonitor monitor = HibernateUtil.getReplicaMonitor();
+                JsonObject replica = new JsonObject();
+                replica.add("pool", gson.toJsonTree(replicaPool.getMetrics()));
+                replica.addProperty("healthy", monitor.isHealthy());
+                replica.addProperty("lagSeconds", monitor.getLagSeconds());
+                replica.addProperty("maxLagSeconds", monitor.getMaxLagSeconds());
+                replica.addProperty("lastError", monitor.getLastError());
+                responseObject.add("replica", replica);
+            }
+
+            // requests whose database work ran past their budget, see request-deadlines.properties
+            JsonObject deadlines = new JsonObject();
+            deadlines.addProperty("enabled", RequestDeadline.isEnabled());
+            deadlines.add("overruns", gson.toJsonTree(RequestDeadline.getOverruns()));
+            responseObject.add("deadlines", deadlines);
+            responseObject.addProperty("status", true);
+        } catch (Exception e) {
+            responseObject.addProperty("message", "Error reading pool metrics: " + e.getMessage());
+        }
+        response.setContentType("application/json");
+        response.getWriter().write(gson.toJson(responseObject));
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String action = request.getParameter("action");
+        if (!"reset".equals(action)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        HibernateUtil.getConnectionPool().resetMetrics();
+        if (HibernateUtil.getReplicaPool() != null) {
+            HibernateUtil.getReplicaPool().resetMetrics();
+        }
+        RequestDeadline.reset();
+        JsonObject responseObject = new JsonObject();
+        responseObject.addProperty("status", true);
+        response.setContentType("application/json");
+        response.getWriter().write(new Gson().toJson(responseObject));
+    }
+}
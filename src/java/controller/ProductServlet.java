@@ -3,6 +3,7 @@ package controller;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import hibernate.Brand;
+import hibernate.FetchPlans;
 import hibernate.HibernateUtil;
 import hibernate.Product;
 import hibernate.Status;
@@ -77,6 +78,7 @@ public class ProductServlet extends HttpServlet {
         Session s = sf.openSession();
         try {
             Criteria c = s.createCriteria(Product.class);
+            FetchPlans.productDetail(c);
             c.addOrder(Order.desc("id"));
             List<Product> productList = c.list();
             responseObject.add("productList", gson.toJsonTree(productList));
@@ -134,7 +136,10 @@ public class ProductServlet extends HttpServlet {
         SessionFactory sf = HibernateUtil.getSessionFactory();
         Session s = sf.openSession();
         try {
-            Product product = (Product) s.get(Product.class, id);
+            Criteria c = s.createCriteria(Product.class);
+            c.add(Restrictions.idEq(id));
+            FetchPlans.productDetail(c);
+            Product product = (Product) c.uniqueResult();
             if (product != null) {
                 responseObject.add("product", gson.toJsonTree(product));
                 responseObject.addProperty("status", true);
@@ -0,0 +1,32 @@
+package controller;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import model.StartupListener;
+
+/**
+ * Load balancer readiness check: 200 once {@link StartupListener} has finished
+ * bootstrapping and warming up, 503 with the current step until then.
+ */
+@WebServlet(name = "ReadinessServlet", urlPatterns = {"/ready"})
+public class ReadinessServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        JsonObject responseObject = new JsonObject();
+        boolean ready = StartupListener.isReady();
+        responseObject.addProperty("status", ready);
+        responseObject.addProperty("message", StartupListener.getState());
+        if (!ready) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        response.setContentType("application/json");
+        response.getWriter().write(new Gson().toJson(responseObject));
+    }
+}
@@ -9,6 +9,7 @@ import com.google.gson.JsonObject;
 import hibernate.Cart;
 import hibernate.HibernateUtil;
 import hibernate.Product;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -21,11 +22,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import model.Util;
-import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
-import org.hibernate.criterion.Restrictions;
 
 /**
  *
@@ -93,11 +92,10 @@ public class RemoveFromCart extends HttpServlet {
                 return;
             }
 
-            Criteria c1 = s.createCriteria(Cart.class);
-            c1.add(Restrictions.eq("user", user));
-            c1.add(Restrictions.eq("product", product));
-
-            List<Cart> cartItems = c1.list();
+            List<Cart> cartItems = s.getNamedQuery(QueryCatalog.CART_BY_USER_AND_PRODUCT)
+                    .setParameter("user", user)
+                    .setParameter("product", product)
+                    .list();
             if (!cartItems.isEmpty()) {
                 Cart cartItem = cartItems.get(0);
                 s.delete(cartItem);
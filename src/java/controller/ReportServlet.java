@@ -53,36 +53,23 @@ public class ReportServlet extends HttpServlet {
         responseObject.addProperty("status", false);
         Gson gson = new Gson();
         
-        SessionFactory sf = HibernateUtil.getSessionFactory();
+        SessionFactory sf = HibernateUtil.getSessionFactory(HibernateUtil.Route.REPLICA);
         Session s = sf.openSession();
         
         try {
             JsonObject salesSummary = new JsonObject();
             
-            // Get all orders
-            Criteria c1 = s.createCriteria(Orders.class);
-            List<Orders> ordersList = c1.list();
-            
-            // Get all users
-            Criteria c2 = s.createCriteria(User.class);
-            List<User> usersList = c2.list();
-            
-            // Get all order items
-            Criteria c3 = s.createCriteria(OrderItems.class);
-            List<OrderItems> orderItemsList = c3.list();
-            
-            // Calculate totals
-            double totalSales = 0.0;
-            for (OrderItems item : orderItemsList) {
-                totalSales += item.getQty() * item.getProduct().getPrice();
-            }
+            long totalOrders = ((Number) s.getNamedQuery(QueryCatalog.ORDERS_COUNT).uniqueResult()).longValue();
+            long totalCustomers = ((Number) s.getNamedQuery(QueryCatalog.USER_COUNT).uniqueResult()).longValue();
+            Number revenue = (Number) s.getNamedQuery(QueryCatalog.ORDER_ITEMS_REVENUE).uniqueResult();
+            double totalSales = revenue != null ? revenue.doubleValue() : 0.0;
             
             salesSummary.addProperty("totalSales", totalSales);
-            salesSummary.addProperty("totalOrders", ordersList.size());
-            salesSummary.addProperty("totalCustomers", usersList.size());
+            salesSummary.addProperty("totalOrders", totalOrders);
+            salesSummary.addProperty("totalCustomers", totalCustomers);
             
-            if (ordersList.size() > 0) {
-                double avgOrderValue = totalSales / ordersList.size();
+            if (totalOrders > 0) {
+                double avgOrderValue = totalSales / totalOrders;
                 salesSummary.addProperty("avgOrderValue", avgOrderValue);
             } else {
                 salesSummary.addProperty("avgOrderValue", 0.0);
@@ -107,7 +94,7 @@ public class ReportServlet extends HttpServlet {
         responseObject.addProperty("status", false);
         Gson gson = new Gson();
         
-        SessionFactory sf = HibernateUtil.getSessionFactory();
+        SessionFactory sf = HibernateUtil.getSessionFactory(HibernateUtil.Route.REPLICA);
         Session s = sf.openSession();
         
         try {
@@ -228,7 +215,7 @@ public class ReportServlet extends HttpServlet {
         responseObject.addProperty("status", false);
         Gson gson = new Gson();
         
-        SessionFactory sf = HibernateUtil.getSessionFactory();
+        SessionFactory sf = HibernateUtil.getSessionFactory(HibernateUtil.Route.REPLICA);
         Session s = sf.openSession();
         
         try {
@@ -306,7 +293,7 @@ public class ReportServlet extends HttpServlet {
         responseObject.addProperty("status", false);
         Gson gson = new Gson();
         
-        SessionFactory sf = HibernateUtil.getSessionFactory();
+        SessionFactory sf = HibernateUtil.getSessionFactory(HibernateUtil.Route.REPLICA);
         Session s = sf.openSession();
         
         try {
@@ -427,7 +414,7 @@ public class ReportServlet extends HttpServlet {
         responseObject.addProperty("status", false);
         Gson gson = new Gson();
         
-        SessionFactory sf = HibernateUtil.getSessionFactory();
+        SessionFactory sf = HibernateUtil.getSessionFactory(HibernateUtil.Route.REPLICA);
         Session s = sf.openSession();
         
         try {
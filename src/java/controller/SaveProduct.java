@@ -27,7 +27,6 @@ import javax.servlet.http.Part;
 import model.Util;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Restrictions;
 
 @MultipartConfig
@@ -56,8 +55,7 @@ public class SaveProduct extends HttpServlet {
         JsonObject responseObject = new JsonObject();
         responseObject.addProperty("status", false);
 
-        SessionFactory sf = HibernateUtil.getSessionFactory();
-        Session s = sf.openSession();
+        Session s = HibernateUtil.currentSession();
 
         //validation
         if (request.getSession().getAttribute("user") == null) {
@@ -149,7 +147,6 @@ public class SaveProduct extends HttpServlet {
 
                                     int id = (int) s.save(p);
                                     s.beginTransaction().commit();
-                                    s.close();
 
                                     //image uploading
                                     String appPath = getServletContext().getRealPath(""); //Full path of the Web Pages folder
@@ -5,29 +5,27 @@
 package controller;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import hibernate.Brand;
-import hibernate.Color;
+import com.google.gson.JsonPrimitive;
+import hibernate.CatalogIndex;
+import hibernate.FetchPlans;
 import hibernate.HibernateUtil;
-import hibernate.Model;
+import hibernate.PageCursor;
 import hibernate.Product;
-import hibernate.Quality;
-import hibernate.Status;
-import hibernate.Storage;
+import hibernate.ResultCache;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.hibernate.Criteria;
+import org.hibernate.QueryTimeoutException;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
-import org.hibernate.criterion.Order;
-import org.hibernate.criterion.Restrictions;
 
 /**
  *
@@ -46,91 +44,35 @@ public class SearchProducts extends HttpServlet {
         JsonObject resposeObject = new JsonObject();
         resposeObject.addProperty("status", true);
 
-        SessionFactory sf = HibernateUtil.getSessionFactory();
-        Session s = sf.openSession();
+        Session s = HibernateUtil.currentSession(HibernateUtil.Route.REPLICA);
+
+        // a search asked before is answered from the index's cache, see ResultCache
+        ResultCache<String> results = null;
+        String cacheKey = null;
+        long stamp = 0;
+        CatalogIndex.Selection selection = new CatalogIndex.Selection().withFacets();
 
         try {
-            Criteria c1 = s.createCriteria(Product.class); // get all products for the filtering
+            // filters, counting and paging run on the in-memory index, only the page is loaded
 
             // Get brand filters
-            String[] brandIds = request.getParameterValues("brand[]");
-            if (brandIds != null && brandIds.length > 0) {
-                List<Brand> brands = new ArrayList<>();
-                for (String brandId : brandIds) {
-                    try {
-                        Brand brand = (Brand) s.get(Brand.class, Integer.parseInt(brandId));
-                        if (brand != null) {
-                            brands.add(brand);
-                        }
-                    } catch (NumberFormatException e) {
-                        // Handle invalid brand ID
-                    }
-                }
-                if (!brands.isEmpty()) {
-                    Criteria c3 = s.createCriteria(Model.class);
-                    c3.add(Restrictions.in("brand", brands));
-                    List<Model> modelList = c3.list();
-                    if (!modelList.isEmpty()) {
-                        c1.add(Restrictions.in("model", modelList));
-                    }
-                }
+            for (int brandId : ids(request.getParameterValues("brand[]"))) {
+                selection.brand(brandId);
             }
 
             // Get quality filters
-            String[] qualityIds = request.getParameterValues("quality[]");
-            if (qualityIds != null && qualityIds.length > 0) {
-                List<Quality> qualities = new ArrayList<>();
-                for (String qualityId : qualityIds) {
-                    try {
-                        Quality quality = (Quality) s.get(Quality.class, Integer.parseInt(qualityId));
-                        if (quality != null) {
-                            qualities.add(quality);
-                        }
-                    } catch (NumberFormatException e) {
-                        // Handle invalid quality ID
-                    }
-                }
-                if (!qualities.isEmpty()) {
-                    c1.add(Restrictions.in("quality", qualities));
-                }
+            for (int qualityId : ids(request.getParameterValues("quality[]"))) {
+                selection.quality(qualityId);
             }
 
             // Get color filters
-            String[] colorIds = request.getParameterValues("color[]");
-            if (colorIds != null && colorIds.length > 0) {
-                List<Color> colors = new ArrayList<>();
-                for (String colorId : colorIds) {
-                    try {
-                        Color color = (Color) s.get(Color.class, Integer.parseInt(colorId));
-                        if (color != null) {
-                            colors.add(color);
-                        }
-                    } catch (NumberFormatException e) {
-                        // Handle invalid color ID
-                    }
-                }
-                if (!colors.isEmpty()) {
-                    c1.add(Restrictions.in("color", colors));
-                }
+            for (int colorId : ids(request.getParameterValues("color[]"))) {
+                selection.color(colorId);
             }
 
             // Get storage filters
-            String[] storageIds = request.getParameterValues("storage[]");
-            if (storageIds != null && storageIds.length > 0) {
-                List<Storage> storages = new ArrayList<>();
-                for (String storageId : storageIds) {
-                    try {
-                        Storage storage = (Storage) s.get(Storage.class, Integer.parseInt(storageId));
-                        if (storage != null) {
-                            storages.add(storage);
-                        }
-                    } catch (NumberFormatException e) {
-                        // Handle invalid storage ID
-                    }
-                }
-                if (!storages.isEmpty()) {
-                    c1.add(Restrictions.in("storage", storages));
-                }
+            for (int storageId : ids(request.getParameterValues("storage[]"))) {
+                selection.storage(storageId);
             }
 
             // Get price range
@@ -141,28 +83,21 @@ public class SearchProducts extends HttpServlet {
                     double min = Double.parseDouble(minPrice);
                     double max = Double.parseDouble(maxPrice);
                     if (min >= 0 && max >= 0 && min <= max) {
-                        c1.add(Restrictions.ge("price", min));
-                        c1.add(Restrictions.le("price", max));
+                        selection.priceBetween(min, max);
                     }
                 } catch (NumberFormatException e) {
                     // Handle invalid price format
                 }
             }
 
-            // Get search key
+            // Get search key: every word must match, see TextIndex
             String searchKey = request.getParameter("searchKey");
             if (searchKey != null && !searchKey.trim().isEmpty()) {
-                c1.add(Restrictions.or(
-                    Restrictions.ilike("title", "%" + searchKey.trim() + "%"),
-                    Restrictions.ilike("description", "%" + searchKey.trim() + "%")
-                ));
+                selection.containing(searchKey.trim());
             }
 
             // Filter by active status
-            Status status = (Status) s.get(Status.class, SearchProducts.ACTIVE_ID); // get Active product [1 = Active]
-            if (status != null) {
-                c1.add(Restrictions.eq("status", status));
-            }
+            selection.status(SearchProducts.ACTIVE_ID); // get Active product [1 = Active]
 
             // Get pagination parameter first
             String firstResultStr = request.getParameter("firstResult");
@@ -179,43 +114,85 @@ public class SearchProducts extends HttpServlet {
                 }
             }
 
-            // Get total count without pagination
-            @SuppressWarnings("unchecked")
-            List<Product> allProducts = c1.list();
-            int totalProducts = allProducts.size();
-            resposeObject.addProperty("totalProducts", totalProducts);
-
             // Get sort order
+            CatalogIndex.Sort sort = CatalogIndex.Sort.LATEST; // Default sort by latest
             String sortBy = request.getParameter("sortBy");
             if (sortBy != null && !sortBy.trim().isEmpty()) {
-                if (sortBy.equals("Sort by Latest")) {
-                    c1.addOrder(Order.desc("id"));
-                } else if (sortBy.equals("Sort by Oldest")) {
-                    c1.addOrder(Order.asc("id"));
+                if (sortBy.equals("Sort by Oldest")) {
+                    sort = CatalogIndex.Sort.OLDEST;
                 } else if (sortBy.equals("Sort by Name")) {
-                    c1.addOrder(Order.asc("title"));
+                    sort = CatalogIndex.Sort.NAME;
                 } else if (sortBy.equals("Sort by Price")) {
-                    c1.addOrder(Order.asc("price"));
+                    sort = CatalogIndex.Sort.PRICE;
+                } else if (sortBy.equals("Sort by Relevance")) {
+                    sort = CatalogIndex.Sort.RELEVANCE;
                 }
-            } else {
-                // Default sort by latest
-                c1.addOrder(Order.desc("id"));
             }
 
-            // Apply pagination for actual results
-            c1.setFirstResult(firstResult);
-            c1.setMaxResults(SearchProducts.MAX_RESULT);
+            // a token from the previous page's "next" continues after its last product
+            PageCursor after = PageCursor.parse(request.getParameter("after"), sort);
+
+            if (CatalogIndex.isEnabled()) {
+                results = CatalogIndex.get().getResults();
+                cacheKey = selection.canonical() + "|" + sort + "|" + firstResult + "|"
+                        + (after != null ? after.toToken() : "") + "|" + SearchProducts.MAX_RESULT;
+                String cached = results.get(cacheKey);
+                if (cached != null) {
+                    response.getWriter().write(cached);
+                    return;
+                }
+                stamp = results.stamp();
+            }
+
+            List<Product> products = new ArrayList<>();
+            Map<Integer, String> summaries = new HashMap<>();
+            int totalProducts = 0;
+            try {
+                CatalogIndex.Page page;
+                if (CatalogIndex.isEnabled()) {
+                    CatalogIndex index = CatalogIndex.get();
+                    page = after != null ? index.page(selection, sort, after, SearchProducts.MAX_RESULT)
+                            : index.page(selection, sort, firstResult, SearchProducts.MAX_RESULT);
+                } else {
+                    // index switched off: a count query, then the ids of the page
+                    page = after != null ? CatalogIndex.query(s, selection, sort, after, SearchProducts.MAX_RESULT)
+                            : CatalogIndex.query(s, selection, sort, firstResult, SearchProducts.MAX_RESULT);
+                }
+                totalProducts = page.getTotal();
+                if (page.getFacets() != null) {
+                    resposeObject.add("facets", facets(page));
+                }
+                if (page.getPrices() != null) {
+                    resposeObject.add("prices", prices(page.getPrices()));
+                }
+                products = CatalogIndex.hydrate(s, page.getIds());
+                // the description is lazy, list cards show its start
+                summaries = FetchPlans.summaries(s, page.getIds());
+                if (page.getNext() != null) {
+                    resposeObject.addProperty("next", page.getNext().toToken());
+                }
+                if (page.getCorrection() != null) {
+                    resposeObject.addProperty("didYouMean", page.getCorrection());
+                }
+                if (page.isTruncated()) {
+                    resposeObject.addProperty("truncated", true);
+                }
+            } catch (QueryTimeoutException e) {
+                degrade(resposeObject, "The search took too long. Try a longer search term or add filters.");
+            }
+            resposeObject.addProperty("totalProducts", totalProducts);
 
-            // Get filtered product list with pagination
-            @SuppressWarnings("unchecked")
-            List<Product> products = c1.list();
-            
             // Clean up user data for security
             for (Product product : products) {
                 product.setUser(null);
             }
 
-            resposeObject.add("products", gson.toJsonTree(products));
+            JsonArray productList = gson.toJsonTree(products).getAsJsonArray();
+            for (int i = 0; i < productList.size(); i++) {
+                String summary = summaries.get(products.get(i).getId());
+                productList.get(i).getAsJsonObject().addProperty("summary", summary != null ? summary : "");
+            }
+            resposeObject.add("products", productList);
             resposeObject.addProperty("firstResult", firstResult);
             resposeObject.addProperty("maxResults", SearchProducts.MAX_RESULT);
             
@@ -223,12 +200,74 @@ public class SearchProducts extends HttpServlet {
             resposeObject.addProperty("status", false);
             resposeObject.addProperty("error", "Error occurred while searching products: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            // hibernate session close
-            s.close();
         }
 
         String toJson = gson.toJson(resposeObject);
+        if (results != null && resposeObject.get("status").getAsBoolean() && !resposeObject.has("degraded")) {
+            // rows read on a lagging replica may miss writes from just before the stamp
+            results.put(cacheKey, selection, toJson, stamp, HibernateUtil.readLagMillis(s));
+        }
         response.getWriter().write(toJson);
     }
-}
\ No newline at end of file
+
+    /**
+     * Active products per brand, quality, color and storage id under the other
+     * filters, e.g. {"brand": {"3": 12}}, for the sidebar counts.
+     */
+    private JsonObject facets(CatalogIndex.Page page) {
+        JsonObject facets = new JsonObject();
+        for (Map.Entry<CatalogIndex.Facet, Map<Integer, Integer>> facet : page.getFacets().entrySet()) {
+            JsonObject counts = new JsonObject();
+            for (Map.Entry<Integer, Integer> value : facet.getValue().entrySet()) {
+                counts.addProperty(String.valueOf(value.getKey()), value.getValue());
+            }
+            facets.add(facet.getKey().name().toLowerCase(), counts);
+        }
+        return facets;
+    }
+
+    /**
+     * The price range of the matches and their count per price bucket, e.g.
+     * {"min": 1200, "max": 98000, "from": 0, "width": 10000, "counts": [4, 9, ...]},
+     * for the price slider.
+     */
+    private JsonObject prices(CatalogIndex.Histogram histogram) {
+        JsonObject prices = new JsonObject();
+        prices.addProperty("min", histogram.getMin());
+        prices.addProperty("max", histogram.getMax());
+        prices.addProperty("from", histogram.getFrom());
+        prices.addProperty("width", histogram.getWidth());
+        JsonArray counts = new JsonArray();
+        for (int count : histogram.getCounts()) {
+            counts.add(new JsonPrimitive(count));
+        }
+        prices.add("counts", counts);
+        return prices;
+    }
+
+    /**
+     * The numeric ids among the request values, invalid ones are skipped.
+     */
+    private List<Integer> ids(String[] values) {
+        List<Integer> ids = new ArrayList<>();
+        if (values != null) {
+            for (String value : values) {
+                try {
+                    ids.add(Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    // Handle invalid id
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Marks the response as cut short by the request's deadline, see
+     * request-deadlines.properties.
+     */
+    private void degrade(JsonObject responseObject, String message) {
+        responseObject.addProperty("degraded", true);
+        responseObject.addProperty("message", message);
+    }
+}
@@ -0,0 +1,47 @@
+package controller;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import hibernate.CatalogIndex;
+import hibernate.SuggestIndex;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Typeahead for the header search box: product titles, model and brand names
+ * starting with what was typed, most popular first. Served from the catalog
+ * index in memory, a keystroke never reaches the database.
+ */
+@WebServlet(name = "SearchSuggestions", urlPatterns = {"/SearchSuggestions"})
+public class SearchSuggestions extends HttpServlet {
+
+    private static final int MAX_RESULT = 8;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        JsonObject responseObject = new JsonObject();
+        JsonArray suggestionList = new JsonArray();
+
+        String key = request.getParameter("q");
+        if (key != null && !key.trim().isEmpty() && CatalogIndex.isEnabled()) {
+            for (SuggestIndex.Suggestion suggestion : CatalogIndex.get().suggest(key, SearchSuggestions.MAX_RESULT)) {
+                JsonObject item = new JsonObject();
+                item.addProperty("text", suggestion.getText());
+                item.addProperty("type", suggestion.getKind().name().toLowerCase());
+                item.addProperty("id", suggestion.getId());
+                suggestionList.add(item);
+            }
+        }
+
+        responseObject.addProperty("status", true);
+        responseObject.add("suggestions", suggestionList);
+        response.setContentType("application/json");
+        response.setHeader("Cache-Control", "max-age=60");
+        response.getWriter().write(new Gson().toJson(responseObject));
+    }
+}
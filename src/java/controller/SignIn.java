@@ -8,6 +8,7 @@ package controller;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import hibernate.HibernateUtil;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -18,11 +19,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import model.Util;
-import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.criterion.Criterion;
-import org.hibernate.criterion.Restrictions;
 
 /**
  *
@@ -53,19 +51,16 @@ public class SignIn extends HttpServlet {
             SessionFactory sf = HibernateUtil.getSessionFactory();
             Session s = sf.openSession();
 
-            Criteria criteria = s.createCriteria(User.class);
+            User u = (User) s.getNamedQuery(QueryCatalog.USER_BY_EMAIL_AND_PASSWORD)
+                    .setParameter("email", email)
+                    .setParameter("password", password)
+                    .setMaxResults(1)
+                    .uniqueResult();
 
-            Criterion crt1 = Restrictions.eq("email", email);
-            Criterion crt2 = Restrictions.eq("password", password);
-
-            criteria.add(crt1);
-            criteria.add(crt2);
-
-            if (criteria.list().isEmpty()) {
+            if (u == null) {
                 responseObject.addProperty("message", "Invalid credentials");
             } else {
 
-                User u = (User) criteria.list().get(0);
                 responseObject.addProperty("status", true);
 
                 HttpSession ses = request.getSession();
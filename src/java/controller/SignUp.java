@@ -3,6 +3,7 @@ package controller;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import hibernate.HibernateUtil;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -15,10 +16,8 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import model.Mail;
 import model.Util;
-import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.criterion.Restrictions;
 
 @WebServlet(name = "SignUp", urlPatterns = {"/SignUp"})
 public class SignUp extends HttpServlet {
@@ -61,10 +60,12 @@ public class SignUp extends HttpServlet {
             Session s = sf.openSession();
 
             try {
-                Criteria criteria = s.createCriteria(User.class);
-                criteria.add(Restrictions.eq("email", email));
+                Object existing = s.getNamedQuery(QueryCatalog.USER_BY_EMAIL)
+                        .setParameter("email", email)
+                        .setMaxResults(1)
+                        .uniqueResult();
 
-                if (!criteria.list().isEmpty()) {
+                if (existing != null) {
                     responseObject.addProperty("message", "This email already exists");
                 } else {
                     User u = new User();
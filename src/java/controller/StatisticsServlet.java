@@ -0,0 +1,238 @@
+package controller;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import hibernate.HibernateUtil;
+import hibernate.QueryCatalog;
+import hibernate.SqlStatistics;
+import hibernate.StatementBudget;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Hibernate and per-statement SQL statistics since the last reset. POST
+ * action=reset clears them, so a load test can be measured on its own.
+ * GET ?limit=N caps the SQL list (default 50, most total time first).
+ * "requests" lists endpoints by the most statements one request prepared,
+ * "namedQueries" times each query of the {@link QueryCatalog}.
+ */
+@WebServlet(name = "StatisticsServlet", urlPatterns = {"/StatisticsServlet"})
+public class StatisticsServlet extends HttpServlet {
+
+    private static final int DEFAULT_LIMIT = 50;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Gson gson = new Gson();
+        JsonObject responseObject = new JsonObject();
+        responseObject.addProperty("status", false);
+        try {
+            Statistics stats = HibernateUtil.getSessionFactory().getStatistics();
+            if (!stats.isStatisticsEnabled()) {
+                responseObject.addProperty("message", "Statistics are disabled, set hibernate.generate_statistics=true");
+            } else {
+                int limit = DEFAULT_LIMIT;
+                String limitParam = request.getParameter("limit");
+                if (limitParam != null && limitParam.matches("\\d+")) {
+                    limit = Integer.parseInt(limitParam);
+                }
+
+                responseObject.addProperty("since", stats.getStartTime());
+                responseObject.add("sessions", sessions(stats));
+                responseObject.add("entities", entities(stats));
+                responseObject.add("secondLevelCache", secondLevelCache(stats));
+                responseObject.add("queryCache", ratio(stats.getQueryCacheHitCount(),
+                        stats.getQueryCacheMissCount(), stats.getQueryCachePutCount()));
+                responseObject.add("queries", queries(stats));
+                responseObject.add("namedQueries", namedQueries(stats));
+
+                SqlStatistics sqlStatistics = HibernateUtil.getConnectionPool().getSqlStatistics();
+                if (sqlStatistics != null) {
+                    responseObject.add("sql", sql(sqlStatistics, limit));
+                }
+                responseObject.add("requests", requests(limit));
+                responseObject.addProperty("status", true);
+            }
+        } catch (Exception e) {
+            responseObject.addProperty("message", "Error reading statistics: " + e.getMessage());
+        }
+        response.setContentType("application/json");
+        response.getWriter().write(gson.toJson(responseObject));
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String action = request.getParameter("action");
+        if (!"reset".equals(action)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        HibernateUtil.getSessionFactory().getStatistics().clear();
+        SqlStatistics sqlStatistics = HibernateUtil.getConnectionPool().getSqlStatistics();
+        if (sqlStatistics != null) {
+            sqlStatistics.reset();
+        }
+        StatementBudget.reset();
+        JsonObject responseObject = new JsonObject();
+        responseObject.addProperty("status", true);
+        response.setContentType("application/json");
+        response.getWriter().write(new Gson().toJson(responseObject));
+    }
+
+    private JsonObject sessions(Statistics stats) {
+        JsonObject o = new JsonObject();
+        o.addProperty("opened", stats.getSessionOpenCount());
+        o.addProperty("closed", stats.getSessionCloseCount());
+        o.addProperty("transactions", stats.getTransactionCount());
+        o.addProperty("committed", stats.getSuccessfulTransactionCount());
+        o.addProperty("flushes", stats.getFlushCount());
+        o.addProperty("connectionsObtained", stats.getConnectCount());
+        o.addProperty("statementsPrepared", stats.getPrepareStatementCount());
+        o.addProperty("optimisticFailures", stats.getOptimisticFailureCount());
+        return o;
+    }
+
+    private JsonObject entities(Statistics stats) {
+        JsonObject o = new JsonObject();
+        o.addProperty("loads", stats.getEntityLoadCount());
+        o.addProperty("fetches", stats.getEntityFetchCount());
+        o.addProperty("inserts", stats.getEntityInsertCount());
+        o.addProperty("updates", stats.getEntityUpdateCount());
+        o.addProperty("deletes", stats.getEntityDeleteCount());
+        o.addProperty("collectionLoads", stats.getCollectionLoadCount());
+        o.addProperty("collectionFetches", stats.getCollectionFetchCount());
+
+        JsonObject byEntity = new JsonObject();
+        for (String name : stats.getEntityNames()) {
+            EntityStatistics es = stats.getEntityStatistics(name);
+            if (es.getLoadCount() + es.getFetchCount() + es.getInsertCount()
+                    + es.getUpdateCount() + es.getDeleteCount() == 0) {
+                continue;
+            }
+            JsonObject e = new JsonObject();
+            e.addProperty("loads", es.getLoadCount());
+            e.addProperty("fetches", es.getFetchCount());
+            e.addProperty("inserts", es.getInsertCount());
+            e.addProperty("updates", es.getUpdateCount());
+            e.addProperty("deletes", es.getDeleteCount());
+            byEntity.add(name.substring(name.lastIndexOf('.') + 1), e);
+        }
+        o.add("byEntity", byEntity);
+        return o;
+    }
+
+    private JsonObject secondLevelCache(Statistics stats) {
+        JsonObject o = ratio(stats.getSecondLevelCacheHitCount(),
+                stats.getSecondLevelCacheMissCount(), stats.getSecondLevelCachePutCount());
+        JsonObject regions = new JsonObject();
+        for (String region : stats.getSecondLevelCacheRegionNames()) {
+            SecondLevelCacheStatistics rs = stats.getSecondLevelCacheStatistics(region);
+            JsonObject r = ratio(rs.getHitCount(), rs.getMissCount(), rs.getPutCount());
+            r.addProperty("elementsInMemory", rs.getElementCountInMemory());
+            regions.add(region, r);
+        }
+        o.add("regions", regions);
+        return o;
+    }
+
+    private JsonObject ratio(long hits, long misses, long puts) {
+        JsonObject o = new JsonObject();
+        o.addProperty("hits", hits);
+        o.addProperty("misses", misses);
+        o.addProperty("puts", puts);
+        o.addProperty("hitRatio", hits + misses == 0 ? 0 : hits / (double) (hits + misses));
+        return o;
+    }
+
+    /**
+     * HQL and native queries, as tracked by Hibernate.
+     */
+    private JsonArray queries(Statistics stats) {
+        JsonArray arr = new JsonArray();
+        for (String query : stats.getQueries()) {
+            QueryStatistics qs = stats.getQueryStatistics(query);
+            JsonObject q = new JsonObject();
+            q.addProperty("query", query);
+            q.addProperty("count", qs.getExecutionCount());
+            q.addProperty("avgMillis", qs.getExecutionAvgTime());
+            q.addProperty("maxMillis", qs.getExecutionMaxTime());
+            q.addProperty("rows", qs.getExecutionRowCount());
+            q.addProperty("cacheHits", qs.getCacheHitCount());
+            arr.add(q);
+        }
+        return arr;
+    }
+
+    /**
+     * The query catalog by name, with every padded IN-list variant counted together.
+     */
+    private JsonArray namedQueries(Statistics stats) {
+        JsonArray arr = new JsonArray();
+        for (QueryCatalog.Timing timing : QueryCatalog.timings(stats)) {
+            JsonObject q = new JsonObject();
+            q.addProperty("name", timing.getName());
+            q.addProperty("count", timing.getCount());
+            q.addProperty("avgMillis", timing.getAvgMillis());
+            q.addProperty("maxMillis", timing.getMaxMillis());
+            q.addProperty("rows", timing.getRows());
+            q.addProperty("cacheHits", timing.getCacheHits());
+            arr.add(q);
+        }
+        return arr;
+    }
+
+    /**
+     * Every SQL statement including Criteria and entity loads, timed at the JDBC layer.
+     */
+    private JsonArray sql(SqlStatistics sqlStatistics, int limit) {
+        JsonArray arr = new JsonArray();
+        for (SqlStatistics.Entry entry : sqlStatistics.getEntries()) {
+            if (arr.size() >= limit) {
+                break;
+            }
+            JsonObject q = new JsonObject();
+            q.addProperty("sql", entry.getSql());
+            q.addProperty("count", entry.getCount());
+            q.addProperty("totalMillis", entry.getTotalMillis());
+            q.addProperty("avgMillis", entry.getAvgMillis());
+            q.addProperty("maxMillis", entry.getMaxMillis());
+            q.addProperty("rows", entry.getRows());
+            q.addProperty("errors", entry.getErrors());
+            arr.add(q);
+        }
+        return arr;
+    }
+
+    /**
+     * Statements per request by endpoint, checked against statement-budgets.properties.
+     */
+    private JsonObject requests(int limit) {
+        JsonObject o = new JsonObject();
+        o.addProperty("budgetMode", StatementBudget.getMode());
+        JsonArray arr = new JsonArray();
+        for (StatementBudget.Offender offender : StatementBudget.getWorstOffenders(limit)) {
+            JsonObject r = new JsonObject();
+            r.addProperty("endpoint", offender.getEndpoint());
+            r.addProperty("requests", offender.getRequests());
+            r.addProperty("avgStatements", offender.getAvgStatements());
+            r.addProperty("maxStatements", offender.getMaxStatements());
+            r.addProperty("budget", offender.getBudget());
+            r.addProperty("overBudget", offender.getOverBudget());
+            r.addProperty("mostRepeatedSql", offender.getMostRepeatedSql());
+            r.addProperty("mostRepeatedCount", offender.getMostRepeatedCount());
+            arr.add(r);
+        }
+        o.add("worstOffenders", arr);
+        return o;
+    }
+}
@@ -3,6 +3,7 @@ package controller;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import hibernate.HibernateUtil;
+import hibernate.QueryCatalog;
 import hibernate.User;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -13,11 +14,8 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.criterion.Criterion;
-import org.hibernate.criterion.Restrictions;
 
 @WebServlet(name = "VerifyAccount", urlPatterns = {"/VerifyAccount"})
 public class VerifyAccount extends HttpServlet {
@@ -47,18 +45,15 @@ public class VerifyAccount extends HttpServlet {
             SessionFactory sf = HibernateUtil.getSessionFactory();
             Session s = sf.openSession();
 
-            Criteria criteria = s.createCriteria(User.class);
+            User user = (User) s.getNamedQuery(QueryCatalog.USER_BY_EMAIL_AND_VERIFICATION)
+                    .setParameter("email", email)
+                    .setParameter("verification", verificationCode)
+                    .setMaxResults(1)
+                    .uniqueResult();
 
-            Criterion crt1 = Restrictions.eq("email", email);
-            Criterion crt2 = Restrictions.eq("verification", verificationCode);
-
-            criteria.add(crt1);
-            criteria.add(crt2);
-
-            if (criteria.list().isEmpty()) {
+            if (user == null) {
                 responseObject.addProperty("message", "Invalid verification code");
             } else {
-                User user = (User) criteria.list().get(0);
                 user.setVerification("verified");
 
                 s.update(user);
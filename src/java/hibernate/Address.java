@@ -1,17 +1,22 @@
 package hibernate;
 
 import java.io.Serializable;
+import javax.persistence.Basic;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
 
 @Entity
+@NamedQuery(name = QueryCatalog.ADDRESS_BY_USER_NEWEST_FIRST,
+        query = "FROM Address a WHERE a.user = :user ORDER BY a.id DESC")
 @Table(name = "address")
 public class Address implements Serializable {
 
@@ -46,6 +51,8 @@ public class Address implements Serializable {
     @Column(name = "last_name", length = 50)
     String lastName;
 
+    // only written by checkout; lazy once the build has enhanced this class
+    @Basic(fetch = FetchType.LAZY)
     @Column(name = "order_notes")
     String orderNotes;
     
@@ -5,22 +5,43 @@
 package hibernate;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
 /**
  *
  * @author Oshen Sathsara <oshensathsara2003@gmail.com>
  */
 @Entity
+@NamedQueries({
+    @NamedQuery(name = QueryCatalog.CART_VIEW_BY_USER, query = "SELECT c FROM Cart c JOIN FETCH c.product p"
+            + " LEFT JOIN FETCH p.model m LEFT JOIN FETCH m.brand LEFT JOIN FETCH p.color"
+            + " LEFT JOIN FETCH p.storage LEFT JOIN FETCH p.quality LEFT JOIN FETCH p.status"
+            + " WHERE c.user = :user"),
+    @NamedQuery(name = QueryCatalog.CART_WITH_PRODUCT_BY_USER,
+            query = "SELECT c FROM Cart c JOIN FETCH c.product WHERE c.user = :user"),
+    @NamedQuery(name = QueryCatalog.CART_BY_USER_AND_PRODUCT,
+            query = "FROM Cart c WHERE c.user = :user AND c.product = :product"),
+    @NamedQuery(name = QueryCatalog.CART_BY_USER_AND_PRODUCTS,
+            query = "FROM Cart c WHERE c.user = :user AND c.product.id IN (:productIds)"),
+    @NamedQuery(name = QueryCatalog.CART_DELETE_BY_USER, query = "DELETE FROM Cart c WHERE c.user = :user")
+})
 @Table(name = "cart")
-public class Cart implements Serializable {
+public class Cart implements Serializable, DirtyTracked {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -30,14 +51,22 @@ public class Cart implements Serializable {
     @Column(name = "qty" )
     private int qty;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "product_id", nullable = false)
     private Product product;
 
+    // concurrent quantity changes check this, see OptimisticRetry
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
+
+    // properties set since the last load or update, see TrackedDirtinessStrategy
+    private transient Set<String> dirtyProperties;
+
     public Cart() {
     }
 
@@ -54,6 +83,9 @@ public class Cart implements Serializable {
     }
 
     public void setQty(int qty) {
+        if (this.qty != qty) {
+            markDirty("qty");
+        }
         this.qty = qty;
     }
 
@@ -62,6 +94,9 @@ public class Cart implements Serializable {
     }
 
     public void setUser(User user) {
+        if (!Objects.equals(this.user, user)) {
+            markDirty("user");
+        }
         this.user = user;
     }
 
@@ -70,7 +105,34 @@ public class Cart implements Serializable {
     }
 
     public void setProduct(Product product) {
+        if (!Objects.equals(this.product, product)) {
+            markDirty("product");
+        }
         this.product = product;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    @Override
+    public Set<String> getDirtyProperties() {
+        return dirtyProperties == null ? Collections.<String>emptySet() : dirtyProperties;
+    }
+
+    @Override
+    public void clearDirtyProperties() {
+        dirtyProperties = null;
+    }
+
+    private void markDirty(String property) {
+        if (dirtyProperties == null) {
+            dirtyProperties = new HashSet<>();
+        }
+        dirtyProperties.add(property);
+    }
 }
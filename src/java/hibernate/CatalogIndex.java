@@ -0,0 +1,1747 @@
+package hibernate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.hibernate.Criteria;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+
+/**
+ * The search-relevant columns of every product held in memory, so SearchProducts
+ * can filter, count and page without asking the database. Each product is a row,
+ * rows are kept in id order; brand, model, quality, color, storage and status
+ * are a BitSet of rows per value, price, quantity and id are primitive arrays.
+ * A search intersects the bitmaps of the chosen values and only the page of ids
+ * it returns is loaded from the database ({@link #hydrate}). Search words are
+ * looked up in a {@link TextIndex} of the same products, typeahead in a
+ * {@link SuggestIndex}, the products like each one in {@link SimilarProducts}.
+ * Finished responses can be kept in its
+ * {@link ResultCache}, which its writes invalidate.
+ * <p>
+ * Built when the application starts and kept current by
+ * {@link CatalogIndexListener} as transactions that insert, update or delete a
+ * product commit.
+ * <p>
+ * -Dphonehub.catalogIndex=false leaves it unbuilt; searches then run as
+ * queries, see {@link #query}.
+ */
+public class CatalogIndex {
+
+    private static final int NONE = -1;
+    /** The status of products the shop lists, as SearchProducts filters. */
+    private static final int ACTIVE_STATUS_ID = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+    /** Buckets a price histogram aims for, see {@link #histogram}. */
+    private static final int PRICE_BUCKETS = 10;
+    /** Deleted rows' slots are compacted away once more than this share of the rows, see {@link #compact}. */
+    private static final int COMPACT_DIVISOR = 4;
+    private static final int MIN_COMPACT = 64;
+    /** Bitmap words one matching row's pass costs about as much as, see {@link #count}. */
+    private static final int BITMAP_WORDS_PER_ROW = 4;
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("phonehub.catalogIndex", "true"));
+    /** Search responses cached, 0 to cache none. */
+    private static final int CACHED_RESULTS = Integer.getInteger("phonehub.resultCache.entries", 1000);
+    private static final long CACHED_RESULT_MILLIS = Long.getLong("phonehub.resultCache.ttlSeconds", 60) * 1000;
+
+    private static volatile CatalogIndex instance;
+
+    // reloads run one at a time on a background thread, see reload()
+    private static final ExecutorService RELOADER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "phonehub-catalog-reload");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final Object RELOADS = new Object();
+    // guarded by RELOADS: a reload waiting to start, and the products written
+    // while one runs (null when none does)
+    private static boolean reloadQueued;
+    private static Set<Integer> written;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int size;
+    // rows of deleted products, unused slots until compact()
+    private int deleted;
+    private int[] ids;
+    private double[] prices;
+    private int[] qtys;
+    private String[] titles;
+    private int[] models;
+    private int[] brands;
+    private int[] qualities;
+    private int[] colors;
+    private int[] storages;
+    private int[] statuses;
+    private final Map<Integer, Integer> rowById = new HashMap<>();
+    private final Map<Integer, Integer> brandByModel = new HashMap<>();
+    // names of the reference rows, for products written with them uninitialized
+    private final Map<Integer, String> modelNames = new HashMap<>();
+    private final Map<Integer, String> brandNames = new HashMap<>();
+    private final Map<Integer, String> colorNames = new HashMap<>();
+    private final Map<Integer, String> storageNames = new HashMap<>();
+    private final TextIndex text = new TextIndex();
+    private final SuggestIndex suggestions = new SuggestIndex();
+    private final SimilarProducts similar = new SimilarProducts();
+    // a reload starts with an empty cache, names in the responses may have changed
+    private final ResultCache<String> results = new ResultCache<>(CACHED_RESULTS, CACHED_RESULT_MILLIS);
+
+    private final BitSet live = new BitSet();
+    private final Map<Integer, BitSet> byModel = new HashMap<>();
+    private final Map<Integer, BitSet> byBrand = new HashMap<>();
+    private final Map<Integer, BitSet> byQuality = new HashMap<>();
+    private final Map<Integer, BitSet> byColor = new HashMap<>();
+    private final Map<Integer, BitSet> byStorage = new HashMap<>();
+    private final Map<Integer, BitSet> byStatus = new HashMap<>();
+
+    // rows by price and by title, sorted on first use and kept in order after that
+    private volatile int[] priceOrder;
+    private volatile int[] titleOrder;
+
+    private final long builtAt = System.currentTimeMillis();
+
+    private CatalogIndex(int capacity) {
+        ids = new int[capacity];
+        prices = new double[capacity];
+        qtys = new int[capacity];
+        titles = new String[capacity];
+        models = new int[capacity];
+        brands = new int[capacity];
+        qualities = new int[capacity];
+        colors = new int[capacity];
+        storages = new int[capacity];
+        statuses = new int[capacity];
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * The index, loaded from the primary database on first use.
+     */
+    public static CatalogIndex get() {
+        CatalogIndex index = instance;
+        if (index == null) {
+            synchronized (CatalogIndex.class) {
+                index = instance;
+                if (index == null) {
+                    index = load(HibernateUtil.getSessionFactory());
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The index if it has been loaded, null otherwise.
+     */
+    static CatalogIndex peek() {
+        return instance;
+    }
+
+    /**
+     * Reads every product and replaces the index.
+     */
+    public static synchronized CatalogIndex load(SessionFactory sessionFactory) {
+        CatalogIndex index = build(sessionFactory);
+        instance = index;
+        return index;
+    }
+
+    /**
+     * Rebuilds the index on the background thread and swaps it in when it is
+     * ready; searches use the current one meanwhile. Calls made before a
+     * queued reload starts share it.
+     */
+    static void reload(final SessionFactory sessionFactory) {
+        synchronized (RELOADS) {
+            if (reloadQueued) {
+                return;
+            }
+            reloadQueued = true;
+        }
+        RELOADER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuild(sessionFactory);
+                } catch (Exception e) {
+                    System.err.println("Could not reload the catalog index: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * The index a product write goes to, null if none is loaded. While a
+     * reload runs the product is remembered, and the new index reads it again
+     * before it is swapped in.
+     */
+    static CatalogIndex written(int productId) {
+        synchronized (RELOADS) {
+            if (written != null) {
+                written.add(productId);
+            }
+            return instance;
+        }
+    }
+
+    private static void rebuild(SessionFactory sessionFactory) {
+        synchronized (RELOADS) {
+            reloadQueued = false;
+            written = new HashSet<>();
+        }
+        try {
+            CatalogIndex index = build(sessionFactory);
+            while (true) {
+                List<Integer> productIds;
+                synchronized (RELOADS) {
+                    if (written.isEmpty()) {
+                        instance = index;
+                        return;
+                    }
+                    productIds = new ArrayList<>(written);
+                    written.clear();
+                }
+                index.catchUp(sessionFactory, productIds);
+            }
+        } finally {
+            synchronized (RELOADS) {
+                written = null;
+            }
+        }
+    }
+
+    /**
+     * Reads again the products written since this index read its rows; the
+     * ones no longer found were deleted.
+     */
+    private void catchUp(SessionFactory sessionFactory, List<Integer> productIds) {
+        Session s = sessionFactory.openSession();
+        try {
+            Set<Integer> gone = new HashSet<>(productIds);
+            for (Product product : hydrate(s, productIds)) {
+                put(product);
+                gone.remove(product.getId());
+            }
+            for (Integer productId : gone) {
+                delete(productId);
+            }
+        } finally {
+            s.close();
+        }
+    }
+
+    private static CatalogIndex build(SessionFactory sessionFactory) {
+        long start = System.currentTimeMillis();
+        Session s = sessionFactory.openSession();
+        try {
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = s.getNamedQuery(QueryCatalog.PRODUCT_INDEX_ROWS).list();
+            CatalogIndex index = new CatalogIndex(Math.max(INITIAL_CAPACITY, rows.size() + rows.size() / 4));
+            index.suggestions.startLoading();
+            index.similar.startLoading();
+            @SuppressWarnings("unchecked")
+            List<Object[]> sold = s.getNamedQuery(QueryCatalog.ORDER_ITEMS_SOLD_BY_PRODUCT).list();
+            for (Object[] units : sold) {
+                index.suggestions.setSold((Integer) units[0], ((Number) units[1]).intValue());
+            }
+            for (Object[] row : rows) {
+                index.append((Integer) row[0], ((Number) row[1]).doubleValue(), ((Number) row[2]).intValue(),
+                        (String) row[3], id(row[4]), id(row[5]), id(row[6]), id(row[7]), id(row[8]), id(row[9]));
+                name(index.modelNames, id(row[4]), (String) row[10]);
+                name(index.brandNames, id(row[5]), (String) row[11]);
+                name(index.colorNames, id(row[7]), (String) row[12]);
+                name(index.storageNames, id(row[8]), (String) row[13]);
+                index.text.put((Integer) row[0], (String) row[3], (String) row[10], (String) row[11],
+                        (String) row[12], (String) row[13], (String) row[14]);
+                index.suggestions.put((Integer) row[0], (String) row[3], id(row[4]), (String) row[10],
+                        id(row[5]), (String) row[11], id(row[9]) == ACTIVE_STATUS_ID);
+                index.similar.put((Integer) row[0], id(row[4]), id(row[5]), id(row[8]), id(row[7]),
+                        ((Number) row[1]).doubleValue(), id(row[9]) == ACTIVE_STATUS_ID);
+            }
+            index.suggestions.build();
+            index.similar.build();
+            System.out.println("Catalog index: " + index.size + " products indexed in "
+                    + (System.currentTimeMillis() - start) + " ms, " + index.text.getTermCount() + " search words, "
+                    + index.suggestions.getSize() + " suggestions");
+            return index;
+        } finally {
+            s.close();
+        }
+    }
+
+    private static int id(Object value) {
+        return value == null ? NONE : (Integer) value;
+    }
+
+    /**
+     * The name of a reference row, remembered from an initialized entity and
+     * looked up for an uninitialized one.
+     */
+    private static String name(Map<Integer, String> names, int id, String name) {
+        if (id == NONE) {
+            return null;
+        }
+        if (name != null) {
+            names.put(id, name);
+            return name;
+        }
+        return names.get(id);
+    }
+
+    /**
+     * Adds or replaces the row of a product. Its model must be initialized or
+     * indexed already for the brand to be known.
+     */
+    void put(Product product) {
+        Model model = product.getModel();
+        int modelId = model == null ? NONE : model.getId();
+        int brandId = NONE;
+        String brandName = null;
+        if (model != null && Hibernate.isInitialized(model) && model.getBrand() != null) {
+            brandId = model.getBrand().getId();
+            brandName = nameOf(model.getBrand());
+        }
+        int id = product.getId();
+        lock.writeLock().lock();
+        try {
+            if (brandId == NONE && modelId != NONE) {
+                Integer known = brandByModel.get(modelId);
+                brandId = known == null ? NONE : known;
+            }
+            String modelName = name(modelNames, modelId, nameOf(model));
+            brandName = name(brandNames, brandId, brandName);
+            text.put(id, product.getTitle(), modelName, brandName,
+                    name(colorNames, idOf(product.getColor()), nameOf(product.getColor())),
+                    name(storageNames, idOf(product.getStorage()), nameOf(product.getStorage())),
+                    Hibernate.isPropertyInitialized(product, "description") ? product.getDescription() : null);
+            suggestions.put(id, product.getTitle(), modelId, modelName, brandId, brandName,
+                    idOf(product.getStatus()) == ACTIVE_STATUS_ID);
+            similar.put(id, modelId, brandId, idOf(product.getStorage()), idOf(product.getColor()), product.getPrice(),
+                    idOf(product.getStatus()) == ACTIVE_STATUS_ID);
+            Integer row = rowById.get(id);
+            Row before = row != null ? row(row) : null;
+            if (row != null) {
+                boolean reorder = prices[row] != product.getPrice()
+                        || !String.valueOf(titles[row]).equals(product.getTitle());
+                remove(row);
+                set(row, id, product.getPrice(), product.getQty(), product.getTitle(), modelId, brandId,
+                        idOf(product.getQuality()), idOf(product.getColor()), idOf(product.getStorage()),
+                        idOf(product.getStatus()));
+                if (reorder) {
+                    priceOrder = reposition(priceOrder, row, Sort.PRICE);
+                    titleOrder = reposition(titleOrder, row, Sort.NAME);
+                }
+            } else if (size > 0 && id < ids[size - 1]) {
+                // rows must stay in id order
+                insertRow(firstRow(id, false), id, product.getPrice(), product.getQty(), product.getTitle(),
+                        modelId, brandId, idOf(product.getQuality()), idOf(product.getColor()),
+                        idOf(product.getStorage()), idOf(product.getStatus()));
+            } else {
+                append(id, product.getPrice(), product.getQty(), product.getTitle(), modelId, brandId,
+                        idOf(product.getQuality()), idOf(product.getColor()), idOf(product.getStorage()),
+                        idOf(product.getStatus()));
+            }
+            results.invalidate(before, row(rowById.get(id)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void delete(int productId) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rowById.remove(productId);
+            if (row != null) {
+                results.invalidate(row(row), null);
+                remove(row);
+                deleted++;
+                if (deleted > MIN_COMPACT && deleted > size / COMPACT_DIVISOR) {
+                    compact();
+                }
+            }
+            text.remove(productId);
+            suggestions.remove(productId);
+            similar.remove(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int idOf(Quality quality) {
+        return quality == null ? NONE : quality.getId();
+    }
+
+    private static int idOf(Color color) {
+        return color == null ? NONE : color.getId();
+    }
+
+    private static int idOf(Storage storage) {
+        return storage == null ? NONE : storage.getId();
+    }
+
+    private static int idOf(Status status) {
+        return status == null ? NONE : status.getId();
+    }
+
+    private static String nameOf(Model model) {
+        return model != null && Hibernate.isInitialized(model) ? model.getName() : null;
+    }
+
+    private static String nameOf(Brand brand) {
+        return brand != null && Hibernate.isInitialized(brand) ? brand.getName() : null;
+    }
+
+    private static String nameOf(Color color) {
+        return color != null && Hibernate.isInitialized(color) ? color.getValue() : null;
+    }
+
+    private static String nameOf(Storage storage) {
+        return storage != null && Hibernate.isInitialized(storage) ? storage.getValue() : null;
+    }
+
+    private void append(int id, double price, int qty, String title, int model, int brand,
+            int quality, int color, int storage, int status) {
+        if (size == ids.length) {
+            grow();
+        }
+        int row = size++;
+        rowById.put(id, row);
+        set(row, id, price, qty, title, model, brand, quality, color, storage, status);
+        priceOrder = insert(priceOrder, row, Sort.PRICE);
+        titleOrder = insert(titleOrder, row, Sort.NAME);
+    }
+
+    private void set(int row, int id, double price, int qty, String title, int model, int brand,
+            int quality, int color, int storage, int status) {
+        ids[row] = id;
+        prices[row] = price;
+        qtys[row] = qty;
+        titles[row] = title;
+        models[row] = model;
+        brands[row] = brand;
+        qualities[row] = quality;
+        colors[row] = color;
+        storages[row] = storage;
+        statuses[row] = status;
+        if (model != NONE && brand != NONE) {
+            brandByModel.put(model, brand);
+        }
+        mark(row);
+    }
+
+    /**
+     * Sets a row's bit in the bitmaps of its values.
+     */
+    private void mark(int row) {
+        live.set(row);
+        bitmap(byModel, models[row]).set(row);
+        bitmap(byBrand, brands[row]).set(row);
+        bitmap(byQuality, qualities[row]).set(row);
+        bitmap(byColor, colors[row]).set(row);
+        bitmap(byStorage, storages[row]).set(row);
+        bitmap(byStatus, statuses[row]).set(row);
+    }
+
+    private Row row(int row) {
+        return new Row(ids[row], statuses[row], models[row], brands[row], qualities[row], colors[row],
+                storages[row], prices[row]);
+    }
+
+    /**
+     * Clears a row from every bitmap. A deleted product's slot stays unused,
+     * and in the sort orders, until {@link #compact}.
+     */
+    private void remove(int row) {
+        live.clear(row);
+        bitmap(byModel, models[row]).clear(row);
+        bitmap(byBrand, brands[row]).clear(row);
+        bitmap(byQuality, qualities[row]).clear(row);
+        bitmap(byColor, colors[row]).clear(row);
+        bitmap(byStorage, storages[row]).clear(row);
+        bitmap(byStatus, statuses[row]).clear(row);
+    }
+
+    /**
+     * A product with a lower id than the last row, e.g. ids handed out by
+     * another node: the rows from its place on move up one, so rows stay in id
+     * order, and it goes into the sort orders by binary search. Costs about
+     * as much as there are rows after it, ids from elsewhere are mostly recent.
+     */
+    private void insertRow(int at, int id, double price, int qty, String title, int model, int brand,
+            int quality, int color, int storage, int status) {
+        if (size == ids.length) {
+            grow();
+        }
+        int moved = size - at;
+        System.arraycopy(ids, at, ids, at + 1, moved);
+        System.arraycopy(prices, at, prices, at + 1, moved);
+        System.arraycopy(qtys, at, qtys, at + 1, moved);
+        System.arraycopy(titles, at, titles, at + 1, moved);
+        System.arraycopy(models, at, models, at + 1, moved);
+        System.arraycopy(brands, at, brands, at + 1, moved);
+        System.arraycopy(qualities, at, qualities, at + 1, moved);
+        System.arraycopy(colors, at, colors, at + 1, moved);
+        System.arraycopy(storages, at, storages, at + 1, moved);
+        System.arraycopy(statuses, at, statuses, at + 1, moved);
+        size++;
+        shiftUp(live, at);
+        for (Map<Integer, BitSet> bitmaps : Arrays.asList(byModel, byBrand, byQuality, byColor, byStorage, byStatus)) {
+            for (BitSet bits : bitmaps.values()) {
+                shiftUp(bits, at);
+            }
+        }
+        for (int row = at + 1; row < size; row++) {
+            rowById.put(ids[row], row);
+        }
+        renumber(priceOrder, at);
+        renumber(titleOrder, at);
+
+        rowById.put(id, at);
+        set(at, id, price, qty, title, model, brand, quality, color, storage, status);
+        priceOrder = insert(priceOrder, at, Sort.PRICE);
+        titleOrder = insert(titleOrder, at, Sort.NAME);
+    }
+
+    /**
+     * Moves the bits from a row on up by one, highest first.
+     */
+    private static void shiftUp(BitSet bits, int from) {
+        for (int row = bits.previousSetBit(bits.length() - 1); row >= from; row = bits.previousSetBit(row - 1)) {
+            bits.clear(row);
+            bits.set(row + 1);
+        }
+    }
+
+    /**
+     * Counts rows from one on as one further, in place; only called under the
+     * write lock.
+     */
+    private static void renumber(int[] order, int from) {
+        if (order != null) {
+            for (int i = 0; i < order.length; i++) {
+                if (order[i] >= from) {
+                    order[i]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the slots of deleted products: the rows after them move down,
+     * still in id order, and the bitmaps, row map and sort orders follow.
+     */
+    private void compact() {
+        int[] moved = new int[size];
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (!live.get(row)) {
+                moved[row] = NONE;
+                continue;
+            }
+            moved[row] = kept;
+            if (kept != row) {
+                ids[kept] = ids[row];
+                prices[kept] = prices[row];
+                qtys[kept] = qtys[row];
+                titles[kept] = titles[row];
+                models[kept] = models[row];
+                brands[kept] = brands[row];
+                qualities[kept] = qualities[row];
+                colors[kept] = colors[row];
+                storages[kept] = storages[row];
+                statuses[kept] = statuses[row];
+            }
+            kept++;
+        }
+        Arrays.fill(titles, kept, size, null);
+        size = kept;
+        deleted = 0;
+        rowById.clear();
+        live.clear();
+        clearAll(byModel, byBrand, byQuality, byColor, byStorage, byStatus);
+        for (int row = 0; row < size; row++) {
+            rowById.put(ids[row], row);
+            mark(row);
+        }
+        priceOrder = remap(priceOrder, moved);
+        titleOrder = remap(titleOrder, moved);
+    }
+
+    /**
+     * The order without the dropped rows, the others under their new number.
+     */
+    private static int[] remap(int[] order, int[] moved) {
+        if (order == null) {
+            return null;
+        }
+        int[] kept = new int[order.length];
+        int n = 0;
+        for (int row : order) {
+            if (moved[row] != NONE) {
+                kept[n++] = moved[row];
+            }
+        }
+        return Arrays.copyOf(kept, n);
+    }
+
+    @SafeVarargs
+    private static void clearAll(Map<Integer, BitSet>... maps) {
+        for (Map<Integer, BitSet> map : maps) {
+            map.clear();
+        }
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        qtys = Arrays.copyOf(qtys, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        models = Arrays.copyOf(models, capacity);
+        brands = Arrays.copyOf(brands, capacity);
+        qualities = Arrays.copyOf(qualities, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        storages = Arrays.copyOf(storages, capacity);
+        statuses = Arrays.copyOf(statuses, capacity);
+    }
+
+    private static BitSet bitmap(Map<Integer, BitSet> map, int value) {
+        BitSet bits = map.get(value);
+        if (bits == null) {
+            bits = new BitSet();
+            map.put(value, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * Total matches and one page of product ids for a selection, with the
+     * facet counts if the selection asks for them.
+     */
+    public Page page(Selection selection, Sort sort, int firstResult, int maxResults) {
+        return page(selection, sort, firstResult, null, maxResults);
+    }
+
+    /**
+     * The page that follows a cursor from {@link Page#getNext}, found by
+     * binary search rather than by counting past the earlier pages.
+     */
+    public Page page(Selection selection, Sort sort, PageCursor after, int maxResults) {
+        return page(selection, sort, 0, after, maxResults);
+    }
+
+    private Page page(Selection selection, Sort sort, int firstResult, PageCursor after, int maxResults) {
+        lock.readLock().lock();
+        try {
+            TextIndex.Hits hits = selection.text != null ? text.search(selection.text) : null;
+            BitSet base = base(selection, hits);
+            Map<Facet, BitSet> chosen = new EnumMap<>(Facet.class);
+            for (Facet facet : Facet.values()) {
+                Set<Integer> values = selection.selected(facet);
+                if (!values.isEmpty()) {
+                    chosen.put(facet, union(bitmaps(facet), values));
+                }
+            }
+            BitSet matches = (BitSet) base.clone();
+            for (BitSet any : chosen.values()) {
+                matches.and(any);
+            }
+            // the prices the slider offers: every match before the price range
+            Histogram histogram = selection.facets ? histogram(matches) : null;
+            BitSet priced = null;
+            if (selection.minPrice != null || selection.maxPrice != null) {
+                if ((selection.facets && !chosen.isEmpty()) || matches.cardinality() > size / 16) {
+                    priced = priceMask(selection);
+                    matches.and(priced);
+                } else {
+                    filterPrice(matches, selection);
+                }
+            }
+
+            // one row more than the page tells whether there is a next page
+            List<Integer> rows = new ArrayList<>(maxResults + 1);
+            int skipped = 0;
+            if (sort == Sort.RELEVANCE && hits != null) {
+                for (int row : ranked(matches, hits, after)) {
+                    if (rows.size() > maxResults) {
+                        break;
+                    }
+                    if (skipped++ >= firstResult) {
+                        rows.add(row);
+                    }
+                }
+            } else if (sort == Sort.LATEST || sort == Sort.OLDEST || sort == Sort.RELEVANCE) {
+                boolean latest = sort != Sort.OLDEST;
+                int start = after == null ? (latest ? size - 1 : 0)
+                        : (latest ? firstRow(after.getId(), false) - 1 : firstRow(after.getId(), true));
+                for (int row = latest ? matches.previousSetBit(start) : matches.nextSetBit(start);
+                        row >= 0 && rows.size() <= maxResults;
+                        row = latest ? matches.previousSetBit(row - 1) : matches.nextSetBit(row + 1)) {
+                    if (skipped++ >= firstResult) {
+                        rows.add(row);
+                    }
+                }
+            } else {
+                int[] order = order(sort);
+                for (int i = after == null ? 0 : seek(order, after); i < order.length && rows.size() <= maxResults; i++) {
+                    int row = order[i];
+                    if (matches.get(row) && skipped++ >= firstResult) {
+                        rows.add(row);
+                    }
+                }
+            }
+            PageCursor next = null;
+            if (maxResults > 0 && rows.size() > maxResults) {
+                rows.remove(maxResults);
+                int last = rows.get(maxResults - 1);
+                double value = sort != Sort.RELEVANCE ? prices[last] : hits != null ? hits.scoreOf(ids[last]) : 0;
+                next = PageCursor.after(sort, ids[last], value, String.valueOf(titles[last]));
+            }
+            List<Integer> page = new ArrayList<>(rows.size());
+            for (int row : rows) {
+                page.add(ids[row]);
+            }
+            Map<Facet, Map<Integer, Integer>> facets = null;
+            if (selection.facets) {
+                facets = countFacets(base, matches, chosen, priced);
+            }
+            return new Page(matches.cardinality(), page, facets, histogram, next,
+                    hits != null ? hits.getCorrection() : null, hits != null && hits.isTruncated());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rows passing the filters that are not facets: status, model, the
+     * product ids and the search words. The price range is applied separately.
+     */
+    private BitSet base(Selection selection, TextIndex.Hits hits) {
+        BitSet rows = (BitSet) live.clone();
+        if (!selection.statuses.isEmpty()) {
+            rows.and(union(byStatus, selection.statuses));
+        }
+        if (!selection.models.isEmpty()) {
+            rows.and(union(byModel, selection.models));
+        }
+        if (selection.productIds != null) {
+            BitSet allowed = new BitSet(size);
+            for (Integer id : selection.productIds) {
+                Integer row = rowById.get(id);
+                if (row != null) {
+                    allowed.set(row);
+                }
+            }
+            rows.and(allowed);
+        }
+        if (hits != null) {
+            BitSet found = new BitSet(size);
+            for (int i = 0; i < hits.size(); i++) {
+                Integer row = rowById.get(hits.id(i));
+                if (row != null) {
+                    found.set(row);
+                }
+            }
+            rows.and(found);
+        }
+        return rows;
+    }
+
+    /**
+     * The matching rows best score first, then newest first, starting after
+     * the cursor.
+     */
+    private List<Integer> ranked(BitSet matches, TextIndex.Hits hits, PageCursor after) {
+        final Map<Integer, Double> scores = new HashMap<>();
+        List<Integer> rows = new ArrayList<>(matches.cardinality());
+        for (int i = 0; i < hits.size(); i++) {
+            Integer row = rowById.get(hits.id(i));
+            if (row != null && matches.get(row)
+                    && (after == null || compareRank(hits.score(i), hits.id(i), after.getValue(), after.getId()) > 0)) {
+                rows.add(row);
+                scores.put(row, hits.score(i));
+            }
+        }
+        Collections.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareRank(scores.get(a), ids[a], scores.get(b), ids[b]);
+            }
+        });
+        return rows;
+    }
+
+    private static int compareRank(double score, int id, double otherScore, int otherId) {
+        int c = Double.compare(otherScore, score);
+        return c != 0 ? c : Integer.compare(otherId, id);
+    }
+
+    /**
+     * Clears the rows priced outside the selection's range, for few rows.
+     */
+    private void filterPrice(BitSet rows, Selection selection) {
+        double min = selection.minPrice != null ? selection.minPrice : Double.NEGATIVE_INFINITY;
+        double max = selection.maxPrice != null ? selection.maxPrice : Double.POSITIVE_INFINITY;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (prices[row] < min || prices[row] > max) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    /**
+     * Every row priced within the selection's range: the slice of the price
+     * order between the bounds, found by binary search. Cheaper than
+     * {@link #filterPrice} once many rows are left.
+     */
+    private BitSet priceMask(Selection selection) {
+        double min = selection.minPrice != null ? selection.minPrice : Double.NEGATIVE_INFINITY;
+        double max = selection.maxPrice != null ? selection.maxPrice : Double.POSITIVE_INFINITY;
+        int[] order = order(Sort.PRICE);
+        BitSet mask = new BitSet(size);
+        int end = firstPricedAbove(order, max);
+        for (int i = firstPricedAtLeast(order, min); i < end; i++) {
+            mask.set(order[i]);
+        }
+        return mask;
+    }
+
+    private int firstPricedAtLeast(int[] order, double price) {
+        return search(order, price, false);
+    }
+
+    private int firstPricedAbove(int[] order, double price) {
+        return search(order, price, true);
+    }
+
+    private int search(int[] order, double price, boolean above) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            double value = prices[order[mid]];
+            if (value < price || (above && value == price)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The lowest and highest price of the rows and how many fall in each of
+     * about {@link #PRICE_BUCKETS} buckets of a round width; null if there
+     * are none. Many rows are bounded by the first and last of them in the
+     * price order and counted a bitmap word at a time; few are read one by
+     * one, twice.
+     */
+    private Histogram histogram(BitSet rows) {
+        int first = rows.nextSetBit(0);
+        if (first < 0) {
+            return null;
+        }
+        if (rows.cardinality() > size / 16) {
+            int[] order = order(Sort.PRICE);
+            int low = 0;
+            while (!rows.get(order[low])) {
+                low++;
+            }
+            int high = order.length - 1;
+            while (!rows.get(order[high])) {
+                high--;
+            }
+            Histogram histogram = new Histogram(prices[order[low]], prices[order[high]]);
+            histogram.addAll(prices, rows);
+            return histogram;
+        }
+        double min = prices[first];
+        double max = prices[first];
+        for (int row = rows.nextSetBit(first + 1); row >= 0; row = rows.nextSetBit(row + 1)) {
+            min = Math.min(min, prices[row]);
+            max = Math.max(max, prices[row]);
+        }
+        Histogram histogram = new Histogram(min, max);
+        for (int row = first; row >= 0; row = rows.nextSetBit(row + 1)) {
+            histogram.add(prices[row]);
+        }
+        return histogram;
+    }
+
+    /**
+     * The smallest of 1, 2 or 5 times a power of ten at least as wide, so
+     * buckets start at round prices.
+     */
+    private static double bucketWidth(double wanted) {
+        if (!(wanted >= 1)) {
+            return 1;
+        }
+        double magnitude = Math.pow(10, Math.floor(Math.log10(wanted)));
+        for (int step : new int[]{1, 2, 5}) {
+            if (step * magnitude >= wanted) {
+                return step * magnitude;
+            }
+        }
+        return 10 * magnitude;
+    }
+
+    /**
+     * Rows having any of the values; values within a facet are alternatives.
+     */
+    private static BitSet union(Map<Integer, BitSet> bitmaps, Set<Integer> values) {
+        BitSet any = new BitSet();
+        for (Integer value : values) {
+            BitSet bits = bitmaps.get(value);
+            if (bits != null) {
+                any.or(bits);
+            }
+        }
+        return any;
+    }
+
+    /**
+     * Matches per value of every facet. The facets nothing is chosen in are
+     * counted together in one pass over the matches. A facet with chosen
+     * values is counted over the rows the other facets let through, so each
+     * of its values shows what ticking it as well would match.
+     */
+    private Map<Facet, Map<Integer, Integer>> countFacets(BitSet base, BitSet matches,
+            Map<Facet, BitSet> chosen, BitSet priced) {
+        Map<Facet, Map<Integer, Integer>> facets = new EnumMap<>(Facet.class);
+        List<Facet> open = new ArrayList<>();
+        for (Facet facet : Facet.values()) {
+            if (!chosen.containsKey(facet)) {
+                open.add(facet);
+            }
+        }
+        if (!open.isEmpty()) {
+            count(matches, open, facets);
+        }
+        for (Facet facet : chosen.keySet()) {
+            BitSet others = (BitSet) base.clone();
+            for (Map.Entry<Facet, BitSet> entry : chosen.entrySet()) {
+                if (entry.getKey() != facet) {
+                    others.and(entry.getValue());
+                }
+            }
+            if (priced != null) {
+                others.and(priced);
+            }
+            count(others, Collections.singletonList(facet), facets);
+        }
+        return facets;
+    }
+
+    /**
+     * Counts with whichever is cheaper: intersecting every value's bitmap with
+     * the rows, 64 rows per word operation, or one pass over the rows reading
+     * their values, which wins when few rows match.
+     */
+    private void count(BitSet rows, List<Facet> facets, Map<Facet, Map<Integer, Integer>> result) {
+        long matching = rows.cardinality();
+        List<Facet> byRow = new ArrayList<>();
+        BitSet scratch = null;
+        for (Facet facet : facets) {
+            Map<Integer, BitSet> bitmaps = bitmaps(facet);
+            if ((long) bitmaps.size() * (size / 64 + 1) < matching * BITMAP_WORDS_PER_ROW) {
+                if (scratch == null) {
+                    scratch = new BitSet(size);
+                }
+                Map<Integer, Integer> byValue = new TreeMap<>();
+                for (Map.Entry<Integer, BitSet> value : bitmaps.entrySet()) {
+                    scratch.clear();
+                    scratch.or(value.getValue());
+                    scratch.and(rows);
+                    int count = scratch.cardinality();
+                    if (value.getKey() != NONE && count > 0) {
+                        byValue.put(value.getKey(), count);
+                    }
+                }
+                result.put(facet, byValue);
+            } else {
+                byRow.add(facet);
+            }
+        }
+        if (!byRow.isEmpty()) {
+            countByRow(rows, byRow, result);
+        }
+    }
+
+    private void countByRow(BitSet rows, List<Facet> facets, Map<Facet, Map<Integer, Integer>> result) {
+        int[][] values = new int[facets.size()][];
+        int[][] counts = new int[facets.size()][];
+        for (int f = 0; f < values.length; f++) {
+            values[f] = values(facets.get(f));
+            int max = 0;
+            for (Integer value : bitmaps(facets.get(f)).keySet()) {
+                max = Math.max(max, value);
+            }
+            counts[f] = new int[max + 1];
+        }
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            for (int f = 0; f < values.length; f++) {
+                int value = values[f][row];
+                if (value != NONE) {
+                    counts[f][value]++;
+                }
+            }
+        }
+        for (int f = 0; f < values.length; f++) {
+            Map<Integer, Integer> byValue = new TreeMap<>();
+            for (int value = 0; value < counts[f].length; value++) {
+                if (counts[f][value] > 0) {
+                    byValue.put(value, counts[f][value]);
+                }
+            }
+            result.put(facets.get(f), byValue);
+        }
+    }
+
+    private Map<Integer, BitSet> bitmaps(Facet facet) {
+        switch (facet) {
+            case BRAND:
+                return byBrand;
+            case QUALITY:
+                return byQuality;
+            case COLOR:
+                return byColor;
+            default:
+                return byStorage;
+        }
+    }
+
+    private int[] values(Facet facet) {
+        switch (facet) {
+            case BRAND:
+                return brands;
+            case QUALITY:
+                return qualities;
+            case COLOR:
+                return colors;
+            default:
+                return storages;
+        }
+    }
+
+    private int[] order(Sort sort) {
+        int[] order = sort == Sort.PRICE ? priceOrder : titleOrder;
+        if (order == null) {
+            synchronized (this) {
+                order = sort == Sort.PRICE ? priceOrder : titleOrder;
+                if (order == null) {
+                    order = sortRows(sort);
+                    if (sort == Sort.PRICE) {
+                        priceOrder = order;
+                    } else {
+                        titleOrder = order;
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    private int[] sortRows(final Sort sort) {
+        Integer[] rows = new Integer[live.cardinality()];
+        int i = 0;
+        for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+            rows[i++] = row;
+        }
+        Arrays.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareRows(sort, a, b);
+            }
+        });
+        int[] order = new int[rows.length];
+        for (i = 0; i < rows.length; i++) {
+            order[i] = rows[i];
+        }
+        return order;
+    }
+
+    private int compareRows(Sort sort, int a, int b) {
+        int c = sort == Sort.PRICE
+                ? Double.compare(prices[a], prices[b])
+                : String.CASE_INSENSITIVE_ORDER.compare(String.valueOf(titles[a]), String.valueOf(titles[b]));
+        return c != 0 ? c : Integer.compare(ids[a], ids[b]);
+    }
+
+    /**
+     * The first row whose id is above the given one, or at least it unless
+     * after is set; rows are in id order.
+     */
+    private int firstRow(int id, boolean after) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] < id || (after && ids[mid] == id)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The first position in a price or title order past the cursor.
+     */
+    private int seek(int[] order, PageCursor after) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int row = order[mid];
+            int c = after.getSort() == Sort.PRICE
+                    ? Double.compare(prices[row], after.getValue())
+                    : String.CASE_INSENSITIVE_ORDER.compare(String.valueOf(titles[row]), after.getTitle());
+            if (c < 0 || (c == 0 && ids[row] <= after.getId())) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * A copy of the order with the row added in place, so a new product does
+     * not cost a full sort; null stays null.
+     */
+    private int[] insert(int[] order, int row, Sort sort) {
+        if (order == null) {
+            return null;
+        }
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareRows(sort, order[mid], row) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int[] inserted = new int[order.length + 1];
+        System.arraycopy(order, 0, inserted, 0, low);
+        inserted[low] = row;
+        System.arraycopy(order, low, inserted, low + 1, order.length - low);
+        return inserted;
+    }
+
+    /**
+     * A copy of the order with a row whose price or title changed moved to
+     * its new place. Deleted rows stay in until {@link #compact}, their bits are clear.
+     */
+    private int[] reposition(int[] order, int row, Sort sort) {
+        if (order == null) {
+            return null;
+        }
+        int at = 0;
+        while (at < order.length && order[at] != row) {
+            at++;
+        }
+        if (at == order.length) {
+            return insert(order, row, sort);
+        }
+        int[] without = new int[order.length - 1];
+        System.arraycopy(order, 0, without, 0, at);
+        System.arraycopy(order, at + 1, without, at, order.length - at - 1);
+        return insert(without, row, sort);
+    }
+
+    public int getSize() {
+        lock.readLock().lock();
+        try {
+            return live.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getBuiltAt() {
+        return builtAt;
+    }
+
+    /**
+     * Responses computed from this index, e.g. SearchProducts'.
+     */
+    public ResultCache<String> getResults() {
+        return results;
+    }
+
+    /**
+     * Loads the search cards of a page of ids, in the order given. Ids deleted
+     * since the index was read are left out.
+     */
+    public static List<Product> hydrate(Session s, List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Criteria c = s.createCriteria(Product.class);
+        FetchPlans.searchCard(c);
+        c.add(Restrictions.in("id", QueryCatalog.pad(ids)));
+        @SuppressWarnings("unchecked")
+        List<Product> loaded = c.list();
+        Map<Integer, Product> byId = new HashMap<>();
+        for (Product product : loaded) {
+            byId.put(product.getId(), product);
+        }
+        List<Product> products = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Product product = byId.get(id);
+            if (product != null) {
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    /**
+     * The ids of the active products most like a product, best first, see
+     * {@link SimilarProducts}.
+     */
+    public List<Integer> similar(int productId, int limit) {
+        lock.readLock().lock();
+        try {
+            return similar.lookup(productId, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Titles, models and brands of active products starting with the text at
+     * a word, most popular first, see {@link SuggestIndex}.
+     */
+    public List<SuggestIndex.Suggestion> suggest(String text, int limit) {
+        lock.readLock().lock();
+        try {
+            return suggestions.lookup(text, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A selection run against the database instead of the index: a count(*)
+     * for the total, then only the ids of the page, ready for {@link #hydrate}.
+     * No entity is loaded for counting, so a request holds the same whatever
+     * the size of the catalog. There are no facet counts.
+     */
+    public static Page query(Session s, Selection selection, Sort sort, int firstResult, int maxResults) {
+        return query(s, selection, sort, firstResult, null, maxResults);
+    }
+
+    /**
+     * The page that follows a cursor, as a keyset condition on the sort key
+     * and id so the database seeks to it instead of reading past the earlier
+     * pages.
+     */
+    public static Page query(Session s, Selection selection, Sort sort, PageCursor after, int maxResults) {
+        return query(s, selection, sort, 0, after, maxResults);
+    }
+
+    private static Page query(Session s, Selection selection, Sort sort, int firstResult, PageCursor after,
+            int maxResults) {
+        Criteria count = restrict(s, selection);
+        count.setProjection(Projections.rowCount());
+        int total = ((Number) count.uniqueResult()).intValue();
+
+        List<Integer> ids = new ArrayList<>();
+        PageCursor next = null;
+        if (firstResult < total) {
+            Criteria page = restrict(s, selection);
+            if (after != null) {
+                page.add(seek(after));
+            }
+            page.setProjection(Projections.projectionList()
+                    .add(Projections.id())
+                    .add(Projections.property("price"))
+                    .add(Projections.property("title")));
+            if (sort == Sort.NAME) {
+                page.addOrder(Order.asc("title"));
+            } else if (sort == Sort.PRICE) {
+                page.addOrder(Order.asc("price"));
+            }
+            // no relevance in the database, it lists the newest matches first
+            page.addOrder(sort == Sort.LATEST || sort == Sort.RELEVANCE ? Order.desc("id") : Order.asc("id"));
+            page.setFirstResult(firstResult);
+            page.setMaxResults(maxResults + 1);
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = page.list();
+            for (int i = 0; i < rows.size() && i < maxResults; i++) {
+                ids.add((Integer) rows.get(i)[0]);
+            }
+            if (maxResults > 0 && rows.size() > maxResults) {
+                Object[] last = rows.get(maxResults - 1);
+                next = PageCursor.after(sort, (Integer) last[0], ((Number) last[1]).doubleValue(), (String) last[2]);
+            }
+        }
+        return new Page(total, ids, null, null, next, null, false);
+    }
+
+    private static Criterion seek(PageCursor after) {
+        switch (after.getSort()) {
+            case LATEST:
+            case RELEVANCE:
+                return Restrictions.lt("id", after.getId());
+            case OLDEST:
+                return Restrictions.gt("id", after.getId());
+            case PRICE:
+                return Restrictions.or(Restrictions.gt("price", after.getValue()),
+                        Restrictions.and(Restrictions.eq("price", after.getValue()), Restrictions.gt("id", after.getId())));
+            default:
+                return Restrictions.or(Restrictions.gt("title", after.getTitle()),
+                        Restrictions.and(Restrictions.eq("title", after.getTitle()), Restrictions.gt("id", after.getId())));
+        }
+    }
+
+    private static Criteria restrict(Session s, Selection selection) {
+        Criteria c = s.createCriteria(Product.class);
+        if (!selection.brands.isEmpty()) {
+            c.createAlias("model", "m");
+            c.add(Restrictions.in("m.brand.id", selection.brands));
+        }
+        if (!selection.models.isEmpty()) {
+            c.add(Restrictions.in("model.id", selection.models));
+        }
+        if (!selection.statuses.isEmpty()) {
+            c.add(Restrictions.in("status.id", selection.statuses));
+        }
+        if (!selection.qualities.isEmpty()) {
+            c.add(Restrictions.in("quality.id", selection.qualities));
+        }
+        if (!selection.colors.isEmpty()) {
+            c.add(Restrictions.in("color.id", selection.colors));
+        }
+        if (!selection.storages.isEmpty()) {
+            c.add(Restrictions.in("storage.id", selection.storages));
+        }
+        if (selection.minPrice != null) {
+            c.add(Restrictions.ge("price", selection.minPrice));
+        }
+        if (selection.maxPrice != null) {
+            c.add(Restrictions.le("price", selection.maxPrice));
+        }
+        if (selection.productIds != null) {
+            if (selection.productIds.isEmpty()) {
+                c.add(Restrictions.sqlRestriction("1 = 0"));
+            } else {
+                c.add(Restrictions.in("id", QueryCatalog.pad(selection.productIds)));
+            }
+        }
+        if (selection.text != null) {
+            // every word in the title or the description
+            for (String word : TextIndex.tokens(selection.text)) {
+                c.add(Restrictions.or(
+                        Restrictions.ilike("title", "%" + word + "%"),
+                        Restrictions.ilike("description", "%" + word + "%")));
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Page orders SearchProducts offers.
+     */
+    public enum Sort {
+        LATEST, OLDEST, NAME, PRICE,
+        /** Best search match first, see {@link TextIndex}; latest first without search words. */
+        RELEVANCE
+    }
+
+    /**
+     * The filters the shop sidebar lists, with a match count per value.
+     */
+    public enum Facet {
+        BRAND, QUALITY, COLOR, STORAGE
+    }
+
+    /**
+     * What a search asks for. Empty dimensions do not filter.
+     */
+    public static class Selection {
+
+        private static final int MISSED_PRICE = 1 << Facet.values().length;
+
+        private final Set<Integer> statuses = new LinkedHashSet<>();
+        private final Set<Integer> brands = new LinkedHashSet<>();
+        private final Set<Integer> models = new LinkedHashSet<>();
+        private final Set<Integer> qualities = new LinkedHashSet<>();
+        private final Set<Integer> colors = new LinkedHashSet<>();
+        private final Set<Integer> storages = new LinkedHashSet<>();
+        private Double minPrice;
+        private Double maxPrice;
+        private Collection<Integer> productIds;
+        private String text;
+        private boolean facets;
+
+        public Selection status(int id) {
+            statuses.add(id);
+            return this;
+        }
+
+        public Selection brand(int id) {
+            brands.add(id);
+            return this;
+        }
+
+        public Selection model(int id) {
+            models.add(id);
+            return this;
+        }
+
+        public Selection quality(int id) {
+            qualities.add(id);
+            return this;
+        }
+
+        public Selection color(int id) {
+            colors.add(id);
+            return this;
+        }
+
+        public Selection storage(int id) {
+            storages.add(id);
+            return this;
+        }
+
+        public Selection priceBetween(double min, double max) {
+            minPrice = min;
+            maxPrice = max;
+            return this;
+        }
+
+        /**
+         * Also count the matches per facet value.
+         */
+        public Selection withFacets() {
+            facets = true;
+            return this;
+        }
+
+        private Set<Integer> selected(Facet facet) {
+            switch (facet) {
+                case BRAND:
+                    return brands;
+                case QUALITY:
+                    return qualities;
+                case COLOR:
+                    return colors;
+                default:
+                    return storages;
+            }
+        }
+
+        /**
+         * Products containing every word of the text, see {@link TextIndex};
+         * {@link CatalogIndex#query} looks for the words in title and
+         * description only and does not correct typos.
+         */
+        public Selection containing(String text) {
+            this.text = text;
+            return this;
+        }
+
+        /**
+         * Only these products, e.g. the ones a text search matched.
+         */
+        public Selection only(Collection<Integer> ids) {
+            productIds = ids;
+            return this;
+        }
+
+        /**
+         * The selection as text, the same for selections asking for the same
+         * products however they were built: ids sorted, search words
+         * normalized, e.g. "s1|b2,5|m|q|c|st|p1000.0-5000.0|i*|tgalaxy|f".
+         */
+        public String canonical() {
+            StringBuilder key = new StringBuilder();
+            key.append('s').append(sorted(statuses));
+            key.append("|b").append(sorted(brands));
+            key.append("|m").append(sorted(models));
+            key.append("|q").append(sorted(qualities));
+            key.append("|c").append(sorted(colors));
+            key.append("|st").append(sorted(storages));
+            key.append("|p").append(minPrice == null ? "" : minPrice).append('-').append(maxPrice == null ? "" : maxPrice);
+            key.append("|i").append(productIds == null ? "*" : sorted(productIds));
+            key.append("|t").append(text == null ? "" : TextIndex.normalize(text));
+            return key.append(facets ? "|f" : "").toString();
+        }
+
+        private static String sorted(Collection<Integer> ids) {
+            StringBuilder list = new StringBuilder();
+            for (int id : new TreeSet<>(ids)) {
+                if (list.length() > 0) {
+                    list.append(',');
+                }
+                list.append(id);
+            }
+            return list.toString();
+        }
+
+        /**
+         * Whether writing a product may change the matches, the page, the
+         * facet counts or the price histogram of this selection; before is
+         * null for an inserted product, after for a deleted one. Search words
+         * are not checked.
+         */
+        boolean changedBy(Row before, Row after) {
+            int was = missed(before);
+            int is = missed(after);
+            if (was == 0 || is == 0) {
+                return true; // among the matches, e.g. a new price or stock shown
+            }
+            if (!facets || (Integer.bitCount(was) != 1 && Integer.bitCount(is) != 1)) {
+                return false;
+            }
+            // counted only where the filter it fails is left out: moving matters,
+            // in the histogram any new price does
+            return was != is || !before.countedAs(after) || (was == MISSED_PRICE && before.price != after.price);
+        }
+
+        /**
+         * The counted filters a product fails, a bit per facet and
+         * {@link #MISSED_PRICE} for the price range; -1 if it fails any other
+         * filter.
+         */
+        private int missed(Row row) {
+            if (row == null || !accepts(statuses, row.status) || !accepts(models, row.model)
+                    || (productIds != null && !productIds.contains(row.id))) {
+                return -1;
+            }
+            int missed = 0;
+            for (Facet facet : Facet.values()) {
+                if (!accepts(selected(facet), row.value(facet))) {
+                    missed |= 1 << facet.ordinal();
+                }
+            }
+            if ((minPrice != null && row.price < minPrice) || (maxPrice != null && row.price > maxPrice)) {
+                missed |= MISSED_PRICE;
+            }
+            return missed;
+        }
+
+        private static boolean accepts(Set<Integer> chosen, int value) {
+            return chosen.isEmpty() || chosen.contains(value);
+        }
+    }
+
+    /**
+     * A product's values as a selection filters them, before or after a
+     * write.
+     */
+    static class Row {
+
+        private final int id;
+        private final int status;
+        private final int model;
+        private final int brand;
+        private final int quality;
+        private final int color;
+        private final int storage;
+        private final double price;
+
+        Row(int id, int status, int model, int brand, int quality, int color, int storage, double price) {
+            this.id = id;
+            this.status = status;
+            this.model = model;
+            this.brand = brand;
+            this.quality = quality;
+            this.color = color;
+            this.storage = storage;
+            this.price = price;
+        }
+
+        private int value(Facet facet) {
+            switch (facet) {
+                case BRAND:
+                    return brand;
+                case QUALITY:
+                    return quality;
+                case COLOR:
+                    return color;
+                default:
+                    return storage;
+            }
+        }
+
+        /**
+         * Whether both count under the same facet values.
+         */
+        boolean countedAs(Row other) {
+            return status == other.status && model == other.model && brand == other.brand
+                    && quality == other.quality && color == other.color && storage == other.storage;
+        }
+    }
+
+    /**
+     * How many products cost how much: counts per bucket of equal width,
+     * the first starting at {@link #getFrom}.
+     */
+    public static class Histogram {
+
+        private final double min;
+        private final double max;
+        private final double from;
+        private final double width;
+        private final int[] counts;
+
+        /**
+         * Empty buckets covering the prices, starting at a multiple of their
+         * width.
+         */
+        Histogram(double min, double max) {
+            this.min = min;
+            this.max = max;
+            this.width = bucketWidth((max - min) / PRICE_BUCKETS);
+            this.from = Math.floor(min / width) * width;
+            this.counts = new int[(int) ((max - from) / width) + 1];
+        }
+
+        private void add(double price) {
+            counts[Math.min((int) ((price - from) / width), counts.length - 1)]++;
+        }
+
+        /**
+         * Counts the rows' prices, reading the bitmap a word of 64 rows at a
+         * time.
+         */
+        private void addAll(double[] prices, BitSet rows) {
+            double perWidth = 1 / width;
+            int last = counts.length - 1;
+            long[] words = rows.toLongArray();
+            for (int w = 0; w < words.length; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    int bucket = (int) ((prices[(w << 6) + Long.numberOfTrailingZeros(word)] - from) * perWidth);
+                    counts[bucket < last ? bucket : last]++;
+                }
+            }
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getFrom() {
+            return from;
+        }
+
+        public double getWidth() {
+            return width;
+        }
+
+        public int[] getCounts() {
+            return counts.clone();
+        }
+    }
+
+    /**
+     * One page of a search.
+     */
+    public static class Page {
+
+        private final int total;
+        private final List<Integer> ids;
+        private final Map<Facet, Map<Integer, Integer>> facets;
+        private final Histogram prices;
+        private final PageCursor next;
+        private final String correction;
+        private final boolean truncated;
+
+        Page(int total, List<Integer> ids, Map<Facet, Map<Integer, Integer>> facets, Histogram prices,
+                PageCursor next, String correction, boolean truncated) {
+            this.total = total;
+            this.ids = Collections.unmodifiableList(ids);
+            this.facets = facets;
+            this.prices = prices;
+            this.next = next;
+            this.correction = correction;
+            this.truncated = truncated;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public List<Integer> getIds() {
+            return ids;
+        }
+
+        /**
+         * Matches per value id of each facet, values without matches left
+         * out; null unless the selection asked for facets.
+         */
+        public Map<Facet, Map<Integer, Integer>> getFacets() {
+            return facets;
+        }
+
+        /**
+         * The prices of the matches before the price range, for the slider;
+         * null unless the selection asked for facets or without matches.
+         */
+        public Histogram getPrices() {
+            return prices;
+        }
+
+        /**
+         * Where the next page starts, null on the last page.
+         */
+        public PageCursor getNext() {
+            return next;
+        }
+
+        /**
+         * The search text with its typos corrected when the products were
+         * found through corrections, null otherwise.
+         */
+        public String getCorrection() {
+            return correction;
+        }
+
+        /**
+         * Whether a short search word started too many words for all of them
+         * to be matched, see {@link TextIndex.Hits#isTruncated}.
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package hibernate;
+
+import java.util.Objects;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Applies committed product changes to the {@link CatalogIndex}: SaveProduct and
+ * the admin ProductServlet adding, editing or deleting products, CheckOut taking
+ * stock. Registered for the post-commit events; a rolled back change does not
+ * reach the index. A model moved to another brand, or a model, brand, color or
+ * storage renamed (their names are search words) reloads the whole index in
+ * the background.
+ * <p>
+ * HQL bulk updates of product bypass these events; none exist today.
+ */
+public class CatalogIndexListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+    static void register(SessionFactoryImplementor sessionFactory) {
+        CatalogIndexListener listener = new CatalogIndexListener();
+        EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, listener);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Product && committed(event.getSession())) {
+            CatalogIndex index = CatalogIndex.written((Integer) event.getId());
+            if (index != null) {
+                index.put((Product) event.getEntity());
+            }
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (!committed(event.getSession())) {
+            return;
+        }
+        if (event.getEntity() instanceof Product) {
+            CatalogIndex index = CatalogIndex.written((Integer) event.getId());
+            if (index != null) {
+                index.put((Product) event.getEntity());
+            }
+        } else if (CatalogIndex.peek() != null && reloads(event)) {
+            CatalogIndex.reload(event.getSession().getFactory());
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Product && committed(event.getSession())) {
+            CatalogIndex index = CatalogIndex.written((Integer) event.getId());
+            if (index != null) {
+                index.delete((Integer) event.getId());
+            }
+        }
+    }
+
+    /**
+     * Hibernate 4.3 runs the post-commit listeners after a rollback as well.
+     */
+    private boolean committed(EventSource session) {
+        Transaction tx = session.getTransaction();
+        return tx == null || tx.wasCommitted();
+    }
+
+    private boolean reloads(PostUpdateEvent event) {
+        Object entity = event.getEntity();
+        if (entity instanceof Model) {
+            return brandChanged(event) || changed(event, "name");
+        }
+        if (entity instanceof Brand) {
+            return changed(event, "name");
+        }
+        if (entity instanceof Color || entity instanceof Storage) {
+            return changed(event, "value");
+        }
+        return false;
+    }
+
+    private boolean changed(PostUpdateEvent event, String property) {
+        if (event.getOldState() == null) {
+            return true;
+        }
+        int index = event.getPersister().getEntityMetamodel().getPropertyIndex(property);
+        return !Objects.equals(event.getOldState()[index], event.getState()[index]);
+    }
+
+    private boolean brandChanged(PostUpdateEvent event) {
+        if (event.getOldState() == null) {
+            return true; // updated while detached, the old brand is unknown
+        }
+        int brand = event.getPersister().getEntityMetamodel().getPropertyIndex("brand");
+        Object before = event.getOldState()[brand];
+        Object after = event.getState()[brand];
+        return before == null || after == null ? before != after
+                : ((Brand) before).getId() != ((Brand) after).getId();
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        Class<?> type = persister.getMappedClass();
+        return type == Product.class || type == Model.class || type == Brand.class
+                || type == Color.class || type == Storage.class;
+    }
+}
@@ -0,0 +1,324 @@
+package hibernate;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import java.beans.PropertyVetoException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.hibernate.cfg.Environment;
+
+/**
+ * c3p0 backed DataSource handed to Hibernate through hibernate.connection.datasource.
+ * Every checkout is timed so the pool can be sized from real acquire latencies.
+ * Statements get the query timeout of the request's {@link RequestDeadline}.
+ */
+public class ConnectionPool implements DataSource {
+
+    private static final String C3P0_PREFIX = "hibernate.c3p0.";
+
+    private final String name;
+    private final ComboPooledDataSource pool;
+    private SqlStatistics sqlStatistics;
+
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong acquireNanos = new AtomicLong();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final AtomicLong acquireFailures = new AtomicLong();
+
+    private ConnectionPool(String name, ComboPooledDataSource pool) {
+        this.name = name;
+        this.pool = pool;
+    }
+
+    /**
+     * Builds a pool from the hibernate.connection.* and hibernate.c3p0.* settings.
+     * Any hibernate.c3p0.* system property overrides the value from hibernate.cfg.xml.
+     */
+    public static ConnectionPool create(String name, Properties settings) {
+        ComboPooledDataSource pool = new ComboPooledDataSource();
+        try {
+            pool.setDriverClass(settings.getProperty(Environment.DRIVER));
+        } catch (PropertyVetoException e) {
+            throw new IllegalStateException("Invalid JDBC driver " + settings.getProperty(Environment.DRIVER), e);
+        }
+        pool.setDataSourceName("phonehub-" + name);
+        pool.setJdbcUrl(settings.getProperty(Environment.URL));
+        pool.setUser(settings.getProperty(Environment.USER));
+        pool.setPassword(settings.getProperty(Environment.PASS));
+
+        // sizing
+        int minSize = intSetting(settings, "min_size", 5);
+        pool.setMinPoolSize(minSize);
+        pool.setInitialPoolSize(minSize);
+        pool.setMaxPoolSize(intSetting(settings, "max_size", 30));
+        pool.setAcquireIncrement(intSetting(settings, "acquire_increment", 2));
+        pool.setMaxIdleTime(intSetting(settings, "timeout", 300));
+        pool.setMaxIdleTimeExcessConnections(intSetting(settings, "maxIdleTimeExcessConnections", 60));
+
+        // PreparedStatement cache
+        pool.setMaxStatements(intSetting(settings, "max_statements", 500));
+        pool.setMaxStatementsPerConnection(intSetting(settings, "maxStatementsPerConnection", 50));
+
+        // validation
+        pool.setPreferredTestQuery(stringSetting(settings, "preferredTestQuery", "SELECT 1"));
+        pool.setIdleConnectionTestPeriod(intSetting(settings, "idle_test_period", 60));
+        pool.setTestConnectionOnCheckin(booleanSetting(settings, "testConnectionOnCheckin", true));
+        pool.setTestConnectionOnCheckout(booleanSetting(settings, "testConnectionOnCheckout", false));
+
+        // acquire timeouts
+        pool.setCheckoutTimeout(intSetting(settings, "checkoutTimeout", 5000));
+        pool.setAcquireRetryAttempts(intSetting(settings, "acquireRetryAttempts", 3));
+        pool.setAcquireRetryDelay(intSetting(settings, "acquireRetryDelay", 500));
+
+        ConnectionPool connectionPool = new ConnectionPool(name, pool);
+        if (Boolean.parseBoolean(settings.getProperty(Environment.GENERATE_STATISTICS))) {
+            connectionPool.sqlStatistics = new SqlStatistics();
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Copies hibernate.c3p0.* system properties over the configured values.
+     */
+    public static void applySystemOverrides(Properties settings) {
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith(C3P0_PREFIX)) {
+                settings.setProperty(key, System.getProperty(key));
+            }
+        }
+    }
+
+    private static String stringSetting(Properties settings, String key, String defaultValue) {
+        String value = settings.getProperty(C3P0_PREFIX + key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static int intSetting(Properties settings, String key, int defaultValue) {
+        return Integer.parseInt(stringSetting(settings, key, String.valueOf(defaultValue)));
+    }
+
+    private static boolean booleanSetting(Properties settings, String key, boolean defaultValue) {
+        return Boolean.parseBoolean(stringSetting(settings, key, String.valueOf(defaultValue)));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (RequestDeadline.isEnabled()) {
+            // a request out of time should not queue for a connection
+            RequestDeadline.check();
+        }
+        long start = System.nanoTime();
+        try {
+            Connection connection = pool.getConnection();
+            if (RequestDeadline.isEnabled()) {
+                connection = RequestDeadline.wrap(connection);
+            }
+            return sqlStatistics != null ? sqlStatistics.wrap(connection) : connection;
+        } catch (SQLException e) {
+            acquireFailures.incrementAndGet();
+            throw e;
+        } finally {
+            recordAcquire(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Opens the min_size connections now so the first requests after a deploy
+     * do not wait for them. Not counted in the acquire metrics.
+     *
+     * @return the number of connections checked out at once
+     */
+    public int warmUp() throws SQLException {
+        List<Connection> held = new ArrayList<>();
+        try {
+            for (int i = 0; i < pool.getMinPoolSize(); i++) {
+                held.add(pool.getConnection());
+            }
+        } finally {
+            for (Connection connection : held) {
+                connection.close();
+            }
+        }
+        return held.size();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        // a different user would get its own c3p0 pool, so always use the configured one
+        return getConnection();
+    }
+
+    private void recordAcquire(long nanos) {
+        acquireCount.incrementAndGet();
+        acquireNanos.addAndGet(nanos);
+        long max = maxAcquireNanos.get();
+        while (nanos > max && !maxAcquireNanos.compareAndSet(max, nanos)) {
+            max = maxAcquireNanos.get();
+        }
+    }
+
+    public Metrics getMetrics() {
+        Metrics metrics = new Metrics();
+        metrics.name = name;
+        metrics.minSize = pool.getMinPoolSize();
+        metrics.maxSize = pool.getMaxPoolSize();
+        try {
+            metrics.total = pool.getNumConnectionsDefaultUser();
+            metrics.inUse = pool.getNumBusyConnectionsDefaultUser();
+            metrics.idle = pool.getNumIdleConnectionsDefaultUser();
+            metrics.waiters = pool.getNumThreadsAwaitingCheckoutDefaultUser();
+            metrics.cachedStatements = pool.getStatementCacheNumStatementsDefaultUser();
+            metrics.failedCheckouts = pool.getNumFailedCheckoutsDefaultUser();
+        } catch (SQLException e) {
+            System.err.println("Could not read pool state for " + name + ": " + e.getMessage());
+        }
+        long count = acquireCount.get();
+        metrics.acquireCount = count;
+        metrics.acquireFailures = acquireFailures.get();
+        metrics.avgAcquireMillis = count == 0 ? 0 : acquireNanos.get() / (double) count / 1000000.0;
+        metrics.maxAcquireMillis = maxAcquireNanos.get() / 1000000.0;
+        return metrics;
+    }
+
+    /**
+     * Per-statement timings, or null unless hibernate.generate_statistics is on.
+     */
+    public SqlStatistics getSqlStatistics() {
+        return sqlStatistics;
+    }
+
+    public void resetMetrics() {
+        acquireCount.set(0);
+        acquireNanos.set(0);
+        maxAcquireNanos.set(0);
+        acquireFailures.set(0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void close() {
+        pool.close();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return pool.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        pool.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        pool.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return pool.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        if (iface.isInstance(pool)) {
+            return iface.cast(pool);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || iface.isInstance(pool);
+    }
+
+    /**
+     * Point-in-time view of the pool, serialized as-is by the admin endpoints.
+     */
+    public static class Metrics {
+
+        private String name;
+        private int minSize;
+        private int maxSize;
+        private int total;
+        private int inUse;
+        private int idle;
+        private int waiters;
+        private int cachedStatements;
+        private long failedCheckouts;
+        private long acquireCount;
+        private long acquireFailures;
+        private double avgAcquireMillis;
+        private double maxAcquireMillis;
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMinSize() {
+            return minSize;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getInUse() {
+            return inUse;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getWaiters() {
+            return waiters;
+        }
+
+        public int getCachedStatements() {
+            return cachedStatements;
+        }
+
+        public long getFailedCheckouts() {
+            return failedCheckouts;
+        }
+
+        public long getAcquireCount() {
+            return acquireCount;
+        }
+
+        public long getAcquireFailures() {
+            return acquireFailures;
+        }
+
+        public double getAvgAcquireMillis() {
+            return avgAcquireMillis;
+        }
+
+        public double getMaxAcquireMillis() {
+            return maxAcquireMillis;
+        }
+    }
+}
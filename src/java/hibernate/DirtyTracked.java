@@ -0,0 +1,19 @@
+package hibernate;
+
+import java.util.Set;
+
+/**
+ * An entity whose setters record which properties they changed, so a flush
+ * can skip it without comparing its state to the loaded snapshot. See
+ * {@link TrackedDirtinessStrategy}.
+ */
+public interface DirtyTracked {
+
+    /**
+     * Names of the properties set to a different value since the entity was
+     * loaded or last written, empty when there are none.
+     */
+    Set<String> getDirtyProperties();
+
+    void clearDirtyProperties();
+}
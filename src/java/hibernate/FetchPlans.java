@@ -0,0 +1,102 @@
+package hibernate;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+/**
+ * Join fetches for the object graphs each endpoint serializes. The associations
+ * of Product, Cart, Orders and OrderItems are lazy, and Gson cannot serialize an
+ * uninitialized proxy, so every criteria whose result goes to Gson must apply
+ * the matching plan. The cart list fetches the same card graph in the
+ * {@link QueryCatalog#CART_VIEW_BY_USER} named query.
+ */
+public class FetchPlans {
+
+    /** Characters of the description a list card shows, see {@link #summaries}. */
+    public static final int SUMMARY_LENGTH = 200;
+
+    private FetchPlans() {
+    }
+
+    /**
+     * Product card on the home and search pages: model, brand, color, storage,
+     * quality and status. The seller and the description are not loaded, the
+     * list view shows the start of the description from {@link #summaries}.
+     */
+    public static Criteria searchCard(Criteria criteria) {
+        return productGraph(criteria);
+    }
+
+    /**
+     * The start of the lazy description of each product, for list cards: one
+     * projection query that reads at most SUMMARY_LENGTH characters of each,
+     * "..." marking the cut ones.
+     */
+    public static Map<Integer, String> summaries(Session session, Collection<Integer> productIds) {
+        Map<Integer, String> summaries = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return summaries;
+        }
+        Query query = session.getNamedQuery(QueryCatalog.PRODUCT_SUMMARIES_BY_IDS)
+                .setParameter("length", SUMMARY_LENGTH);
+        QueryCatalog.setIds(query, "ids", productIds);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.list();
+        for (Object[] row : rows) {
+            String summary = row[1] != null ? ((String) row[1]).trim() : "";
+            if (row[2] != null && ((Number) row[2]).intValue() > SUMMARY_LENGTH) {
+                summary += "...";
+            }
+            summaries.put((Integer) row[0], summary);
+        }
+        return summaries;
+    }
+
+    /**
+     * Single product page and admin product views: the card graph plus the seller.
+     */
+    public static Criteria productDetail(Criteria criteria) {
+        return productGraph(criteria).setFetchMode("user", FetchMode.JOIN);
+    }
+
+    /**
+     * Loads the lazy description of the product a product page shows. Gson reads
+     * fields directly and would see null; with an enhanced Product this is one
+     * select, without enhancement the description is already there.
+     */
+    public static Product withDescription(Product product) {
+        product.getDescription();
+        return product;
+    }
+
+    /**
+     * Admin order list on {@link Orders}: the customer of each order.
+     */
+    public static Criteria adminOrderList(Criteria criteria) {
+        return criteria.setFetchMode("user", FetchMode.JOIN);
+    }
+
+    /**
+     * Admin order list on {@link OrderItems}: the product price and title and
+     * the order status of every line.
+     */
+    public static Criteria adminOrderItems(Criteria criteria) {
+        return criteria.setFetchMode("product", FetchMode.JOIN)
+                .setFetchMode("orderStatus", FetchMode.JOIN);
+    }
+
+    private static Criteria productGraph(Criteria criteria) {
+        return criteria.setFetchMode("model", FetchMode.JOIN)
+                .setFetchMode("model.brand", FetchMode.JOIN)
+                .setFetchMode("color", FetchMode.JOIN)
+                .setFetchMode("storage", FetchMode.JOIN)
+                .setFetchMode("quality", FetchMode.JOIN)
+                .setFetchMode("status", FetchMode.JOIN);
+    }
+}
@@ -1,26 +1,238 @@
 package hibernate;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.hibernate.Cache;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.service.ServiceRegistry;
 
 public class HibernateUtil {
 
+    /** Query cache region for the Brand/Model/Color/... lists used by the shop. */
+    public static final String REFERENCE_REGION = "reference";
+    /**
+     * Prefix of the replica's cache regions. Its rows lag the primary's and
+     * writes never go through it, so it must not share the primary's entries.
+     */
+    static final String REPLICA_REGION_PREFIX = "replica";
+
+    /** hibernate.cfg.xml, or e.g. /hibernate-bench.cfg.xml with -Dphonehub.hibernate.config. */
+    private static final String CONFIG_RESOURCE = System.getProperty("phonehub.hibernate.config", "/hibernate.cfg.xml");
+
+    private static final ConnectionPool connectionPool;
+    private static final ServiceRegistry serviceRegistry;
     private static final SessionFactory sessionFactory;
+    private static final SessionFactory trackingSessionFactory;
+
+    // read replica, null unless -Dphonehub.replica.url is set
+    private static final ConnectionPool replicaPool;
+    private static final ServiceRegistry replicaServiceRegistry;
+    private static final SessionFactory replicaSessionFactory;
+    private static final SessionFactory trackingReplicaSessionFactory;
+    private static final ReplicaMonitor replicaMonitor;
+
+    /**
+     * Where a request's reads may go. Writes always use {@link #PRIMARY}.
+     */
+    public enum Route {
+        PRIMARY,
+        /** The read replica while it is reachable and caught up, the primary otherwise. */
+        REPLICA
+    }
 
     static {
+        // the first request may get here; building is not part of its deadline
+        RequestDeadline.exemptStartup(true);
         try {
-            sessionFactory = new Configuration().configure().buildSessionFactory();
+            Configuration configuration = new Configuration().configure(CONFIG_RESOURCE);
+            Properties settings = configuration.getProperties();
+            ConnectionPool.applySystemOverrides(settings);
+
+            connectionPool = ConnectionPool.create("primary", settings);
+            // credentials live in the pool; leaving them here makes Hibernate ask for a per-user connection
+            settings.remove(Environment.USER);
+            settings.remove(Environment.PASS);
+            settings.put(Environment.DATASOURCE, connectionPool);
+
+            configuration.setInterceptor(new StatementCounter());
+            serviceRegistry = new StandardServiceRegistryBuilder().applySettings(settings).build();
+            sessionFactory = configuration.buildSessionFactory(serviceRegistry);
+            QueryCatalog.load((SessionFactoryImplementor) sessionFactory);
+            CatalogIndexListener.register((SessionFactoryImplementor) sessionFactory);
+            IdGenerators.prepare(connectionPool);
+            SchemaMigrator.standard(connectionPool).migrateAndReport();
+            trackingSessionFactory = tracking(sessionFactory);
+
+            String replicaUrl = System.getProperty("phonehub.replica.url");
+            if (replicaUrl != null && !replicaUrl.trim().isEmpty()) {
+                Configuration replicaConfiguration = new Configuration().configure(CONFIG_RESOURCE);
+                Properties replicaSettings = replicaConfiguration.getProperties();
+                ConnectionPool.applySystemOverrides(replicaSettings);
+                replicaSettings.setProperty(Environment.URL, replicaUrl.trim());
+                replicaSettings.setProperty(Environment.USER,
+                        System.getProperty("phonehub.replica.username", replicaSettings.getProperty(Environment.USER)));
+                replicaSettings.setProperty(Environment.PASS,
+                        System.getProperty("phonehub.replica.password", replicaSettings.getProperty(Environment.PASS)));
+                replicaSettings.remove(Environment.HBM2DDL_AUTO);
+                replicaSettings.setProperty(Environment.CACHE_REGION_PREFIX, REPLICA_REGION_PREFIX);
+
+                replicaPool = ConnectionPool.create("replica", replicaSettings);
+                replicaSettings.remove(Environment.USER);
+                replicaSettings.remove(Environment.PASS);
+                replicaSettings.put(Environment.DATASOURCE, replicaPool);
+
+                replicaConfiguration.setInterceptor(new StatementCounter());
+                replicaServiceRegistry = new StandardServiceRegistryBuilder().applySettings(replicaSettings).build();
+                replicaSessionFactory = replicaConfiguration.buildSessionFactory(replicaServiceRegistry);
+                trackingReplicaSessionFactory = tracking(replicaSessionFactory);
+                replicaMonitor = new ReplicaMonitor(replicaPool,
+                        Long.getLong("phonehub.replica.maxLagSeconds", 5),
+                        Long.getLong("phonehub.replica.probeIntervalMillis", 5000));
+                System.out.println("Read replica configured at " + replicaUrl);
+            } else {
+                replicaPool = null;
+                replicaServiceRegistry = null;
+                replicaSessionFactory = null;
+                trackingReplicaSessionFactory = null;
+                replicaMonitor = null;
+            }
         } catch (Throwable ex) {
             System.err.println("Initial SessionFactory creation failed." + ex);
             throw new ExceptionInInitializerError(ex);
+        } finally {
+            RequestDeadline.exemptStartup(false);
         }
     }
 
+    /**
+     * Sessions opened from the returned factory are closed by
+     * {@link model.HibernateSessionFilter} if the caller forgets to.
+     */
     public static SessionFactory getSessionFactory() {
-        return sessionFactory;
+        return trackingSessionFactory;
+    }
+
+    /**
+     * The factory for the given route. {@link Route#REPLICA} falls back to the
+     * primary when no replica is configured or it lags too far behind.
+     */
+    public static SessionFactory getSessionFactory(Route route) {
+        return useReplica(route) ? trackingReplicaSessionFactory : trackingSessionFactory;
+    }
+
+    /**
+     * The session of the request being served, opened on first use and closed
+     * when the request ends. GET requests get a read-only, manually flushed
+     * session.
+     */
+    public static Session currentSession() {
+        return currentSession(Route.PRIMARY);
+    }
+
+    /**
+     * Like {@link #currentSession()}, on the replica for {@link Route#REPLICA}
+     * when it is usable. Replica sessions are always read-only.
+     */
+    public static Session currentSession(Route route) {
+        SessionContext context = SessionContext.get();
+        if (context == null) {
+            throw new IllegalStateException("No request bound to this thread; is HibernateSessionFilter mapped?");
+        }
+        if (useReplica(route)) {
+            return context.getSession(replicaSessionFactory, true);
+        }
+        return context.getSession(sessionFactory, false);
+    }
+
+    public static ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * The replica pool, or null when no replica is configured.
+     */
+    public static ConnectionPool getReplicaPool() {
+        return replicaPool;
+    }
+
+    /**
+     * The replica lag probe, or null when no replica is configured.
+     */
+    public static ReplicaMonitor getReplicaMonitor() {
+        return replicaMonitor;
+    }
+
+    /**
+     * How far the rows a session reads may trail the primary's commits, in
+     * milliseconds: 0 on the primary. On the replica it is the lag of the last
+     * probe plus the second the lag is rounded down to, or the most lag a
+     * replica is used at when that is unknown.
+     */
+    public static long readLagMillis(Session session) {
+        if (replicaSessionFactory == null || session.getSessionFactory() != replicaSessionFactory) {
+            return 0;
+        }
+        long lag = replicaMonitor.getLagSeconds();
+        return TimeUnit.SECONDS.toMillis((lag >= 0 ? lag : replicaMonitor.getMaxLagSeconds()) + 1);
+    }
+
+    private static boolean useReplica(Route route) {
+        return route == Route.REPLICA && replicaSessionFactory != null && replicaMonitor.isHealthy();
+    }
+
+    /**
+     * Drops cached rows of a lookup entity and every cached lookup list, of
+     * the primary and the replica, so the next request sees rows added or
+     * removed by the admin panel.
+     */
+    public static void evictReferenceData(Class<?> entityClass) {
+        evictReferenceData(sessionFactory.getCache(), entityClass);
+        if (replicaSessionFactory != null) {
+            evictReferenceData(replicaSessionFactory.getCache(), entityClass);
+        }
+    }
+
+    private static void evictReferenceData(Cache cache, Class<?> entityClass) {
+        cache.evictEntityRegion(entityClass);
+        cache.evictQueryRegion(REFERENCE_REGION);
     }
 
     public static void shutdown() {
-        getSessionFactory().close();
+        if (replicaSessionFactory != null) {
+            replicaSessionFactory.close();
+            StandardServiceRegistryBuilder.destroy(replicaServiceRegistry);
+            replicaPool.close();
+        }
+        sessionFactory.close();
+        StandardServiceRegistryBuilder.destroy(serviceRegistry);
+        connectionPool.close();
+    }
+
+    private static SessionFactory tracking(final SessionFactory target) {
+        return (SessionFactory) Proxy.newProxyInstance(SessionFactory.class.getClassLoader(),
+                new Class<?>[]{SessionFactory.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (result instanceof Session && method.getName().equals("openSession")) {
+                    SessionContext.track((Session) result);
+                }
+                return result;
+            }
+        });
     }
 }
@@ -0,0 +1,87 @@
+package hibernate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.DataSource;
+
+/**
+ * Table backed id generators. Unlike IDENTITY columns they hand out ids before
+ * the insert, which lets Hibernate batch the inserts of an entity.
+ */
+public class IdGenerators {
+
+    public static final String TABLE = "id_generator";
+    public static final String SEGMENT_COLUMN = "sequence_name";
+    public static final String VALUE_COLUMN = "next_val";
+
+    /** Segment for {@link OrderItems}, seeded above the ids the old AUTO_INCREMENT column handed out. */
+    public static final String ORDER_ITEMS = "order_items";
+
+    private IdGenerators() {
+    }
+
+    /**
+     * Creates the generator table if missing and seeds each segment with the
+     * next free id of its table, so switching an existing table from IDENTITY
+     * does not reuse ids.
+     */
+    static void prepare(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement st = connection.createStatement()) {
+                st.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                        + SEGMENT_COLUMN + " VARCHAR(255) NOT NULL PRIMARY KEY, "
+                        + VALUE_COLUMN + " BIGINT)");
+            }
+            seed(connection, ORDER_ITEMS, "order_items");
+        } catch (SQLException e) {
+            System.err.println("Could not prepare id generator table: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves a segment past the highest id of its table, after rows were
+     * inserted with explicit ids such as by a bulk load.
+     */
+    public static void reseed(Connection connection, String segment, String table) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "UPDATE " + TABLE + " SET " + VALUE_COLUMN + " = (SELECT COALESCE(MAX(id), 0) + 1 FROM " + table + ")"
+                + " WHERE " + SEGMENT_COLUMN + " = ?")) {
+            ps.setString(1, segment);
+            if (ps.executeUpdate() == 0) {
+                seed(connection, segment, table);
+            }
+        }
+    }
+
+    private static void seed(Connection connection, String segment, String table) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT " + VALUE_COLUMN + " FROM " + TABLE + " WHERE " + SEGMENT_COLUMN + " = ?")) {
+            ps.setString(1, segment);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+
+        long next = 1;
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT MAX(id) FROM " + table)) {
+            if (rs.next()) {
+                next = rs.getLong(1) + 1;
+            }
+        } catch (SQLException e) {
+            // table not created yet, start from 1
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO " + TABLE + " (" + SEGMENT_COLUMN + ", " + VALUE_COLUMN + ") VALUES (?, ?)")) {
+            ps.setString(1, segment);
+            ps.setLong(2, next);
+            ps.executeUpdate();
+        }
+    }
+}
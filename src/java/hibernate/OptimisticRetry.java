@@ -0,0 +1,82 @@
+package hibernate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+import org.hibernate.Transaction;
+
+/**
+ * Runs a unit of work in its own session and transaction and retries it when a
+ * versioned row ({@link Product}, {@link Cart}) was changed by someone else in
+ * the meantime. Each attempt starts from a fresh session, so the work must
+ * load what it changes itself. The session is writable even on a GET request.
+ */
+public class OptimisticRetry {
+
+    public static final int DEFAULT_ATTEMPTS = 5;
+    private static final long BACKOFF_MILLIS = 10;
+
+    /**
+     * A transaction body. It may roll back itself to give up without retrying.
+     */
+    public interface Work<T> {
+
+        T run(Session session);
+    }
+
+    private OptimisticRetry() {
+    }
+
+    public static <T> T run(Work<T> work) {
+        return run(DEFAULT_ATTEMPTS, work);
+    }
+
+    /**
+     * @throws StaleStateException if every attempt hit a conflicting update
+     */
+    public static <T> T run(int maxAttempts, Work<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            Session session = HibernateUtil.getSessionFactory().openSession();
+            try {
+                Transaction tr = session.beginTransaction();
+                try {
+                    T result = work.run(session);
+                    if (tr.isActive()) {
+                        tr.commit();
+                    }
+                    return result;
+                } catch (StaleStateException e) {
+                    rollback(tr);
+                    if (attempt >= maxAttempts) {
+                        System.err.println("Giving up after " + attempt + " conflicting updates: " + e.getMessage());
+                        throw e;
+                    }
+                } catch (RuntimeException e) {
+                    rollback(tr);
+                    throw e;
+                }
+            } finally {
+                session.close();
+            }
+            backoff(attempt);
+        }
+    }
+
+    private static void rollback(Transaction tr) {
+        try {
+            if (tr.isActive()) {
+                tr.rollback();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Rollback failed: " + e.getMessage());
+        }
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(BACKOFF_MILLIS << attempt) + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -7,44 +7,70 @@ package hibernate;
 import java.io.Serializable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 /**
  *
  * @author Oshen Sathsara <oshensathsara2003@gmail.com>
  */
 @Entity
+@NamedQueries({
+    @NamedQuery(name = QueryCatalog.ORDER_ITEMS_REVENUE,
+            query = "SELECT SUM(oi.qty * p.price) FROM OrderItems oi JOIN oi.product p"),
+    @NamedQuery(name = QueryCatalog.ORDER_ITEMS_TOTALS_BY_ORDERS, query = "SELECT oi.orders.id, SUM(oi.qty * p.price)"
+            + " FROM OrderItems oi JOIN oi.product p WHERE oi.orders.id IN (:orderIds) GROUP BY oi.orders.id"),
+    @NamedQuery(name = QueryCatalog.ORDER_ITEMS_TOP_PRODUCTS_BETWEEN, query = "SELECT p.title, SUM(oi.qty)"
+            + " FROM OrderItems oi JOIN oi.product p JOIN oi.orders o"
+            + " WHERE o.createdAt >= :from AND o.createdAt < :to"
+            + " GROUP BY p.id, p.title ORDER BY SUM(oi.qty) DESC"),
+    @NamedQuery(name = QueryCatalog.ORDER_ITEMS_COUNT_ORDERS_WITH_STATUS,
+            query = "SELECT COUNT(DISTINCT oi.orders.id) FROM OrderItems oi WHERE oi.orderStatus.value = :status"),
+    @NamedQuery(name = QueryCatalog.ORDER_ITEMS_SOLD_BY_PRODUCT,
+            query = "SELECT oi.product.id, SUM(oi.qty) FROM OrderItems oi GROUP BY oi.product.id")
+})
 @Table(name="order_items")
 public class OrderItems implements Serializable{
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "order_items_id")
+    @GenericGenerator(name = "order_items_id", strategy = "enhanced-table", parameters = {
+        @Parameter(name = "table_name", value = IdGenerators.TABLE),
+        @Parameter(name = "segment_column_name", value = IdGenerators.SEGMENT_COLUMN),
+        @Parameter(name = "value_column_name", value = IdGenerators.VALUE_COLUMN),
+        @Parameter(name = "segment_value", value = IdGenerators.ORDER_ITEMS),
+        @Parameter(name = "increment_size", value = "50"),
+        @Parameter(name = "optimizer", value = "pooled-lo")
+    })
     @Column(name="id")
     private int id;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="product_id")
     private Product product;
     
     @Column(name = "qty", nullable = false)
     private int qty;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="order_status_id")
     private OrderStatus orderStatus;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="delivery_type_id")
     private DeliveryTypes deliveryTypes;
     
     @Column(name = "rating", nullable = false)
     private int rating;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="orders_id")
     private Orders orders;
 
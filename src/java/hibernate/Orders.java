@@ -8,11 +8,14 @@ import java.io.Serializable;
 import java.util.Date;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
 /**
@@ -20,6 +23,11 @@ import javax.persistence.Table;
  * @author Oshen Sathsara <oshensathsara2003@gmail.com>
  */
 @Entity
+@NamedQueries({
+    @NamedQuery(name = QueryCatalog.ORDERS_COUNT, query = "SELECT COUNT(o) FROM Orders o"),
+    @NamedQuery(name = QueryCatalog.ORDERS_COUNT_CREATED_BETWEEN,
+            query = "SELECT COUNT(o) FROM Orders o WHERE o.createdAt >= :from AND o.createdAt < :to")
+})
 @Table(name="orders")
 public class Orders implements Serializable{
     @Id
@@ -27,14 +35,14 @@ public class Orders implements Serializable{
     @Column(name="id")
     private int id;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="user_id")
     private User user;
     
     @Column(name="created_at")
     private Date createdAt;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="address_id")
     private Address address;
 
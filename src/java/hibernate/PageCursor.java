@@ -0,0 +1,86 @@
+package hibernate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Where a page of products ended: the sort order, the last product's id and
+ * its sort key (price, relevance score or title). Handed to the browser as an
+ * opaque token and sent back for the next page, which then starts right after
+ * that product instead of counting past every earlier one. Still correct when
+ * products are added or removed in between, where an offset would skip or
+ * repeat some.
+ */
+public class PageCursor {
+
+    private final CatalogIndex.Sort sort;
+    private final int id;
+    private final double value;
+    private final String title;
+
+    private PageCursor(CatalogIndex.Sort sort, int id, double value, String title) {
+        this.sort = sort;
+        this.id = id;
+        this.value = value;
+        this.title = title;
+    }
+
+    /**
+     * The cursor after a product; value is its price or relevance score,
+     * title its title, whichever the sort uses.
+     */
+    public static PageCursor after(CatalogIndex.Sort sort, int id, double value, String title) {
+        return new PageCursor(sort, id, value, title == null ? "" : title);
+    }
+
+    /**
+     * The cursor in a token for the given sort, null if the token is missing,
+     * malformed or was made for another sort order.
+     */
+    public static PageCursor parse(String token, CatalogIndex.Sort sort) {
+        if (token == null || token.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8)
+                    .split(":", 3);
+            if (parts.length != 3 || !parts[0].equals(sort.name())) {
+                return null;
+            }
+            int id = Integer.parseInt(parts[1]);
+            if (sort == CatalogIndex.Sort.PRICE || sort == CatalogIndex.Sort.RELEVANCE) {
+                return new PageCursor(sort, id, Double.parseDouble(parts[2]), "");
+            }
+            return new PageCursor(sort, id, 0, parts[2]);
+        } catch (IllegalArgumentException e) {
+            // not one of ours
+            return null;
+        }
+    }
+
+    public String toToken() {
+        String key = sort == CatalogIndex.Sort.PRICE || sort == CatalogIndex.Sort.RELEVANCE ? String.valueOf(value)
+                : sort == CatalogIndex.Sort.NAME ? title : "";
+        String plain = sort.name() + ":" + id + ":" + key;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public CatalogIndex.Sort getSort() {
+        return sort;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * The price or relevance score the page ended at.
+     */
+    public double getValue() {
+        return value;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+}
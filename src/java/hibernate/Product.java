@@ -5,24 +5,45 @@
 package hibernate;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import javax.persistence.Basic;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
+import javax.persistence.Version;
 
 /**
  *
  * @author Oshen Sathsara <oshensathsara2003@gmail.com>
  */
 @Entity
+@NamedQueries({
+    @NamedQuery(name = QueryCatalog.PRODUCT_BY_IDS, query = "FROM Product p WHERE p.id IN (:ids)"),
+    @NamedQuery(name = QueryCatalog.PRODUCT_SUMMARIES_BY_IDS, query = "SELECT p.id,"
+            + " SUBSTRING(p.description, 1, :length), LENGTH(p.description) FROM Product p WHERE p.id IN (:ids)"),
+    @NamedQuery(name = QueryCatalog.PRODUCT_COUNT, query = "SELECT COUNT(p) FROM Product p"),
+    @NamedQuery(name = QueryCatalog.PRODUCT_COUNT_LOW_STOCK, query = "SELECT COUNT(p) FROM Product p WHERE p.qty <= :qty"),
+    @NamedQuery(name = QueryCatalog.PRODUCT_INDEX_ROWS,
+            query = "SELECT p.id, p.price, p.qty, p.title, m.id, b.id, q.id, c.id, st.id, s.id,"
+            + " m.name, b.name, c.value, st.value, p.description FROM Product p"
+            + " LEFT JOIN p.model m LEFT JOIN m.brand b LEFT JOIN p.quality q LEFT JOIN p.color c"
+            + " LEFT JOIN p.storage st LEFT JOIN p.status s ORDER BY p.id")
+})
 @Table(name = "product")
-public class Product implements Serializable {
+public class Product implements Serializable, DirtyTracked {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -32,10 +53,12 @@ public class Product implements Serializable {
     @Column(name = "title", nullable = false)
     private String title;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "model_id")
     private Model model;
 
+    // only the product page shows it; lazy once the build has enhanced this class
+    @Basic(fetch = FetchType.LAZY)
     @Column(name = "description", nullable = false)
     private String description;
 
@@ -49,26 +72,34 @@ public class Product implements Serializable {
     @Temporal(javax.persistence.TemporalType.DATE)
     private Date created_at;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="color_id")
     private Color color;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="storage_id")
     private Storage storage;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="quality_id")
     private Quality quality;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="status_id")
     private Status status;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="user_id")
     private User user;
 
+    // stock updates check this, see OptimisticRetry
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
+
+    // properties set since the last load or update, see TrackedDirtinessStrategy
+    private transient Set<String> dirtyProperties;
+
     public int getId() {
         return id;
     }
@@ -82,6 +113,9 @@ public class Product implements Serializable {
     }
 
     public void setModel(Model model) {
+        if (!Objects.equals(this.model, model)) {
+            markDirty("model");
+        }
         this.model = model;
     }
 
@@ -90,6 +124,9 @@ public class Product implements Serializable {
     }
 
     public void setDescription(String description) {
+        if (!Objects.equals(this.description, description)) {
+            markDirty("description");
+        }
         this.description = description;
     }
 
@@ -98,6 +135,9 @@ public class Product implements Serializable {
     }
 
     public void setPrice(double price) {
+        if (this.price != price) {
+            markDirty("price");
+        }
         this.price = price;
     }
 
@@ -106,6 +146,9 @@ public class Product implements Serializable {
     }
 
     public void setQty(int qty) {
+        if (this.qty != qty) {
+            markDirty("qty");
+        }
         this.qty = qty;
     }
 
@@ -115,6 +158,9 @@ public class Product implements Serializable {
     }
 
     public void setColor(Color color) {
+        if (!Objects.equals(this.color, color)) {
+            markDirty("color");
+        }
         this.color = color;
     }
 
@@ -123,6 +169,9 @@ public class Product implements Serializable {
     }
 
     public void setStorage(Storage storage) {
+        if (!Objects.equals(this.storage, storage)) {
+            markDirty("storage");
+        }
         this.storage = storage;
     }
 
@@ -132,6 +181,9 @@ public class Product implements Serializable {
     }
 
     public void setStatus(Status status) {
+        if (!Objects.equals(this.status, status)) {
+            markDirty("status");
+        }
         this.status = status;
     }
 
@@ -140,6 +192,9 @@ public class Product implements Serializable {
     }
 
     public void setUser(User user) {
+        if (!Objects.equals(this.user, user)) {
+            markDirty("user");
+        }
         this.user = user;
     }
 
@@ -148,6 +203,9 @@ public class Product implements Serializable {
     }
 
     public void setTitle(String title) {
+        if (!Objects.equals(this.title, title)) {
+            markDirty("title");
+        }
         this.title = title;
     }
 
@@ -156,6 +214,9 @@ public class Product implements Serializable {
     }
 
     public void setCreated_at(Date created_at) {
+        if (!Objects.equals(this.created_at, created_at)) {
+            markDirty("created_at");
+        }
         this.created_at = created_at;
     }
 
@@ -164,8 +225,34 @@ public class Product implements Serializable {
     }
 
     public void setQuality(Quality quality) {
+        if (!Objects.equals(this.quality, quality)) {
+            markDirty("quality");
+        }
         this.quality = quality;
     }
 
-   
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    @Override
+    public Set<String> getDirtyProperties() {
+        return dirtyProperties == null ? Collections.<String>emptySet() : dirtyProperties;
+    }
+
+    @Override
+    public void clearDirtyProperties() {
+        dirtyProperties = null;
+    }
+
+    private void markDirty(String property) {
+        if (dirtyProperties == null) {
+            dirtyProperties = new HashSet<>();
+        }
+        dirtyProperties.add(property);
+    }
 }
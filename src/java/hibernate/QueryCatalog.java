@@ -0,0 +1,191 @@
+package hibernate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.engine.spi.NamedQueryDefinition;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Names of the HQL queries declared with @NamedQuery on the entities. Hibernate
+ * compiles them into its query plan cache while building the SessionFactory and
+ * refuses to start if one does not parse (hibernate.query.startup_check), so a
+ * query naming a missing property fails the deployment, not a request.
+ * <p>
+ * Dynamic searches with optional filters stay Criteria.
+ */
+public class QueryCatalog {
+
+    public static final String CART_VIEW_BY_USER = "Cart.viewByUser";
+    public static final String CART_WITH_PRODUCT_BY_USER = "Cart.withProductByUser";
+    public static final String CART_BY_USER_AND_PRODUCT = "Cart.byUserAndProduct";
+    public static final String CART_BY_USER_AND_PRODUCTS = "Cart.byUserAndProducts";
+    public static final String CART_DELETE_BY_USER = "Cart.deleteByUser";
+    public static final String PRODUCT_BY_IDS = "Product.byIds";
+    public static final String PRODUCT_SUMMARIES_BY_IDS = "Product.summariesByIds";
+    public static final String PRODUCT_COUNT = "Product.count";
+    public static final String PRODUCT_COUNT_LOW_STOCK = "Product.countLowStock";
+    public static final String PRODUCT_INDEX_ROWS = "Product.indexRows";
+    public static final String USER_BY_EMAIL = "User.byEmail";
+    public static final String USER_BY_EMAIL_AND_PASSWORD = "User.byEmailAndPassword";
+    public static final String USER_BY_EMAIL_AND_VERIFICATION = "User.byEmailAndVerification";
+    public static final String USER_COUNT = "User.count";
+    public static final String USER_COUNT_CREATED_BETWEEN = "User.countCreatedBetween";
+    public static final String ADDRESS_BY_USER_NEWEST_FIRST = "Address.byUserNewestFirst";
+    public static final String ORDERS_COUNT = "Orders.count";
+    public static final String ORDERS_COUNT_CREATED_BETWEEN = "Orders.countCreatedBetween";
+    public static final String ORDER_ITEMS_REVENUE = "OrderItems.revenue";
+    public static final String ORDER_ITEMS_TOTALS_BY_ORDERS = "OrderItems.totalsByOrders";
+    public static final String ORDER_ITEMS_TOP_PRODUCTS_BETWEEN = "OrderItems.topProductsBetween";
+    public static final String ORDER_ITEMS_COUNT_ORDERS_WITH_STATUS = "OrderItems.countOrdersWithStatus";
+    public static final String ORDER_ITEMS_SOLD_BY_PRODUCT = "OrderItems.soldByProduct";
+
+    private static final String[] NAMES = {
+        CART_VIEW_BY_USER, CART_WITH_PRODUCT_BY_USER, CART_BY_USER_AND_PRODUCT, CART_BY_USER_AND_PRODUCTS,
+        CART_DELETE_BY_USER, PRODUCT_BY_IDS, PRODUCT_SUMMARIES_BY_IDS, PRODUCT_COUNT, PRODUCT_COUNT_LOW_STOCK, PRODUCT_INDEX_ROWS,
+        USER_BY_EMAIL, USER_BY_EMAIL_AND_PASSWORD, USER_BY_EMAIL_AND_VERIFICATION, USER_COUNT, USER_COUNT_CREATED_BETWEEN,
+        ADDRESS_BY_USER_NEWEST_FIRST, ORDERS_COUNT, ORDERS_COUNT_CREATED_BETWEEN, ORDER_ITEMS_REVENUE,
+        ORDER_ITEMS_TOTALS_BY_ORDERS, ORDER_ITEMS_TOP_PRODUCTS_BETWEEN, ORDER_ITEMS_COUNT_ORDERS_WITH_STATUS,
+        ORDER_ITEMS_SOLD_BY_PRODUCT
+    };
+
+    /** A list parameter as Hibernate expands it, (:ids_0_, :ids_1_, ...). */
+    private static final Pattern EXPANDED_LIST = Pattern.compile("\\(:(\\w+)_0_(?:, :\\1_\\d+_)*\\)");
+
+    private static volatile Map<String, String> hqlByName = Collections.emptyMap();
+
+    private QueryCatalog() {
+    }
+
+    /**
+     * Checks that every name above is declared and remembers its HQL for
+     * {@link #timings}. Called once the SessionFactory is built.
+     */
+    static void load(SessionFactoryImplementor sessionFactory) {
+        Map<String, String> hql = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String name : NAMES) {
+            NamedQueryDefinition definition = sessionFactory.getNamedQuery(name);
+            if (definition == null) {
+                missing.add(name);
+            } else {
+                hql.put(name, definition.getQueryString());
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new HibernateException("Named queries not declared on any entity: " + missing);
+        }
+        hqlByName = hql;
+        System.out.println("Query catalog: " + hql.size() + " named queries compiled");
+    }
+
+    /**
+     * Binds an id list padded to the next power of two by repeating its last
+     * id. Hibernate writes one placeholder per element, so every list size is
+     * a different query plan and statement; padding keeps that to a handful.
+     */
+    public static Query setIds(Query query, String parameter, Collection<Integer> ids) {
+        if (ids.isEmpty()) {
+            throw new IllegalArgumentException("No ids for " + parameter);
+        }
+        return query.setParameterList(parameter, pad(ids));
+    }
+
+    /**
+     * The ids padded like {@link #setIds}, for Criteria IN restrictions.
+     */
+    public static List<Integer> pad(Collection<Integer> ids) {
+        List<Integer> padded = new ArrayList<>(ids);
+        if (padded.isEmpty()) {
+            return padded;
+        }
+        int size = padded.size() == 1 ? 1 : Integer.highestOneBit(padded.size() - 1) << 1;
+        Integer last = padded.get(padded.size() - 1);
+        while (padded.size() < size) {
+            padded.add(last);
+        }
+        return padded;
+    }
+
+    /**
+     * Execution statistics of every named query, the expanded forms of its list
+     * parameters added together. Needs hibernate.generate_statistics.
+     */
+    public static List<Timing> timings(Statistics stats) {
+        Map<String, Timing> byHql = new LinkedHashMap<>();
+        List<Timing> timings = new ArrayList<>();
+        for (Map.Entry<String, String> entry : hqlByName.entrySet()) {
+            Timing timing = new Timing(entry.getKey());
+            byHql.put(normalize(entry.getValue()), timing);
+            timings.add(timing);
+        }
+        for (String query : stats.getQueries()) {
+            Timing timing = byHql.get(normalize(query));
+            if (timing != null) {
+                timing.add(stats.getQueryStatistics(query));
+            }
+        }
+        return timings;
+    }
+
+    private static String normalize(String hql) {
+        return EXPANDED_LIST.matcher(hql.trim()).replaceAll("(:$1)");
+    }
+
+    /**
+     * Counters of one named query since the statistics were last cleared.
+     */
+    public static class Timing {
+
+        private final String name;
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+        private long rows;
+        private long cacheHits;
+
+        Timing(String name) {
+            this.name = name;
+        }
+
+        void add(QueryStatistics qs) {
+            count += qs.getExecutionCount();
+            totalMillis += qs.getExecutionAvgTime() * qs.getExecutionCount();
+            maxMillis = Math.max(maxMillis, qs.getExecutionMaxTime());
+            rows += qs.getExecutionRowCount();
+            cacheHits += qs.getCacheHitCount();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getAvgMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getCacheHits() {
+            return cacheHits;
+        }
+    }
+}
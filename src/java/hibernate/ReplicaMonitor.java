@@ -0,0 +1,101 @@
+package hibernate;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.DataSource;
+
+/**
+ * Probes how far the read replica is behind the primary. The result is cached
+ * for a short interval so routing a request costs no extra round trip.
+ * A replica that cannot be probed, has replication stopped or lags more than
+ * the allowed seconds is reported unhealthy and reads go to the primary.
+ */
+public class ReplicaMonitor {
+
+    private final DataSource replica;
+    private final long maxLagSeconds;
+    private final long probeIntervalMillis;
+
+    private volatile long checkedAt;
+    private volatile boolean healthy;
+    private volatile long lagSeconds = -1;
+    private volatile String lastError;
+
+    public ReplicaMonitor(DataSource replica, long maxLagSeconds, long probeIntervalMillis) {
+        this.replica = replica;
+        this.maxLagSeconds = maxLagSeconds;
+        this.probeIntervalMillis = probeIntervalMillis;
+    }
+
+    public boolean isHealthy() {
+        if (System.currentTimeMillis() - checkedAt > probeIntervalMillis) {
+            probe();
+        }
+        return healthy;
+    }
+
+    /**
+     * Seconds behind the primary at the last probe, 0 for a standalone server,
+     * -1 if unknown.
+     */
+    public long getLagSeconds() {
+        return lagSeconds;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public long getMaxLagSeconds() {
+        return maxLagSeconds;
+    }
+
+    private synchronized void probe() {
+        if (System.currentTimeMillis() - checkedAt <= probeIntervalMillis) {
+            return; // another thread probed while we waited
+        }
+        try (Connection connection = replica.getConnection()) {
+            Long lag = readLag(connection);
+            lagSeconds = lag != null ? lag : -1;
+            healthy = lag != null && lag <= maxLagSeconds;
+            lastError = lag != null ? null : "replication is not running";
+        } catch (SQLException e) {
+            lagSeconds = -1;
+            healthy = false;
+            lastError = e.getMessage();
+        }
+        if (!healthy) {
+            System.err.println("Replica unavailable, reading from primary: "
+                    + (lastError != null ? lastError : "lag " + lagSeconds + "s"));
+        }
+        checkedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Seconds_Behind_Source from SHOW REPLICA STATUS (MySQL 8.0.22+), or
+     * Seconds_Behind_Master from SHOW SLAVE STATUS on older servers. A server
+     * that is not a replica at all, such as a second local instance used for
+     * testing, counts as up to date.
+     */
+    private Long readLag(Connection connection) throws SQLException {
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SHOW REPLICA STATUS")) {
+            return lag(rs, "Seconds_Behind_Source");
+        } catch (SQLException e) {
+            try (Statement st = connection.createStatement();
+                    ResultSet rs = st.executeQuery("SHOW SLAVE STATUS")) {
+                return lag(rs, "Seconds_Behind_Master");
+            }
+        }
+    }
+
+    private Long lag(ResultSet rs, String column) throws SQLException {
+        if (!rs.next()) {
+            return 0L;
+        }
+        long lag = rs.getLong(column);
+        return rs.wasNull() ? null : lag;
+    }
+}
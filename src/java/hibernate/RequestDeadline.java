@@ -0,0 +1,226 @@
+package hibernate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-endpoint time budgets for database work, read from
+ * request-deadlines.properties (servlet path = milliseconds, plus "default").
+ * <p>
+ * The deadline is fixed when the request starts. Connections handed out by
+ * {@link ConnectionPool} set the time left as the query timeout of every
+ * statement they prepare, so the driver cancels a statement that runs past it
+ * (Hibernate reports that as QueryTimeoutException). Once the deadline has
+ * passed, preparing a statement or checking out a connection fails at once
+ * instead of waiting for the pool. A slow search therefore gives its
+ * connection back instead of holding it until MySQL is done.
+ * <p>
+ * Building the SessionFactory (schema update, id generators, migrations) is
+ * never billed to a request: if the first request triggers it, its deadline
+ * does not apply until {@link HibernateUtil} is done.
+ */
+public class RequestDeadline {
+
+    private static final Properties deadlines = new Properties();
+    private static final boolean enabled;
+    private static final long defaultMillis;
+    private static final ConcurrentMap<String, Overrun> overruns = new ConcurrentHashMap<>();
+    // set on a thread while it builds the SessionFactory, see exemptStartup()
+    private static final ThreadLocal<Boolean> startingUp = new ThreadLocal<>();
+
+    static {
+        try (InputStream in = RequestDeadline.class.getResourceAsStream("/request-deadlines.properties")) {
+            if (in != null) {
+                deadlines.load(in);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read request-deadlines.properties: " + e.getMessage());
+        }
+        enabled = Boolean.parseBoolean(System.getProperty("phonehub.deadlines", "true"));
+        defaultMillis = Long.parseLong(deadlines.getProperty("default", "0").trim());
+    }
+
+    private RequestDeadline() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts the clock of the endpoint's deadline on a request context.
+     */
+    public static void apply(SessionContext context, String path) {
+        long millis = deadlineFor(path);
+        if (enabled && millis > 0) {
+            context.setDeadline(System.nanoTime() + millis * 1000000L, millis);
+        }
+    }
+
+    public static long deadlineFor(String path) {
+        String value = deadlines.getProperty(path);
+        return value != null ? Long.parseLong(value.trim()) : defaultMillis;
+    }
+
+    /**
+     * Records a finished request and logs it if it ran past its deadline.
+     */
+    public static void record(String path, SessionContext context) {
+        if (!context.hasDeadline() || context.getRemainingMillis() > 0) {
+            return;
+        }
+        Overrun overrun = overruns.get(path);
+        if (overrun == null) {
+            Overrun created = new Overrun(path, context.getDeadlineMillis());
+            overrun = overruns.putIfAbsent(path, created);
+            if (overrun == null) {
+                overrun = created;
+            }
+        }
+        long overMillis = -context.getRemainingMillis();
+        overrun.record(overMillis);
+        System.err.println("Deadline exceeded: " + context.getOwner() + " ran " + overMillis
+                + " ms past its " + context.getDeadlineMillis() + " ms budget");
+    }
+
+    /**
+     * Endpoints that ran past their deadline since the last reset, most often first.
+     */
+    public static List<Overrun> getOverruns() {
+        List<Overrun> list = new ArrayList<>(overruns.values());
+        Collections.sort(list, new Comparator<Overrun>() {
+            @Override
+            public int compare(Overrun a, Overrun b) {
+                return Long.compare(b.getCount(), a.getCount());
+            }
+        });
+        return list;
+    }
+
+    public static void reset() {
+        overruns.clear();
+    }
+
+    /**
+     * Suspends the deadline of the request on this thread while it builds the
+     * SessionFactory, or resumes it.
+     */
+    static void exemptStartup(boolean exempt) {
+        if (exempt) {
+            startingUp.set(Boolean.TRUE);
+        } else {
+            startingUp.remove();
+        }
+    }
+
+    /**
+     * The request on this thread with a deadline that applies, or null.
+     */
+    private static SessionContext deadlined() {
+        SessionContext context = SessionContext.get();
+        if (context == null || !context.hasDeadline() || startingUp.get() != null) {
+            return null;
+        }
+        return context;
+    }
+
+    /**
+     * Fails fast when the request on this thread is already past its deadline.
+     */
+    static void check() throws SQLTimeoutException {
+        SessionContext context = deadlined();
+        if (context != null && context.getRemainingMillis() <= 0) {
+            throw new SQLTimeoutException(context.getOwner() + " is past its "
+                    + context.getDeadlineMillis() + " ms deadline");
+        }
+    }
+
+    /**
+     * The query timeout for a statement prepared now: the time left rounded up
+     * to whole seconds, or 0 (none) outside a request with a deadline or
+     * while building the SessionFactory. Always set, the pool's statement
+     * cache hands out statements prepared for earlier requests.
+     */
+    static int queryTimeoutSeconds() throws SQLTimeoutException {
+        SessionContext context = deadlined();
+        if (context == null) {
+            return 0;
+        }
+        check();
+        return (int) ((context.getRemainingMillis() + 999) / 1000);
+    }
+
+    static Connection wrap(final Connection connection) {
+        return (Connection) Proxy.newProxyInstance(RequestDeadline.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                boolean prepares = name.equals("prepareStatement") || name.equals("prepareCall")
+                        || name.equals("createStatement");
+                int timeout = prepares ? queryTimeoutSeconds() : 0;
+                Object result;
+                try {
+                    result = method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (prepares && result instanceof Statement) {
+                    ((Statement) result).setQueryTimeout(timeout);
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Requests of one endpoint that finished past their deadline.
+     */
+    public static class Overrun {
+
+        private final String endpoint;
+        private final long deadlineMillis;
+        private long count;
+        private long maxOverMillis;
+
+        Overrun(String endpoint, long deadlineMillis) {
+            this.endpoint = endpoint;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        synchronized void record(long overMillis) {
+            count++;
+            maxOverMillis = Math.max(maxOverMillis, overMillis);
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getMaxOverMillis() {
+            return maxOverMillis;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package hibernate;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finished search responses by the canonical form of their request (see
+ * {@link CatalogIndex.Selection#canonical}), so the searches most shoppers
+ * make, a brand's page, the latest products, a popular price range, are not
+ * run again. Keeps the most recently used entries up to a number, each for a
+ * limited time.
+ * <p>
+ * Kept by {@link CatalogIndex}: a product written through it drops only the
+ * entries it may change, those it is among the matches of before or after the
+ * write and those whose facet counts or price histogram it moves in, so a
+ * price change in one brand leaves the pages of the others cached. A response
+ * computed while a write that changes it happened is not stored; take a
+ * {@link #stamp} before computing it. Writes to other products, such as the
+ * stock taken by each checkout, do not keep it out.
+ */
+public class ResultCache<V> {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry<V>> entries;
+    // recent writes, oldest first, for put() to check responses against
+    private final ArrayDeque<Write> recent = new ArrayDeque<>();
+    // when the latest write dropped from recent happened, if one was
+    private boolean forgotAny;
+    private long forgotten;
+
+    /** Writes are remembered this long, or up to this many. */
+    private static final long WRITE_LOG_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final int MAX_WRITE_LOG = 4096;
+
+    ResultCache(final int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        // in access order: the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * The response cached under a key, null if there is none or it expired.
+     */
+    public synchronized V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * When a response starts being computed; pass it to {@link #put} with the
+     * response.
+     */
+    public long stamp() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Caches a response for the selection it was computed for, unless a write
+     * that changes the selection may be missing from it: one since the stamp,
+     * or one within readLagMillis before it, the time the rows it was read
+     * from may trail the primary by (see
+     * {@link HibernateUtil#readLagMillis}).
+     */
+    public synchronized void put(String key, CatalogIndex.Selection selection, V value, long stamp,
+            long readLagMillis) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        long since = stamp - TimeUnit.MILLISECONDS.toNanos(readLagMillis);
+        if (forgotAny && forgotten - since >= 0) {
+            return;
+        }
+        Iterator<Write> it = recent.descendingIterator();
+        while (it.hasNext()) {
+            Write write = it.next();
+            if (write.at - since < 0) {
+                break;
+            }
+            if (selection.changedBy(write.before, write.after)) {
+                return;
+            }
+        }
+        entries.put(key, new Entry<>(selection, value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Drops the entries a product write may change, see
+     * {@link CatalogIndex.Selection#changedBy}.
+     */
+    synchronized void invalidate(CatalogIndex.Row before, CatalogIndex.Row after) {
+        long now = System.nanoTime();
+        recent.addLast(new Write(now, before, after));
+        while (recent.size() > MAX_WRITE_LOG || now - recent.peekFirst().at > WRITE_LOG_NANOS) {
+            forgotten = recent.removeFirst().at;
+            forgotAny = true;
+        }
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().selection.changedBy(before, after)) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    private static class Entry<V> {
+
+        private final CatalogIndex.Selection selection;
+        private final V value;
+        private final long expiresAt;
+
+        Entry(CatalogIndex.Selection selection, V value, long expiresAt) {
+            this.selection = selection;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Write {
+
+        private final long at;
+        private final CatalogIndex.Row before;
+        private final CatalogIndex.Row after;
+
+        Write(long at, CatalogIndex.Row before, CatalogIndex.Row after) {
+            this.at = at;
+            this.before = before;
+            this.after = after;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package hibernate;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.sql.DataSource;
+
+/**
+ * Versioned schema changes applied at startup, plus a check that every query in
+ * the catalog has an index starting with the columns it filters or sorts on.
+ * Applied versions are recorded in the schema_version table.
+ * <p>
+ * Each index is declared once, with the version that creates it and the
+ * queries it serves: the index migrations and the check both read the
+ * declarations, so they cannot list different indexes.
+ */
+public class SchemaMigrator {
+
+    private static final String VERSION_TABLE = "schema_version";
+
+    private final DataSource dataSource;
+    private final List<Migration> migrations = new ArrayList<>();
+    private final List<Index> indexes = new ArrayList<>();
+
+    public SchemaMigrator(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * The migrations and indexed queries of the shop.
+     */
+    public static SchemaMigrator standard(DataSource dataSource) {
+        final SchemaMigrator migrator = new SchemaMigrator(dataSource);
+
+        migrator.index(1, "idx_product_status_id", "product", false, "status_id", "id")
+                .serves("LoadHomeData/SearchProducts: active products, newest first");
+        migrator.index(1, "idx_product_price", "product", false, "price")
+                .serves("SearchProducts: price range and price sort");
+        migrator.index(1, "idx_order_items_orders", "order_items", false, "orders_id")
+                .serves("OrderServlet/ReportServlet: lines of an order");
+        migrator.index(1, "idx_order_items_product", "order_items", false, "product_id")
+                .serves("ReportServlet: sales of a product");
+        migrator.index(1, "idx_orders_created_at", "orders", false, "created_at")
+                .serves("DashboardServlet: recent orders");
+        migrator.index(1, "idx_address_user_id", "address", false, "user_id", "id")
+                .serves("LoadCheckOutData/CheckOut: latest address of a user");
+        migrator.index(3, "idx_product_status_price", "product", false, "status_id", "price")
+                .serves("SearchProducts: active products in a price range");
+        // usually there already, from the foreign key
+        migrator.index(4, "idx_orders_user_id", "orders", false, "user_id")
+                .serves("CustomerServlet: orders of a customer");
+        // unique ones in versions of their own, duplicate rows must not hold back the rest
+        migrator.index(5, "uk_cart_user_product", "cart", true, "user_id", "product_id")
+                .serves("AddToCart/CheckSessionCart: cart line of a user and product")
+                .serves("LoadCartItems/LoadCheckOutData: cart of a user");
+        migrator.index(6, "uk_user_email", "user", true, "email")
+                .serves("SignIn/SignUp/MyAccount: user by email");
+
+        migrator.addIndexes(1, "indexes for hot query predicates");
+        migrator.add(new Migration(2, "optimistic lock versions on product and cart") {
+            @Override
+            protected void apply(Connection connection) throws SQLException {
+                ensureColumn(connection, "product", "version", "BIGINT NOT NULL DEFAULT 0");
+                ensureColumn(connection, "cart", "version", "BIGINT NOT NULL DEFAULT 0");
+            }
+        });
+        migrator.addIndexes(3, "active products by price");
+        migrator.addIndexes(4, "orders of a customer");
+        migrator.add(new Migration(5, "one cart line per user and product") {
+            @Override
+            protected void apply(Connection connection) throws SQLException {
+                mergeDuplicateCartLines(connection);
+                migrator.createIndexes(connection, 5);
+            }
+        });
+        // accounts sharing an email are not merged automatically, they stay reported until fixed
+        migrator.addIndexes(6, "one account per email");
+        return migrator;
+    }
+
+    public void add(Migration migration) {
+        migrations.add(migration);
+    }
+
+    /**
+     * Declares an index, created by the migration of the given version (see
+     * {@link #addIndexes}); name the queries it serves with {@link Index#serves}.
+     */
+    public Index index(int version, String name, String table, boolean unique, String... columns) {
+        Index index = new Index(version, name, table, unique, columns);
+        indexes.add(index);
+        return index;
+    }
+
+    /**
+     * Adds the migration creating the indexes declared with its version.
+     */
+    public void addIndexes(final int version, String description) {
+        add(new Migration(version, description) {
+            @Override
+            protected void apply(Connection connection) throws SQLException {
+                createIndexes(connection, version);
+            }
+        });
+    }
+
+    /**
+     * Creates the indexes declared with a version, each on its own: one that
+     * fails is reported and the others are still created. Fails afterwards if
+     * any did, so the version is tried again on the next start.
+     */
+    void createIndexes(Connection connection, int version) throws SQLException {
+        List<String> failed = new ArrayList<>();
+        for (Index index : indexes) {
+            if (index.version != version) {
+                continue;
+            }
+            try {
+                ensureIndex(connection, index.name, index.table, index.unique, index.columns);
+            } catch (SQLException e) {
+                System.err.println("Index " + index.name + " on " + index.table + "("
+                        + String.join(", ", index.columns) + ") failed: " + e.getMessage());
+                failed.add(index.name);
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new SQLException("indexes not created: " + String.join(", ", failed));
+        }
+    }
+
+    /**
+     * Folds cart lines of the same user and product into the oldest one,
+     * adding up their quantities, so the unique index can be created.
+     */
+    static void mergeDuplicateCartLines(Connection connection) throws SQLException {
+        List<long[]> duplicates = new ArrayList<>();
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT user_id, product_id, MIN(id), SUM(qty) FROM cart"
+                        + " GROUP BY user_id, product_id HAVING COUNT(*) > 1")) {
+            while (rs.next()) {
+                duplicates.add(new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4)});
+            }
+        }
+        if (duplicates.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement keep = connection.prepareStatement("UPDATE cart SET qty = ? WHERE id = ?");
+                PreparedStatement drop = connection.prepareStatement(
+                        "DELETE FROM cart WHERE user_id = ? AND product_id = ? AND id <> ?")) {
+            for (long[] line : duplicates) {
+                keep.setLong(1, line[3]);
+                keep.setLong(2, line[2]);
+                keep.executeUpdate();
+                drop.setLong(1, line[0]);
+                drop.setLong(2, line[1]);
+                drop.setLong(3, line[2]);
+                drop.executeUpdate();
+            }
+        }
+        System.out.println("Schema migration: merged duplicate cart lines of " + duplicates.size()
+                + " user and product pairs");
+    }
+
+    /**
+     * Applies the migrations not yet recorded in schema_version, in version
+     * order. A failed migration is reported and left unrecorded so it is
+     * retried on the next start; later migrations still run.
+     */
+    public void migrate() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement st = connection.createStatement()) {
+                st.executeUpdate("CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " ("
+                        + "version INT NOT NULL PRIMARY KEY, "
+                        + "description VARCHAR(255), "
+                        + "applied_at TIMESTAMP)");
+            }
+
+            Set<Integer> applied = new TreeSet<>();
+            try (Statement st = connection.createStatement();
+                    ResultSet rs = st.executeQuery("SELECT version FROM " + VERSION_TABLE)) {
+                while (rs.next()) {
+                    applied.add(rs.getInt(1));
+                }
+            }
+
+            List<Migration> pending = new ArrayList<>(migrations);
+            Collections.sort(pending, new Comparator<Migration>() {
+                @Override
+                public int compare(Migration a, Migration b) {
+                    return Integer.compare(a.version, b.version);
+                }
+            });
+            for (Migration migration : pending) {
+                if (applied.contains(migration.version)) {
+                    continue;
+                }
+                try {
+                    migration.apply(connection);
+                    try (PreparedStatement ps = connection.prepareStatement(
+                            "INSERT INTO " + VERSION_TABLE + " (version, description, applied_at) VALUES (?, ?, ?)")) {
+                        ps.setInt(1, migration.version);
+                        ps.setString(2, migration.description);
+                        ps.setTimestamp(3, new java.sql.Timestamp(System.currentTimeMillis()));
+                        ps.executeUpdate();
+                    }
+                    System.out.println("Schema migration " + migration.version + " applied: " + migration.description);
+                } catch (SQLException e) {
+                    System.err.println("Schema migration " + migration.version + " (" + migration.description
+                            + ") failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Queries of the catalog with no index whose leading columns match those
+     * of the index declared for them.
+     */
+    public List<String> missingIndexes() throws SQLException {
+        List<String> missing = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            Map<String, List<List<String>>> indexesByTable = new LinkedHashMap<>();
+            for (Index index : indexes) {
+                List<List<String>> existing = indexesByTable.get(index.table);
+                if (existing == null) {
+                    existing = indexColumns(connection, index.table);
+                    indexesByTable.put(index.table, existing);
+                }
+                if (!covered(existing, index.columns)) {
+                    for (String query : index.queries) {
+                        missing.add(index.table + "(" + String.join(", ", index.columns) + ") for " + query);
+                    }
+                }
+            }
+        }
+        return missing;
+    }
+
+    private int queryCount() {
+        int count = 0;
+        for (Index index : indexes) {
+            count += index.queries.size();
+        }
+        return count;
+    }
+
+    /**
+     * Runs the migrations and prints the missing index report. Never throws, a
+     * schema problem should not keep the shop from starting.
+     */
+    public void migrateAndReport() {
+        try {
+            migrate();
+            List<String> missing = missingIndexes();
+            if (missing.isEmpty()) {
+                System.out.println("Index check: all " + queryCount() + " catalogued queries are covered");
+            } else {
+                System.err.println("Index check: " + missing.size() + " of " + queryCount()
+                        + " catalogued queries have no matching index:");
+                for (String line : missing) {
+                    System.err.println("  missing " + line);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Schema migration failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the index unless one already starts with the same columns, such
+     * as the one MySQL adds for a foreign key.
+     */
+    static void ensureIndex(Connection connection, String name, String table, boolean unique, String... columns)
+            throws SQLException {
+        List<List<String>> indexes = indexColumns(connection, table);
+        if (covered(indexes, columns) && !unique) {
+            return;
+        }
+        if (unique && hasUniqueIndex(connection, table, columns)) {
+            return;
+        }
+
+        // quote the names as stored, "user" is reserved in some databases
+        String quote = connection.getMetaData().getIdentifierQuoteString().trim();
+        Map<String, String> stored = columnNames(connection, table);
+        StringBuilder sql = new StringBuilder("CREATE ");
+        if (unique) {
+            sql.append("UNIQUE ");
+        }
+        sql.append("INDEX ").append(name).append(" ON ").append(quote).append(table).append(quote).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            String column = stored.containsKey(columns[i]) ? stored.get(columns[i]) : columns[i];
+            sql.append(quote).append(column).append(quote);
+        }
+        sql.append(")");
+
+        try (Statement st = connection.createStatement()) {
+            st.executeUpdate(sql.toString());
+        }
+    }
+
+    /**
+     * Adds the column unless the table already has it.
+     */
+    static void ensureColumn(Connection connection, String table, String column, String definition)
+            throws SQLException {
+        if (columnNames(connection, table).containsKey(column.toLowerCase())) {
+            return;
+        }
+        String quote = connection.getMetaData().getIdentifierQuoteString().trim();
+        try (Statement st = connection.createStatement()) {
+            st.executeUpdate("ALTER TABLE " + quote + table + quote + " ADD COLUMN "
+                    + quote + column + quote + " " + definition);
+        }
+    }
+
+    private static Map<String, String> columnNames(Connection connection, String table) throws SQLException {
+        Map<String, String> names = new LinkedHashMap<>();
+        try (ResultSet rs = connection.getMetaData().getColumns(connection.getCatalog(), null, table, null)) {
+            while (rs.next()) {
+                String column = rs.getString("COLUMN_NAME");
+                names.put(column.toLowerCase(), column);
+            }
+        }
+        return names;
+    }
+
+    private static boolean covered(List<List<String>> indexes, String[] columns) {
+        List<String> wanted = Arrays.asList(columns);
+        for (List<String> index : indexes) {
+            if (index.size() >= wanted.size() && index.subList(0, wanted.size()).equals(wanted)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasUniqueIndex(Connection connection, String table, String[] columns) throws SQLException {
+        List<List<String>> unique = readIndexes(connection, table, true);
+        return unique.contains(Arrays.asList(columns));
+    }
+
+    private static List<List<String>> indexColumns(Connection connection, String table) throws SQLException {
+        return readIndexes(connection, table, false);
+    }
+
+    private static List<List<String>> readIndexes(Connection connection, String table, boolean uniqueOnly)
+            throws SQLException {
+        DatabaseMetaData meta = connection.getMetaData();
+        Map<String, List<String>> columnsByIndex = new LinkedHashMap<>();
+        try (ResultSet rs = meta.getIndexInfo(connection.getCatalog(), null, table, uniqueOnly, true)) {
+            while (rs.next()) {
+                String index = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (index == null || column == null) {
+                    continue;
+                }
+                List<String> columns = columnsByIndex.get(index);
+                if (columns == null) {
+                    columns = new ArrayList<>();
+                    columnsByIndex.put(index, columns);
+                }
+                int position = rs.getInt("ORDINAL_POSITION");
+                while (columns.size() < position) {
+                    columns.add(null);
+                }
+                columns.set(position - 1, column.toLowerCase());
+            }
+        }
+        return new ArrayList<>(columnsByIndex.values());
+    }
+
+    /**
+     * One schema change. Versions are applied in ascending order, once.
+     */
+    public abstract static class Migration {
+
+        private final int version;
+        private final String description;
+
+        public Migration(int version, String description) {
+            this.version = version;
+            this.description = description;
+        }
+
+        protected abstract void apply(Connection connection) throws SQLException;
+    }
+
+    /**
+     * An index and the queries whose predicate it serves.
+     */
+    public static class Index {
+
+        private final int version;
+        private final String name;
+        private final String table;
+        private final boolean unique;
+        private final String[] columns;
+        private final List<String> queries = new ArrayList<>();
+
+        Index(int version, String name, String table, boolean unique, String[] columns) {
+            this.version = version;
+            this.name = name;
+            this.table = table;
+            this.unique = unique;
+            this.columns = columns;
+        }
+
+        public Index serves(String query) {
+            queries.add(query);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package hibernate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * Hibernate sessions belonging to the HTTP request served by the current thread.
+ * Opened by {@link HibernateUtil#currentSession()} and closed by
+ * {@link model.HibernateSessionFilter} when the request ends.
+ */
+public class SessionContext {
+
+    private static final ThreadLocal<SessionContext> CURRENT = new ThreadLocal<>();
+
+    private final String owner;
+    private final boolean readOnly;
+    private final boolean debug;
+    private final Map<SessionFactory, Session> sessions = new IdentityHashMap<>();
+    private final List<Allocation> allocations = new ArrayList<>();
+
+    // statements prepared while serving the request, see StatementCounter
+    private int statementCount;
+    private final Map<String, Integer> statementsBySql = new HashMap<>();
+    private int statementBudget = -1;
+    private boolean failOverBudget;
+
+    // System.nanoTime() by which the request's database work must be done, see RequestDeadline
+    private long deadlineNanos;
+    private long deadlineMillis;
+
+    private SessionContext(String owner, boolean readOnly, boolean debug) {
+        this.owner = owner;
+        this.readOnly = readOnly;
+        this.debug = debug;
+    }
+
+    /**
+     * Binds a new context to this thread.
+     *
+     * @param owner what is being served, e.g. "GET /LoadHomeData"
+     * @param readOnly open the request session read-only with manual flush
+     * @param debug record where every session was opened and report leaks
+     */
+    public static SessionContext begin(String owner, boolean readOnly, boolean debug) {
+        SessionContext context = new SessionContext(owner, readOnly, debug);
+        CURRENT.set(context);
+        return context;
+    }
+
+    public static SessionContext get() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Remembers a session opened directly from the SessionFactory so it can be
+     * closed (and reported) if the servlet forgets to.
+     */
+    static void track(Session session) {
+        SessionContext context = CURRENT.get();
+        if (context != null) {
+            StackTraceElement site = context.debug ? allocationSite(new Throwable().getStackTrace()) : null;
+            context.allocations.add(new Allocation(session, site));
+        }
+    }
+
+    /**
+     * The request's session on the given factory, one per factory so a request
+     * can read from the replica and write to the primary.
+     */
+    Session getSession(SessionFactory sessionFactory, boolean forceReadOnly) {
+        Session session = sessions.get(sessionFactory);
+        if (session == null || !session.isOpen()) {
+            session = sessionFactory.openSession();
+            if (readOnly || forceReadOnly) {
+                session.setDefaultReadOnly(true);
+                session.setFlushMode(FlushMode.MANUAL);
+            }
+            sessions.put(sessionFactory, session);
+        }
+        return session;
+    }
+
+    /**
+     * Limits the statements this request may prepare. Past the budget the next
+     * statement fails with {@link StatementBudgetExceededException} when
+     * {@code fail} is set, otherwise the overrun is only reported.
+     */
+    public void setStatementBudget(int budget, boolean fail) {
+        this.statementBudget = budget;
+        this.failOverBudget = fail;
+    }
+
+    void statementPrepared(String sql) {
+        statementCount++;
+        Integer count = statementsBySql.get(sql);
+        statementsBySql.put(sql, count == null ? 1 : count + 1);
+        if (failOverBudget && statementBudget >= 0 && statementCount > statementBudget) {
+            throw new StatementBudgetExceededException(owner + " prepared " + statementCount
+                    + " statements, budget is " + statementBudget);
+        }
+    }
+
+    /**
+     * Gives the request's statements until {@code deadlineNanos}, a
+     * System.nanoTime() value, {@code millis} after the request started.
+     */
+    public void setDeadline(long deadlineNanos, long millis) {
+        this.deadlineNanos = deadlineNanos;
+        this.deadlineMillis = millis;
+    }
+
+    public boolean hasDeadline() {
+        return deadlineMillis > 0;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Milliseconds left before the deadline, negative once it has passed.
+     */
+    public long getRemainingMillis() {
+        return (deadlineNanos - System.nanoTime()) / 1000000L;
+    }
+
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    public int getStatementBudget() {
+        return statementBudget;
+    }
+
+    /**
+     * The statement prepared most often in this request, the usual sign of an
+     * N+1 loop, or null if nothing ran.
+     */
+    public Map.Entry<String, Integer> getMostRepeatedStatement() {
+        Map.Entry<String, Integer> top = null;
+        for (Map.Entry<String, Integer> entry : statementsBySql.entrySet()) {
+            if (top == null || entry.getValue() > top.getValue()) {
+                top = entry;
+            }
+        }
+        return top;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Unbinds the context and closes every session still open.
+     *
+     * @return the number of directly opened sessions the servlet left open
+     */
+    public int end() {
+        CURRENT.remove();
+        for (Session session : sessions.values()) {
+            close(session);
+        }
+
+        int leaks = 0;
+        for (Allocation allocation : allocations) {
+            if (allocation.session.isOpen()) {
+                leaks++;
+                if (debug) {
+                    System.err.println("Session leak in " + owner + ": session opened at "
+                            + (allocation.site != null ? allocation.site : "unknown")
+                            + " was still open when the request ended");
+                }
+                close(allocation.session);
+            }
+        }
+        return leaks;
+    }
+
+    private void close(Session s) {
+        try {
+            if (s.isOpen()) {
+                Transaction tx = s.getTransaction();
+                if (tx != null && tx.isActive()) {
+                    System.err.println("Rolling back uncommitted transaction left by " + owner);
+                    tx.rollback();
+                }
+                s.close();
+            }
+        } catch (Exception e) {
+            System.err.println("Error closing session for " + owner + ": " + e.getMessage());
+        }
+    }
+
+    private static StackTraceElement allocationSite(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            String className = element.getClassName();
+            if (!className.startsWith("hibernate.") && !className.startsWith("java.")
+                    && !className.startsWith("jdk.") && !className.startsWith("sun.")
+                    && !className.startsWith("com.sun.proxy.")) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static class Allocation {
+
+        private final Session session;
+        private final StackTraceElement site;
+
+        Allocation(Session session, StackTraceElement site) {
+            this.session = session;
+            this.site = site;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package hibernate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The products most like each active product, for the carousel of a product
+ * page: the same model scores most, then the same brand, storage and color,
+ * and a price close to its own. Candidates are the products nearest in price
+ * of the same model and of the same brand, and of the whole catalog when the
+ * brand has too few. The lists are computed when the index loads and kept,
+ * so a product page only looks one up.
+ * <p>
+ * A write that changes a product's model, brand, storage, color, price or
+ * status marks the lists of its brand stale (and those that had to look
+ * beyond their brand); each is computed again when it is next looked up.
+ * Writes that only change the stock leave them as they are.
+ * <p>
+ * Kept by {@link CatalogIndex}, which updates it on product writes and guards
+ * it with its lock. Lookups under its read lock may store recomputed lists
+ * concurrently, hence the concurrent map for them.
+ */
+public class SimilarProducts {
+
+    /** Products kept per list, the most a lookup returns. */
+    public static final int MAX_SIMILAR = 6;
+    /** Products nearest in price looked at in each group. */
+    private static final int CANDIDATES = 32;
+
+    private static final double MODEL_WEIGHT = 4;
+    private static final double BRAND_WEIGHT = 2;
+    private static final double STORAGE_WEIGHT = 1;
+    private static final double COLOR_WEIGHT = 0.5;
+    /** Scored for the same price, less the further apart, nothing at double. */
+    private static final double PRICE_WEIGHT = 2;
+
+    private static final Comparator<Item> BY_PRICE = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            int c = Double.compare(a.price, b.price);
+            return c != 0 ? c : Integer.compare(a.id, b.id);
+        }
+    };
+
+    private final Map<Integer, Item> items = new HashMap<>();
+    private final TreeSet<Item> all = new TreeSet<>(BY_PRICE);
+    private final Map<Integer, TreeSet<Item>> byModel = new HashMap<>();
+    private final Map<Integer, TreeSet<Item>> byBrand = new HashMap<>();
+    // bumped by the writes a list depends on: per brand, and any write at all
+    private final Map<Integer, Long> brandWrites = new HashMap<>();
+    private long writes;
+    private final ConcurrentHashMap<Integer, Similar> lists = new ConcurrentHashMap<>();
+    // while loading, products are only collected and build() sorts them once
+    private boolean loading;
+
+    /**
+     * Adds, replaces or, if it is not active, removes a product.
+     */
+    void put(int id, int model, int brand, int storage, int color, double price, boolean active) {
+        Item item = active ? new Item(id, model, brand, storage, color, price) : null;
+        Item old = items.get(id);
+        if (old != null && item != null && old.sameAs(item)) {
+            return; // e.g. only the stock changed
+        }
+        if (old != null) {
+            remove(id);
+        }
+        if (item == null) {
+            return;
+        }
+        items.put(id, item);
+        if (loading) {
+            return;
+        }
+        all.add(item);
+        group(byModel, model).add(item);
+        group(byBrand, brand).add(item);
+        wrote(brand);
+    }
+
+    void remove(int id) {
+        Item item = items.remove(id);
+        lists.remove(id);
+        if (item == null) {
+            return;
+        }
+        all.remove(item);
+        byModel.get(item.model).remove(item);
+        byBrand.get(item.brand).remove(item);
+        wrote(item.brand);
+    }
+
+    private void wrote(int brand) {
+        Long n = brandWrites.get(brand);
+        brandWrites.put(brand, n == null ? 1 : n + 1);
+        writes++;
+    }
+
+    private static TreeSet<Item> group(Map<Integer, TreeSet<Item>> groups, int value) {
+        TreeSet<Item> group = groups.get(value);
+        if (group == null) {
+            group = new TreeSet<>(BY_PRICE);
+            groups.put(value, group);
+        }
+        return group;
+    }
+
+    void startLoading() {
+        loading = true;
+    }
+
+    /**
+     * Computes the list of every product after loading, over the groups
+     * sorted once, then fills the groups in price order.
+     */
+    void build() {
+        loading = false;
+        Item[] everything = items.values().toArray(new Item[0]);
+        Arrays.sort(everything, BY_PRICE);
+        Map<Integer, List<Item>> models = new HashMap<>();
+        Map<Integer, List<Item>> brands = new HashMap<>();
+        for (int i = 0; i < everything.length; i++) {
+            Item item = everything[i];
+            item.allAt = i;
+            item.modelAt = add(models, item.model, item);
+            item.brandAt = add(brands, item.brand, item);
+        }
+        for (Item item : everything) {
+            Top top = new Top(item);
+            nearest(models.get(item.model), item.modelAt, item, top);
+            nearest(brands.get(item.brand), item.brandAt, item, top);
+            boolean wide = top.size < MAX_SIMILAR;
+            if (wide) {
+                nearest(Arrays.asList(everything), item.allAt, item, top);
+            }
+            lists.put(item.id, top.similar(wide, brandWrites(item.brand), writes));
+        }
+        for (Item item : everything) {
+            all.add(item);
+            group(byModel, item.model).add(item);
+            group(byBrand, item.brand).add(item);
+        }
+    }
+
+    /**
+     * Appends to a group, returning the position.
+     */
+    private static int add(Map<Integer, List<Item>> groups, int value, Item item) {
+        List<Item> group = groups.get(value);
+        if (group == null) {
+            group = new ArrayList<>();
+            groups.put(value, group);
+        }
+        group.add(item);
+        return group.size() - 1;
+    }
+
+    /**
+     * The ids of the products most like a product, best first; empty if it
+     * is not an active product.
+     */
+    public List<Integer> lookup(int id, int limit) {
+        Item item = items.get(id);
+        if (item == null) {
+            return Collections.emptyList();
+        }
+        Similar similar = lists.get(id);
+        if (similar == null || !current(similar, item)) {
+            similar = compute(item);
+            lists.put(id, similar);
+        }
+        List<Integer> ids = new ArrayList<>(Math.min(limit, similar.ids.length));
+        for (int i = 0; i < similar.ids.length && i < limit; i++) {
+            ids.add(similar.ids[i]);
+        }
+        return ids;
+    }
+
+    private boolean current(Similar similar, Item item) {
+        return similar.brand == item.brand && similar.brandWrites == brandWrites(item.brand)
+                && (!similar.wide || similar.writes == writes);
+    }
+
+    private long brandWrites(int brand) {
+        Long n = brandWrites.get(brand);
+        return n == null ? 0 : n;
+    }
+
+    private Similar compute(Item item) {
+        long brandSeen = brandWrites(item.brand);
+        long seen = writes;
+        Top top = new Top(item);
+        nearest(byModel.get(item.model), item, top);
+        nearest(byBrand.get(item.brand), item, top);
+        boolean wide = top.size < MAX_SIMILAR;
+        if (wide) {
+            nearest(all, item, top);
+        }
+        return top.similar(wide, brandSeen, seen);
+    }
+
+    /**
+     * Offers the products of a group nearest in price to an item, the item
+     * itself left out.
+     */
+    private static void nearest(NavigableSet<Item> group, Item item, Top top) {
+        if (group != null) {
+            nearest(group.tailSet(item, false).iterator(), group.headSet(item, false).descendingIterator(), item, top);
+        }
+    }
+
+    /**
+     * The same over a group in a list sorted by price, the item at a position.
+     */
+    private static void nearest(final List<Item> group, final int at, Item item, Top top) {
+        Iterator<Item> below = new Iterator<Item>() {
+            private int next = at - 1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Item next() {
+                return group.get(next--);
+            }
+        };
+        nearest(group.subList(at + 1, group.size()).iterator(), below, item, top);
+    }
+
+    /**
+     * Walks out from an item's price in both directions, taking whichever of
+     * the next higher and next lower priced product is closer.
+     */
+    private static void nearest(Iterator<Item> above, Iterator<Item> below, Item item, Top top) {
+        Item up = above.hasNext() ? above.next() : null;
+        Item down = below.hasNext() ? below.next() : null;
+        for (int taken = 0; taken < CANDIDATES && (up != null || down != null); taken++) {
+            if (down == null || (up != null && up.price - item.price <= item.price - down.price)) {
+                top.offer(up);
+                up = above.hasNext() ? above.next() : null;
+            } else {
+                top.offer(down);
+                down = below.hasNext() ? below.next() : null;
+            }
+        }
+    }
+
+    private static double score(Item item, Item other) {
+        double score = 0;
+        if (item.model == other.model) {
+            score += MODEL_WEIGHT;
+        }
+        if (item.brand == other.brand) {
+            score += BRAND_WEIGHT;
+        }
+        if (item.storage == other.storage) {
+            score += STORAGE_WEIGHT;
+        }
+        if (item.color == other.color) {
+            score += COLOR_WEIGHT;
+        }
+        double higher = Math.max(item.price, other.price);
+        if (higher > 0) {
+            score += PRICE_WEIGHT * Math.max(0, 1 - Math.abs(item.price - other.price) / higher);
+        } else {
+            score += PRICE_WEIGHT;
+        }
+        return score;
+    }
+
+    public int getSize() {
+        return items.size();
+    }
+
+    /**
+     * What similarity is scored on of an active product.
+     */
+    private static class Item {
+
+        private final int id;
+        private final int model;
+        private final int brand;
+        private final int storage;
+        private final int color;
+        private final double price;
+        // positions in the sorted groups while building
+        private int allAt;
+        private int modelAt;
+        private int brandAt;
+
+        Item(int id, int model, int brand, int storage, int color, double price) {
+            this.id = id;
+            this.model = model;
+            this.brand = brand;
+            this.storage = storage;
+            this.color = color;
+            this.price = price;
+        }
+
+        boolean sameAs(Item other) {
+            return model == other.model && brand == other.brand && storage == other.storage
+                    && color == other.color && price == other.price;
+        }
+    }
+
+    /**
+     * The best scored candidates so far, best first; higher ids first among
+     * equal scores.
+     */
+    private static class Top {
+
+        private final Item item;
+        private final int[] ids = new int[MAX_SIMILAR];
+        private final double[] scores = new double[MAX_SIMILAR];
+        private int size;
+
+        Top(Item item) {
+            this.item = item;
+        }
+
+        void offer(Item other) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == other.id) {
+                    return; // offered by the model and the brand
+                }
+            }
+            double score = score(item, other);
+            int at = size;
+            while (at > 0 && (scores[at - 1] < score || (scores[at - 1] == score && ids[at - 1] < other.id))) {
+                at--;
+            }
+            if (at == MAX_SIMILAR) {
+                return;
+            }
+            int end = Math.min(size, MAX_SIMILAR - 1);
+            System.arraycopy(ids, at, ids, at + 1, end - at);
+            System.arraycopy(scores, at, scores, at + 1, end - at);
+            ids[at] = other.id;
+            scores[at] = score;
+            size = Math.min(size + 1, MAX_SIMILAR);
+        }
+
+        Similar similar(boolean wide, long brandWrites, long writes) {
+            return new Similar(Arrays.copyOf(ids, size), item.brand, brandWrites, wide, writes);
+        }
+    }
+
+    /**
+     * A computed list and the writes it saw: of its product's brand and, if
+     * it looked beyond the brand, of the whole catalog.
+     */
+    private static class Similar {
+
+        private final int[] ids;
+        private final int brand;
+        private final long brandWrites;
+        private final boolean wide;
+        private final long writes;
+
+        Similar(int[] ids, int brand, long brandWrites, boolean wide, long writes) {
+            this.ids = ids;
+            this.brand = brand;
+            this.brandWrites = brandWrites;
+            this.wide = wide;
+            this.writes = writes;
+        }
+    }
+}
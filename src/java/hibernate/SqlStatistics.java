@@ -0,0 +1,260 @@
+package hibernate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Execution count, time and rows per SQL string, measured at the JDBC layer so
+ * Criteria queries are covered too (Hibernate's own QueryStatistics only sees
+ * HQL). Connections handed out by {@link ConnectionPool} are wrapped when
+ * hibernate.generate_statistics is on.
+ * <p>
+ * Statements are counted by their normalized text: literals and IN lists of
+ * any length become "?", so a query with a varying number of ids is one
+ * entry. At most -Dphonehub.sqlStatistics.maxStatements (default 1000)
+ * distinct statements are kept, any further ones are counted together.
+ */
+public class SqlStatistics {
+
+    private static final int MAX_STATEMENTS = Integer.getInteger("phonehub.sqlStatistics.maxStatements", 1000);
+    private static final String OTHER_SQL = "(other statements, over the limit of " + MAX_STATEMENTS + ")";
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // raw SQL -> normalized, so each text is only parsed once; also bounded
+    private final ConcurrentMap<String, String> normalized = new ConcurrentHashMap<>();
+    private volatile Entry other = new Entry(OTHER_SQL);
+    private volatile long since = System.currentTimeMillis();
+
+    public Connection wrap(final Connection connection) {
+        return (Connection) Proxy.newProxyInstance(SqlStatistics.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = invokeTarget(connection, method, args);
+                String name = method.getName();
+                if (result instanceof CallableStatement && name.equals("prepareCall")) {
+                    return statement((Statement) result, CallableStatement.class, (String) args[0]);
+                } else if (result instanceof PreparedStatement && name.equals("prepareStatement")) {
+                    return statement((Statement) result, PreparedStatement.class, (String) args[0]);
+                } else if (result instanceof Statement && name.equals("createStatement")) {
+                    return statement((Statement) result, Statement.class, null);
+                }
+                return result;
+            }
+        });
+    }
+
+    private Statement statement(final Statement statement, Class<? extends Statement> type, final String preparedSql) {
+        return (Statement) Proxy.newProxyInstance(SqlStatistics.class.getClassLoader(),
+                new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (!name.startsWith("execute")) {
+                    Object result = invokeTarget(statement, method, args);
+                    if (result instanceof ResultSet) { // getResultSet, getGeneratedKeys
+                        Entry entry = name.equals("getResultSet") ? entry(preparedSql) : null;
+                        return resultSet((ResultSet) result, entry, (Statement) proxy);
+                    }
+                    return result;
+                }
+
+                String sql = args != null && args.length > 0 && args[0] instanceof String
+                        ? (String) args[0] : preparedSql;
+                Entry entry = entry(sql);
+                long start = System.nanoTime();
+                Object result;
+                try {
+                    result = invokeTarget(statement, method, args);
+                } catch (Throwable e) {
+                    if (entry != null) {
+                        entry.errors.incrementAndGet();
+                    }
+                    throw e;
+                } finally {
+                    if (entry != null) {
+                        entry.record(System.nanoTime() - start);
+                    }
+                }
+                if (result instanceof ResultSet) {
+                    return resultSet((ResultSet) result, entry, (Statement) proxy);
+                } else if (entry != null) {
+                    if (result instanceof Integer) {
+                        entry.rows.addAndGet(Math.max(0, (Integer) result));
+                    } else if (result instanceof int[]) {
+                        for (int count : (int[]) result) {
+                            entry.rows.addAndGet(Math.max(0, count));
+                        }
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Counts rows as they are read. getStatement() must return the statement
+     * proxy, Hibernate looks the result set up by its statement on release.
+     */
+    private ResultSet resultSet(final ResultSet resultSet, final Entry entry, final Statement owner) {
+        return (ResultSet) Proxy.newProxyInstance(SqlStatistics.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getStatement")) {
+                    return owner;
+                }
+                Object result = invokeTarget(resultSet, method, args);
+                if (entry != null && Boolean.TRUE.equals(result) && method.getName().equals("next")) {
+                    entry.rows.incrementAndGet();
+                }
+                return result;
+            }
+        });
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Entry entry(String rawSql) {
+        if (rawSql == null) {
+            return null;
+        }
+        String sql = normalized.get(rawSql);
+        if (sql == null) {
+            sql = normalize(rawSql);
+            if (normalized.size() < 4 * MAX_STATEMENTS) {
+                normalized.put(rawSql, sql);
+            }
+        }
+        Entry entry = entries.get(sql);
+        if (entry == null) {
+            if (entries.size() >= MAX_STATEMENTS) {
+                return other;
+            }
+            Entry created = new Entry(sql);
+            entry = entries.putIfAbsent(sql, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * The text a statement is counted under, e.g. "... where id in (?, ?, ?)"
+     * and "... where id in (5, 7)" are both "... where id in (?)".
+     */
+    static String normalize(String sql) {
+        String text = STRING_LITERAL.matcher(sql).replaceAll("?");
+        text = NUMBER_LITERAL.matcher(text).replaceAll("?");
+        return IN_LIST.matcher(text).replaceAll("in (?)");
+    }
+
+    /**
+     * Every statement seen since the last reset, most total time first.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        if (other.getCount() > 0) {
+            list.add(other);
+        }
+        Collections.sort(list, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(b.totalNanos.get(), a.totalNanos.get());
+            }
+        });
+        return list;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public void reset() {
+        entries.clear();
+        normalized.clear();
+        other = new Entry(OTHER_SQL);
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * Counters for one normalized SQL string.
+     */
+    public static class Entry {
+
+        private final String sql;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        Entry(String sql) {
+            this.sql = sql;
+        }
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getTotalMillis() {
+            return totalNanos.get() / 1000000.0;
+        }
+
+        public double getAvgMillis() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / (double) n / 1000000.0;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1000000.0;
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package hibernate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-endpoint limits on the statements one request may prepare, read from
+ * statement-budgets.properties (servlet path = budget, plus "default"), and the
+ * worst offenders seen since the last reset.
+ * <p>
+ * The mode comes from -Dphonehub.statementBudget.mode or the "mode" key:
+ * off, warn (log requests over budget) or fail (the statement past the budget
+ * throws, for test runs).
+ */
+public class StatementBudget {
+
+    public static final String OFF = "off";
+    public static final String WARN = "warn";
+    public static final String FAIL = "fail";
+
+    /** A statement prepared this often in one request is reported as a likely N+1. */
+    private static final int REPEAT_THRESHOLD = 3;
+
+    private static final Properties budgets = new Properties();
+    private static final String mode;
+    private static final int defaultBudget;
+    private static final ConcurrentMap<String, Offender> offenders = new ConcurrentHashMap<>();
+
+    static {
+        try (InputStream in = StatementBudget.class.getResourceAsStream("/statement-budgets.properties")) {
+            if (in != null) {
+                budgets.load(in);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read statement-budgets.properties: " + e.getMessage());
+        }
+        mode = System.getProperty("phonehub.statementBudget.mode", budgets.getProperty("mode", WARN)).trim();
+        defaultBudget = Integer.parseInt(budgets.getProperty("default", "25").trim());
+    }
+
+    private StatementBudget() {
+    }
+
+    public static String getMode() {
+        return mode;
+    }
+
+    /**
+     * Applies the budget of the endpoint to a request context.
+     */
+    public static void apply(SessionContext context, String path) {
+        if (!OFF.equals(mode)) {
+            context.setStatementBudget(budgetFor(path), FAIL.equals(mode));
+        }
+    }
+
+    public static int budgetFor(String path) {
+        String value = budgets.getProperty(path);
+        return value != null ? Integer.parseInt(value.trim()) : defaultBudget;
+    }
+
+    /**
+     * Records a finished request and logs it if it went over budget.
+     */
+    public static void record(String path, SessionContext context) {
+        if (OFF.equals(mode) || context.getStatementCount() == 0) {
+            return;
+        }
+        int count = context.getStatementCount();
+        int budget = context.getStatementBudget();
+        Map.Entry<String, Integer> repeated = context.getMostRepeatedStatement();
+
+        Offender offender = offenders.get(path);
+        if (offender == null) {
+            Offender created = new Offender(path, budget);
+            offender = offenders.putIfAbsent(path, created);
+            if (offender == null) {
+                offender = created;
+            }
+        }
+        offender.record(count, budget, repeated);
+
+        if (budget >= 0 && count > budget) {
+            StringBuilder message = new StringBuilder("Statement budget exceeded: ")
+                    .append(context.getOwner()).append(" prepared ").append(count)
+                    .append(" statements, budget ").append(budget);
+            if (repeated != null && repeated.getValue() >= REPEAT_THRESHOLD) {
+                message.append("; likely N+1, ran ").append(repeated.getValue()).append("x: ")
+                        .append(repeated.getKey());
+            }
+            System.err.println(message);
+        }
+    }
+
+    /**
+     * Endpoints by the most statements a single request prepared.
+     */
+    public static List<Offender> getWorstOffenders(int limit) {
+        List<Offender> list = new ArrayList<>(offenders.values());
+        Collections.sort(list, new Comparator<Offender>() {
+            @Override
+            public int compare(Offender a, Offender b) {
+                return Integer.compare(b.maxStatements, a.maxStatements);
+            }
+        });
+        return list.size() > limit ? list.subList(0, limit) : list;
+    }
+
+    public static void reset() {
+        offenders.clear();
+    }
+
+    /**
+     * Statement counts of one endpoint.
+     */
+    public static class Offender {
+
+        private final String endpoint;
+        private int budget;
+        private long requests;
+        private long totalStatements;
+        private int maxStatements;
+        private long overBudget;
+        private String mostRepeatedSql;
+        private int mostRepeatedCount;
+
+        Offender(String endpoint, int budget) {
+            this.endpoint = endpoint;
+            this.budget = budget;
+        }
+
+        synchronized void record(int count, int budget, Map.Entry<String, Integer> repeated) {
+            this.budget = budget;
+            requests++;
+            totalStatements += count;
+            if (budget >= 0 && count > budget) {
+                overBudget++;
+            }
+            if (count > maxStatements) {
+                maxStatements = count;
+            }
+            if (repeated != null && repeated.getValue() > mostRepeatedCount) {
+                mostRepeatedSql = repeated.getKey();
+                mostRepeatedCount = repeated.getValue();
+            }
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public synchronized int getBudget() {
+            return budget;
+        }
+
+        public synchronized long getRequests() {
+            return requests;
+        }
+
+        public synchronized double getAvgStatements() {
+            return requests == 0 ? 0 : totalStatements / (double) requests;
+        }
+
+        public synchronized int getMaxStatements() {
+            return maxStatements;
+        }
+
+        public synchronized long getOverBudget() {
+            return overBudget;
+        }
+
+        public synchronized String getMostRepeatedSql() {
+            return mostRepeatedSql;
+        }
+
+        public synchronized int getMostRepeatedCount() {
+            return mostRepeatedCount;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package hibernate;
+
+import org.hibernate.HibernateException;
+
+/**
+ * Thrown in fail mode when a request prepares more statements than its budget
+ * in statement-budgets.properties allows.
+ */
+public class StatementBudgetExceededException extends HibernateException {
+
+    public StatementBudgetExceededException(String message) {
+        super(message);
+    }
+}
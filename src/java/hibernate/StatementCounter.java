@@ -0,0 +1,18 @@
+package hibernate;
+
+import org.hibernate.EmptyInterceptor;
+
+/**
+ * Counts the statements Hibernate prepares against the request being served.
+ */
+public class StatementCounter extends EmptyInterceptor {
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        SessionContext context = SessionContext.get();
+        if (context != null) {
+            context.statementPrepared(sql);
+        }
+        return sql;
+    }
+}
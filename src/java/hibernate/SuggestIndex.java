@@ -0,0 +1,442 @@
+package hibernate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typeahead suggestions: the product titles, model names and brand names of
+ * active products, ranked by popularity (the products carrying the name, each
+ * counting one plus the units it sold). The names are kept in a compressed
+ * trie, a radix tree whose edges hold whole runs of characters, under the
+ * normalized text from each word on, so "s23" finds "Samsung Galaxy S23". Every
+ * node keeps its ten most popular suggestions, so a lookup only walks the typed
+ * prefix and never sorts.
+ * <p>
+ * Kept by {@link CatalogIndex}, which updates it on product writes and guards
+ * it with its lock; not thread-safe on its own.
+ */
+public class SuggestIndex {
+
+    /** Suggestions kept per trie node, the most a lookup returns. */
+    public static final int MAX_SUGGESTIONS = 10;
+
+    private static final Comparator<Suggestion> MOST_POPULAR = new Comparator<Suggestion>() {
+        @Override
+        public int compare(Suggestion a, Suggestion b) {
+            int c = Long.compare(b.popularity, a.popularity);
+            if (c == 0) {
+                c = a.kind.compareTo(b.kind);
+            }
+            return c != 0 ? c : a.text.compareToIgnoreCase(b.text);
+        }
+    };
+
+    private final Node root = new Node("");
+    private final Map<String, Suggestion> suggestions = new HashMap<>();
+    private final Map<Integer, Listing> products = new HashMap<>();
+    private final Map<Integer, Integer> sold = new HashMap<>();
+    // while loading, tops are computed once at the end by build()
+    private boolean loading;
+
+    /**
+     * What a suggestion names; brands rank before models and titles of equal
+     * popularity.
+     */
+    public enum Kind {
+        BRAND, MODEL, PRODUCT
+    }
+
+    void startLoading() {
+        loading = true;
+    }
+
+    /**
+     * Computes every node's top suggestions after loading.
+     */
+    void build() {
+        loading = false;
+        rank(root);
+    }
+
+    void setSold(int productId, int units) {
+        sold.put(productId, units);
+    }
+
+    /**
+     * Adds or replaces what a product contributes: its title, model and brand,
+     * if it is active. The model and brand ids link a suggestion to a filter.
+     */
+    void put(int productId, String title, int modelId, String model, int brandId, String brand, boolean active) {
+        String names = TextIndex.normalize(title) + "|" + modelId + ":" + TextIndex.normalize(model)
+                + "|" + brandId + ":" + TextIndex.normalize(brand);
+        Listing old = products.get(productId);
+        if (old != null && active && old.names.equals(names)) {
+            return; // e.g. only the stock changed
+        }
+        remove(productId);
+        if (!active) {
+            return;
+        }
+        Integer units = sold.get(productId);
+        Listing listing = new Listing(1 + (units == null ? 0 : units), names);
+        listing.add(suggestion(Kind.PRODUCT, 0, title), this);
+        listing.add(suggestion(Kind.MODEL, modelId, model), this);
+        listing.add(suggestion(Kind.BRAND, brandId, brand), this);
+        products.put(productId, listing);
+    }
+
+    void remove(int productId) {
+        Listing listing = products.remove(productId);
+        if (listing != null) {
+            for (Suggestion suggestion : listing.suggestions) {
+                add(suggestion, -listing.weight);
+            }
+        }
+    }
+
+    private Suggestion suggestion(Kind kind, int id, String text) {
+        String key = TextIndex.normalize(text);
+        if (key.isEmpty()) {
+            return null;
+        }
+        String name = kind + ":" + key;
+        Suggestion suggestion = suggestions.get(name);
+        if (suggestion == null) {
+            suggestion = new Suggestion(kind, id, text.trim(), key);
+            suggestions.put(name, suggestion);
+        }
+        return suggestion;
+    }
+
+    /**
+     * Changes a suggestion's popularity. It enters the trie with its first
+     * product and leaves with its last.
+     */
+    private void add(Suggestion suggestion, int weight) {
+        boolean added = suggestion.popularity == 0;
+        suggestion.popularity += weight;
+        boolean removed = suggestion.popularity <= 0;
+        if (removed) {
+            suggestions.remove(suggestion.kind + ":" + suggestion.key);
+        }
+        for (String key : suffixes(suggestion.key)) {
+            List<Node> path = new ArrayList<>();
+            if (added) {
+                insert(key, suggestion, path);
+            } else {
+                find(key, path);
+                if (removed && !path.isEmpty()) {
+                    path.get(path.size() - 1).remove(suggestion);
+                }
+            }
+            if (!loading) {
+                for (int i = path.size() - 1; i >= 0; i--) {
+                    path.get(i).top = best(path.get(i));
+                }
+            }
+            if (removed) {
+                prune(path);
+            }
+        }
+    }
+
+    /**
+     * The text from each word on: "galaxy s23" is found by "gal" and "s2".
+     */
+    private static List<String> suffixes(String key) {
+        List<String> suffixes = new ArrayList<>();
+        suffixes.add(key);
+        for (int i = key.indexOf(' '); i >= 0; i = key.indexOf(' ', i + 1)) {
+            suffixes.add(key.substring(i + 1));
+        }
+        return suffixes;
+    }
+
+    /**
+     * The most popular suggestions starting with the text at a word, best
+     * first.
+     */
+    public List<Suggestion> lookup(String text, int limit) {
+        String prefix = TextIndex.normalize(text);
+        if (prefix.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Node node = root;
+        int matched = 0;
+        while (matched < prefix.length()) {
+            Node child = node.child(prefix.charAt(matched));
+            if (child == null) {
+                return Collections.emptyList();
+            }
+            int common = common(child.label, prefix, matched);
+            if (common < child.label.length() && matched + common < prefix.length()) {
+                return Collections.emptyList(); // the text leaves the edge
+            }
+            matched += common;
+            node = child;
+        }
+        Suggestion[] top = node.top;
+        return Collections.unmodifiableList(Arrays.asList(top).subList(0, Math.min(limit, top.length)));
+    }
+
+    private static int common(String label, String key, int from) {
+        int n = 0;
+        while (n < label.length() && from + n < key.length() && label.charAt(n) == key.charAt(from + n)) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Adds a suggestion under a key, splitting an edge where the key leaves
+     * it; the nodes passed on the way end up in the path.
+     */
+    private void insert(String key, Suggestion suggestion, List<Node> path) {
+        Node node = root;
+        int matched = 0;
+        path.add(node);
+        while (matched < key.length()) {
+            Node child = node.child(key.charAt(matched));
+            if (child == null) {
+                child = new Node(key.substring(matched));
+                node.addChild(child);
+                matched = key.length();
+            } else {
+                int common = common(child.label, key, matched);
+                if (common < child.label.length()) {
+                    child = node.split(child, common);
+                }
+                matched += common;
+            }
+            node = child;
+            path.add(node);
+        }
+        node.addTerminal(suggestion);
+    }
+
+    private void find(String key, List<Node> path) {
+        Node node = root;
+        int matched = 0;
+        path.add(node);
+        while (matched < key.length()) {
+            Node child = node.child(key.charAt(matched));
+            if (child == null || common(child.label, key, matched) < child.label.length()) {
+                path.clear();
+                return;
+            }
+            matched += child.label.length();
+            node = child;
+            path.add(node);
+        }
+    }
+
+    /**
+     * Drops the nodes a removed key left empty, deepest first.
+     */
+    private void prune(List<Node> path) {
+        for (int i = path.size() - 1; i > 0; i--) {
+            Node node = path.get(i);
+            if (node.terminals.length > 0 || node.children.length > 0) {
+                return;
+            }
+            path.get(i - 1).removeChild(node);
+        }
+    }
+
+    private void rank(Node node) {
+        for (Node child : node.children) {
+            rank(child);
+        }
+        node.top = best(node);
+    }
+
+    /**
+     * The best suggestions of a node's own and its children's, each once.
+     */
+    private static Suggestion[] best(Node node) {
+        Map<Suggestion, Boolean> seen = new IdentityHashMap<>();
+        List<Suggestion> candidates = new ArrayList<>();
+        for (Suggestion suggestion : node.terminals) {
+            if (seen.put(suggestion, Boolean.TRUE) == null) {
+                candidates.add(suggestion);
+            }
+        }
+        for (Node child : node.children) {
+            for (Suggestion suggestion : child.top) {
+                if (seen.put(suggestion, Boolean.TRUE) == null) {
+                    candidates.add(suggestion);
+                }
+            }
+        }
+        Collections.sort(candidates, MOST_POPULAR);
+        return candidates.subList(0, Math.min(MAX_SUGGESTIONS, candidates.size())).toArray(new Suggestion[0]);
+    }
+
+    public int getSize() {
+        return suggestions.size();
+    }
+
+    /**
+     * A name to suggest.
+     */
+    public static class Suggestion {
+
+        private final Kind kind;
+        private final int id;
+        private final String text;
+        private final String key;
+        private long popularity;
+
+        Suggestion(Kind kind, int id, String text, String key) {
+            this.kind = kind;
+            this.id = id;
+            this.text = text;
+            this.key = key;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * The model or brand id, 0 for a product title.
+         */
+        public int getId() {
+            return id;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public long getPopularity() {
+            return popularity;
+        }
+    }
+
+    /**
+     * The names a product added, to take them back.
+     */
+    private static class Listing {
+
+        private final int weight;
+        private final String names;
+        private final List<Suggestion> suggestions = new ArrayList<>(3);
+
+        Listing(int weight, String names) {
+            this.weight = weight;
+            this.names = names;
+        }
+
+        void add(Suggestion suggestion, SuggestIndex index) {
+            if (suggestion != null) {
+                suggestions.add(suggestion);
+                index.add(suggestion, weight);
+            }
+        }
+    }
+
+    /**
+     * A trie node: the characters of the edge leading to it, children sorted
+     * by their first character, the suggestions whose key ends here and the
+     * best ones below.
+     */
+    private static class Node {
+
+        private String label;
+        private Node[] children = new Node[0];
+        private Suggestion[] terminals = new Suggestion[0];
+        private Suggestion[] top = new Suggestion[0];
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        Node child(char first) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char c = children[mid].label.charAt(0);
+                if (c < first) {
+                    low = mid + 1;
+                } else if (c > first) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        void addChild(Node child) {
+            char first = child.label.charAt(0);
+            int at = 0;
+            while (at < children.length && children[at].label.charAt(0) < first) {
+                at++;
+            }
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, at);
+            grown[at] = child;
+            System.arraycopy(children, at, grown, at + 1, children.length - at);
+            children = grown;
+        }
+
+        void removeChild(Node child) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == child) {
+                    Node[] shrunk = new Node[children.length - 1];
+                    System.arraycopy(children, 0, shrunk, 0, i);
+                    System.arraycopy(children, i + 1, shrunk, i, children.length - i - 1);
+                    children = shrunk;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Puts a node for the first characters of a child's edge between
+         * this node and the child.
+         */
+        Node split(Node child, int at) {
+            Node middle = new Node(child.label.substring(0, at));
+            child.label = child.label.substring(at);
+            middle.children = new Node[]{child};
+            middle.top = child.top;
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == child) {
+                    children[i] = middle;
+                }
+            }
+            return middle;
+        }
+
+        void addTerminal(Suggestion suggestion) {
+            for (Suggestion terminal : terminals) {
+                if (terminal == suggestion) {
+                    return;
+                }
+            }
+            terminals = Arrays.copyOf(terminals, terminals.length + 1);
+            terminals[terminals.length - 1] = suggestion;
+        }
+
+        void remove(Suggestion suggestion) {
+            for (int i = 0; i < terminals.length; i++) {
+                if (terminals[i] == suggestion) {
+                    Suggestion[] shrunk = new Suggestion[terminals.length - 1];
+                    System.arraycopy(terminals, 0, shrunk, 0, i);
+                    System.arraycopy(terminals, i + 1, shrunk, i, terminals.length - i - 1);
+                    terminals = shrunk;
+                    return;
+                }
+            }
+        }
+    }
+}
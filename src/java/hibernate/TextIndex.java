@@ -0,0 +1,643 @@
+package hibernate;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index over the words of every product: title, model name, brand
+ * name, color, storage and description. Each word points at the products that
+ * contain it (a posting list in id order, with how often). A search finds the
+ * products containing every word of the query, a word also matching the longer
+ * words it starts ("gal" finds "galaxy"), and ranks them by BM25: words that
+ * are rare in the catalog and frequent in a product weigh more, long
+ * descriptions weigh less. Title, model and brand words count more than
+ * description words (BM25F field weights).
+ * <p>
+ * A word matching nothing is taken as a typo and matched against the title,
+ * model, brand, color and storage words within a small edit distance
+ * ("samsng", "iphnoe"). The candidates come from an index of each word's
+ * letter pairs: a word within k edits shares all but 3k of them, so it is
+ * among the words having one of the 3k + 1 rarest, and only those are
+ * compared letter by letter.
+ * <p>
+ * Kept by {@link CatalogIndex}, which updates it on product writes and guards
+ * it with its lock; not thread-safe on its own.
+ */
+public class TextIndex {
+
+    static final int TITLE_WEIGHT = 3;
+    static final int NAME_WEIGHT = 2;
+    static final int ATTRIBUTE_WEIGHT = 1;
+    static final int DESCRIPTION_WEIGHT = 1;
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    /**
+     * Shorter query words only match whole words, unless they are no whole
+     * word: a single letter typed then matches the words it starts.
+     */
+    private static final int MIN_PREFIX = 2;
+    /** Words a prefix may expand to, the ones in most products kept. */
+    private static final int MAX_EXPANSIONS = 64;
+    /** A word matched only as a prefix scores this much of a whole-word match. */
+    private static final double PREFIX_WEIGHT = 0.5;
+    /** Shorter words are not corrected, one edit in them changes too much. */
+    private static final int MIN_FUZZY = 4;
+    /** Words this long may be two edits away, shorter ones one. */
+    private static final int TWO_EDITS = 8;
+    /** A corrected word scores this much of a whole-word match. */
+    private static final double FUZZY_WEIGHT = 0.4;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final Map<Integer, Document> documents = new HashMap<>();
+    // the words of the fields, not descriptions, with the products having them
+    private final Map<String, Integer> vocabulary = new HashMap<>();
+    // letter pair (numbered by occurrence) -> the vocabulary words containing it
+    private final Map<String, Set<String>> pairs = new HashMap<>();
+    private long totalLength;
+
+    /**
+     * The words of a text: accents removed, lower case, split at anything
+     * that is not a letter or digit.
+     */
+    public static List<String> tokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String plain = ascii(text) ? text
+                : MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= plain.length(); i++) {
+            boolean word = i < plain.length() && Character.isLetterOrDigit(plain.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(plain.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * The words of a text joined by single spaces, e.g. "Galaxy  S23!" is
+     * "galaxy s23".
+     */
+    public static String normalize(String text) {
+        return join(tokens(text));
+    }
+
+    private static boolean ascii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds or replaces a product. A null description keeps the words of the
+     * one indexed before, for products written without loading it.
+     */
+    void put(int id, String title, String model, String brand, String color, String storage, String description) {
+        Document old = documents.get(id);
+        Map<String, Integer> fields = new LinkedHashMap<>();
+        count(fields, title, TITLE_WEIGHT);
+        count(fields, model, NAME_WEIGHT);
+        count(fields, brand, NAME_WEIGHT);
+        count(fields, color, ATTRIBUTE_WEIGHT);
+        count(fields, storage, ATTRIBUTE_WEIGHT);
+        Terms described;
+        if (description != null) {
+            Map<String, Integer> words = new LinkedHashMap<>();
+            count(words, description, DESCRIPTION_WEIGHT);
+            described = new Terms(words);
+        } else {
+            described = old != null ? old.description : new Terms(Collections.<String, Integer>emptyMap());
+        }
+        if (old != null) {
+            remove(id);
+        }
+        Document document = new Document(new Terms(fields), described);
+        documents.put(id, document);
+        totalLength += document.length;
+        for (String word : document.fields.words) {
+            Integer n = vocabulary.get(word);
+            vocabulary.put(word, n == null ? 1 : n + 1);
+            if (n == null) {
+                for (String pair : pairs(word)) {
+                    Set<String> words = pairs.get(pair);
+                    if (words == null) {
+                        words = new HashSet<>();
+                        pairs.put(pair, words);
+                    }
+                    words.add(word);
+                }
+            }
+        }
+        for (Map.Entry<String, Integer> term : document.frequencies().entrySet()) {
+            Postings postings = terms.get(term.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(term.getKey(), postings);
+            }
+            postings.add(id, term.getValue(), document.length);
+        }
+    }
+
+    void remove(int id) {
+        Document document = documents.remove(id);
+        if (document == null) {
+            return;
+        }
+        totalLength -= document.length;
+        for (String word : document.fields.words) {
+            int n = vocabulary.get(word);
+            if (n > 1) {
+                vocabulary.put(word, n - 1);
+                continue;
+            }
+            vocabulary.remove(word);
+            for (String pair : pairs(word)) {
+                Set<String> words = pairs.get(pair);
+                words.remove(word);
+                if (words.isEmpty()) {
+                    pairs.remove(pair);
+                }
+            }
+        }
+        for (String term : document.frequencies().keySet()) {
+            Postings postings = terms.get(term);
+            if (postings != null && postings.remove(id) && postings.size() == 0) {
+                terms.remove(term);
+            }
+        }
+    }
+
+    private static void count(Map<String, Integer> counts, String text, int weight) {
+        for (String token : tokens(text)) {
+            Integer n = counts.get(token);
+            counts.put(token, n == null ? weight : n + weight);
+        }
+    }
+
+    /**
+     * Products containing every word of the query, with their BM25 score;
+     * empty when a word matches nothing even corrected or the query has no
+     * words. When a word was corrected the hits carry the corrected query,
+     * when a prefix had more words than MAX_EXPANSIONS they are truncated.
+     */
+    public Hits search(String query) {
+        List<String> words = tokens(query);
+        if (words.isEmpty() || documents.isEmpty()) {
+            return Hits.NONE;
+        }
+        List<Hits> perWord = new ArrayList<>(words.size());
+        List<String> corrected = new ArrayList<>(words.size());
+        boolean correction = false;
+        boolean truncated = false;
+        for (String word : new LinkedHashSet<>(words)) {
+            Hits hits = score(word);
+            truncated |= hits.isTruncated();
+            String matched = word;
+            if (hits.size() == 0) {
+                List<String> corrections = corrections(word);
+                if (corrections.isEmpty()) {
+                    return Hits.NONE;
+                }
+                hits = score(corrections, FUZZY_WEIGHT);
+                matched = corrections.get(0);
+                correction = true;
+            }
+            perWord.add(hits);
+            corrected.add(matched);
+        }
+        // every product must match all words: intersect, smallest first
+        Collections.sort(perWord, new Comparator<Hits>() {
+            @Override
+            public int compare(Hits a, Hits b) {
+                return Integer.compare(a.size(), b.size());
+            }
+        });
+        Hits hits = perWord.get(0);
+        for (int i = 1; i < perWord.size() && hits.size() > 0; i++) {
+            hits = hits.and(perWord.get(i));
+        }
+        return new Hits(hits.ids, hits.scores, correction ? join(corrected) : null, truncated);
+    }
+
+    private static String join(List<String> words) {
+        StringBuilder text = new StringBuilder();
+        for (String word : words) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(word);
+        }
+        return text.toString();
+    }
+
+    /**
+     * The best score of each product for one query word over the word itself
+     * and the words it is a prefix of; a word shorter than MIN_PREFIX is only
+     * expanded when it matches no whole word. A prefix of more words than
+     * MAX_EXPANSIONS keeps those in most products, and the hits are marked
+     * truncated: the rarer words' products are missing.
+     */
+    private Hits score(String word) {
+        double averageLength = (double) totalLength / documents.size();
+        List<Hits> lists = new ArrayList<>();
+        Postings exact = terms.get(word);
+        if (exact != null) {
+            lists.add(score(exact, averageLength, 1));
+        }
+        boolean truncated = false;
+        if (word.length() >= MIN_PREFIX || exact == null) {
+            List<Postings> expansions = new ArrayList<>(prefixed(word).values());
+            expansions.remove(exact);
+            if (expansions.size() > MAX_EXPANSIONS) {
+                Collections.sort(expansions, new Comparator<Postings>() {
+                    @Override
+                    public int compare(Postings a, Postings b) {
+                        return Integer.compare(b.size(), a.size());
+                    }
+                });
+                expansions = expansions.subList(0, MAX_EXPANSIONS);
+                truncated = true;
+            }
+            for (Postings postings : expansions) {
+                lists.add(score(postings, averageLength, PREFIX_WEIGHT));
+            }
+        }
+        Hits hits = lists.isEmpty() ? Hits.NONE : lists.size() == 1 ? lists.get(0) : Hits.best(lists);
+        return truncated ? new Hits(hits.ids, hits.scores, null, true) : hits;
+    }
+
+    /**
+     * The best score of each product over the corrections of a word.
+     */
+    private Hits score(List<String> corrections, double weight) {
+        double averageLength = (double) totalLength / documents.size();
+        List<Hits> lists = new ArrayList<>(corrections.size());
+        for (String correction : corrections) {
+            lists.add(score(terms.get(correction), averageLength, weight));
+        }
+        return lists.size() == 1 ? lists.get(0) : Hits.best(lists);
+    }
+
+    /**
+     * The title, model, brand, color and storage words fewest edits away from
+     * a word (an edit inserting, deleting or changing a letter or swapping two
+     * next to each other), the one in most products first; empty for short
+     * words or none within reach.
+     */
+    List<String> corrections(String word) {
+        if (word.length() < MIN_FUZZY) {
+            return Collections.emptyList();
+        }
+        int edits = word.length() < TWO_EDITS ? 1 : 2;
+        // each edit changes at most three pairs, so a match shares all but 3 * edits
+        // of them and with it one of the 3 * edits + 1 rarest: only those are read
+        List<Set<String>> lists = new ArrayList<>();
+        for (String pair : pairs(word)) {
+            Set<String> words = pairs.get(pair);
+            lists.add(words != null ? words : Collections.<String>emptySet());
+        }
+        Collections.sort(lists, new Comparator<Set<String>>() {
+            @Override
+            public int compare(Set<String> a, Set<String> b) {
+                return Integer.compare(a.size(), b.size());
+            }
+        });
+        Set<String> candidates = new HashSet<>();
+        for (Set<String> words : lists.subList(0, Math.min(lists.size(), 3 * edits + 1))) {
+            candidates.addAll(words);
+        }
+        List<String> best = new ArrayList<>();
+        int fewest = edits + 1;
+        for (String candidate : candidates) {
+            if (Math.abs(candidate.length() - word.length()) > edits) {
+                continue;
+            }
+            int distance = distance(word, candidate, Math.min(edits, fewest));
+            if (distance < fewest) {
+                fewest = distance;
+                best.clear();
+            }
+            if (distance == fewest && distance <= edits) {
+                best.add(candidate);
+            }
+        }
+        Collections.sort(best, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int c = Integer.compare(vocabulary.get(b), vocabulary.get(a));
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+        return best;
+    }
+
+    /**
+     * The letter pairs of a word with a mark before and after it, each
+     * numbered by how often it occurred before ("ab1"), so words sharing n
+     * pairs counted with repeats also share n of these.
+     */
+    private static List<String> pairs(String word) {
+        String marked = "^" + word + "$";
+        List<String> pairs = new ArrayList<>(marked.length() - 1);
+        Map<String, Integer> seen = new HashMap<>();
+        for (int i = 0; i + 1 < marked.length(); i++) {
+            String pair = marked.substring(i, i + 2);
+            Integer n = seen.get(pair);
+            seen.put(pair, n == null ? 1 : n + 1);
+            pairs.add(n == null ? pair : pair + n);
+        }
+        return pairs;
+    }
+
+    /**
+     * The edits from one word to the other, counting a swap of neighbours as
+     * one (optimal string alignment); limit + 1 as soon as it must exceed the
+     * limit.
+     */
+    static int distance(String a, String b, int limit) {
+        int[] before = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int lowest = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d = Math.min(d, before[j - 2] + 1);
+                }
+                current[j] = d;
+                lowest = Math.min(lowest, d);
+            }
+            if (lowest > limit) {
+                return limit + 1;
+            }
+            int[] oldest = before;
+            before = previous;
+            previous = current;
+            current = oldest;
+        }
+        return Math.min(previous[b.length()], limit + 1);
+    }
+
+    private Hits score(Postings postings, double averageLength, double weight) {
+        int n = documents.size();
+        double idf = Math.log(1 + (n - postings.size() + 0.5) / (postings.size() + 0.5));
+        double[] scores = new double[postings.size()];
+        for (int i = 0; i < postings.size(); i++) {
+            int tf = postings.frequencies[i];
+            double norm = K1 * (1 - B + B * postings.lengths[i] / averageLength);
+            scores[i] = weight * idf * tf * (K1 + 1) / (tf + norm);
+        }
+        return new Hits(Arrays.copyOf(postings.ids, postings.size()), scores);
+    }
+
+    NavigableMap<String, Postings> prefixed(String prefix) {
+        return terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    public int getTermCount() {
+        return terms.size();
+    }
+
+    /**
+     * Product ids in ascending order with their scores.
+     */
+    public static class Hits {
+
+        static final Hits NONE = new Hits(new int[0], new double[0]);
+
+        private final int[] ids;
+        private final double[] scores;
+        private final String correction;
+        private final boolean truncated;
+
+        Hits(int[] ids, double[] scores) {
+            this(ids, scores, null, false);
+        }
+
+        private Hits(int[] ids, double[] scores, String correction, boolean truncated) {
+            this.ids = ids;
+            this.scores = scores;
+            this.correction = correction;
+            this.truncated = truncated;
+        }
+
+        /**
+         * The query with its misspelt words corrected, null if none was.
+         */
+        public String getCorrection() {
+            return correction;
+        }
+
+        /**
+         * Whether a query word was a prefix of too many words to match all of
+         * them, so products with its rarer completions are missing.
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public int id(int i) {
+            return ids[i];
+        }
+
+        public double score(int i) {
+            return scores[i];
+        }
+
+        /**
+         * The score of a product, 0 if it is not a hit.
+         */
+        public double scoreOf(int id) {
+            int at = Arrays.binarySearch(ids, id);
+            return at >= 0 ? scores[at] : 0;
+        }
+
+        /**
+         * The products in both, scores added.
+         */
+        Hits and(Hits other) {
+            int[] both = new int[Math.min(size(), other.size())];
+            double[] sums = new double[both.length];
+            int n = 0;
+            for (int i = 0, j = 0; i < ids.length && j < other.ids.length;) {
+                if (ids[i] < other.ids[j]) {
+                    i++;
+                } else if (ids[i] > other.ids[j]) {
+                    j++;
+                } else {
+                    both[n] = ids[i];
+                    sums[n++] = scores[i++] + other.scores[j++];
+                }
+            }
+            return new Hits(Arrays.copyOf(both, n), Arrays.copyOf(sums, n));
+        }
+
+        /**
+         * The products in any of the lists with their best score.
+         */
+        static Hits best(List<Hits> lists) {
+            int total = 0;
+            for (Hits hits : lists) {
+                total += hits.size();
+            }
+            // id in the high half, position in the low half: sorting orders by id
+            long[] keys = new long[total];
+            double[] all = new double[total];
+            int k = 0;
+            for (Hits hits : lists) {
+                for (int i = 0; i < hits.size(); i++) {
+                    keys[k] = ((long) hits.ids[i] << 32) | k;
+                    all[k++] = hits.scores[i];
+                }
+            }
+            Arrays.sort(keys);
+            int[] ids = new int[total];
+            double[] scores = new double[total];
+            int n = -1;
+            for (long key : keys) {
+                int id = (int) (key >>> 32);
+                double score = all[(int) key];
+                if (n >= 0 && ids[n] == id) {
+                    scores[n] = Math.max(scores[n], score);
+                } else {
+                    ids[++n] = id;
+                    scores[n] = score;
+                }
+            }
+            return new Hits(Arrays.copyOf(ids, n + 1), Arrays.copyOf(scores, n + 1));
+        }
+    }
+
+    /**
+     * Products containing a word, in id order with the weighted count.
+     */
+    static class Postings {
+
+        private int[] ids = new int[2];
+        private int[] frequencies = new int[2];
+        // the product's whole length, kept here so scoring needs no lookup
+        private int[] lengths = new int[2];
+        private int size;
+
+        void add(int id, int frequency, int length) {
+            int at = size > 0 && ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0 || at == size) {
+                at = at < 0 ? -at - 1 : at;
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                    frequencies = Arrays.copyOf(frequencies, size * 2);
+                    lengths = Arrays.copyOf(lengths, size * 2);
+                }
+                System.arraycopy(ids, at, ids, at + 1, size - at);
+                System.arraycopy(frequencies, at, frequencies, at + 1, size - at);
+                System.arraycopy(lengths, at, lengths, at + 1, size - at);
+                size++;
+            }
+            ids[at] = id;
+            frequencies[at] = frequency;
+            lengths[at] = length;
+        }
+
+        boolean remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) {
+                return false;
+            }
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            System.arraycopy(frequencies, at + 1, frequencies, at, size - at - 1);
+            System.arraycopy(lengths, at + 1, lengths, at, size - at - 1);
+            size--;
+            return true;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Words and their weighted counts, as parallel arrays.
+     */
+    private static class Terms {
+
+        private final String[] words;
+        private final int[] counts;
+        private final int length;
+
+        Terms(Map<String, Integer> frequencies) {
+            words = new String[frequencies.size()];
+            counts = new int[frequencies.size()];
+            int i = 0;
+            int total = 0;
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                words[i] = entry.getKey();
+                counts[i++] = entry.getValue();
+                total += entry.getValue();
+            }
+            length = total;
+        }
+    }
+
+    /**
+     * What a product was indexed with, to take it out again. The description
+     * is kept apart so a write that did not load it can leave it as it is.
+     */
+    private static class Document {
+
+        private final Terms fields;
+        private final Terms description;
+        private final int length;
+
+        Document(Terms fields, Terms description) {
+            this.fields = fields;
+            this.description = description;
+            this.length = fields.length + description.length;
+        }
+
+        Map<String, Integer> frequencies() {
+            Map<String, Integer> all = new HashMap<>();
+            for (Terms terms : Arrays.asList(fields, description)) {
+                for (int i = 0; i < terms.words.length; i++) {
+                    Integer n = all.get(terms.words[i]);
+                    all.put(terms.words[i], n == null ? terms.counts[i] : n + terms.counts[i]);
+                }
+            }
+            return all;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package hibernate;
+
+import org.hibernate.CustomEntityDirtinessStrategy;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Flush-time dirty check for {@link DirtyTracked} entities, registered as
+ * hibernate.entity_dirtiness_strategy. An entity with no recorded changes is
+ * skipped outright instead of having every property compared to its loaded
+ * state; for one with changes only the recorded properties are compared.
+ * When none of those really differ (a new entity, or a value set back),
+ * Hibernate falls back to its full comparison for that entity alone.
+ * <p>
+ * -Dphonehub.dirtyTracking=false turns it off, e.g. to measure the difference.
+ */
+public class TrackedDirtinessStrategy implements CustomEntityDirtinessStrategy {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("phonehub.dirtyTracking", "true"));
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public boolean canDirtyCheck(Object entity, EntityPersister persister, Session session) {
+        return ENABLED && entity instanceof DirtyTracked;
+    }
+
+    @Override
+    public boolean isDirty(Object entity, EntityPersister persister, Session session) {
+        return !((DirtyTracked) entity).getDirtyProperties().isEmpty();
+    }
+
+    @Override
+    public void resetDirty(Object entity, EntityPersister persister, Session session) {
+        if (entity instanceof DirtyTracked) {
+            ((DirtyTracked) entity).clearDirtyProperties();
+        }
+    }
+
+    @Override
+    public void findDirty(Object entity, EntityPersister persister, Session session, DirtyCheckContext context) {
+        // called for every entity, not just those canDirtyCheck accepted
+        if (!canDirtyCheck(entity, persister, session)) {
+            return;
+        }
+        final DirtyTracked tracked = (DirtyTracked) entity;
+        final SessionImplementor source = (SessionImplementor) session;
+        final EntityEntry entry = source.getPersistenceContext().getEntry(entity);
+        context.doDirtyChecking(new AttributeChecker() {
+            @Override
+            public boolean isDirty(AttributeInformation attribute) {
+                if (!tracked.getDirtyProperties().contains(attribute.getName())) {
+                    return false;
+                }
+                // AttributeInformation.getLoadedValue() selects the row again, the entry has it already
+                Object[] loadedState = entry == null ? null : entry.getLoadedState();
+                if (loadedState == null) {
+                    return true;
+                }
+                return attribute.getType().isDirty(loadedState[attribute.getAttributeIndex()],
+                        attribute.getCurrentValue(), source);
+            }
+        });
+    }
+}
@@ -11,6 +11,8 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
 /**
@@ -19,6 +21,16 @@ import javax.persistence.Table;
  */
 
 @Entity
+@NamedQueries({
+    @NamedQuery(name = QueryCatalog.USER_BY_EMAIL, query = "FROM User u WHERE u.email = :email"),
+    @NamedQuery(name = QueryCatalog.USER_BY_EMAIL_AND_PASSWORD,
+            query = "FROM User u WHERE u.email = :email AND u.password = :password"),
+    @NamedQuery(name = QueryCatalog.USER_BY_EMAIL_AND_VERIFICATION,
+            query = "FROM User u WHERE u.email = :email AND u.verification = :verification"),
+    @NamedQuery(name = QueryCatalog.USER_COUNT, query = "SELECT COUNT(u) FROM User u"),
+    @NamedQuery(name = QueryCatalog.USER_COUNT_CREATED_BETWEEN,
+            query = "SELECT COUNT(u) FROM User u WHERE u.created_at >= :from AND u.created_at < :to")
+})
 @Table(name = "user")
 public class User implements Serializable {
 
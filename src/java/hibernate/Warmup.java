@@ -0,0 +1,68 @@
+package hibernate;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+/**
+ * Startup checks and cache priming run by {@link model.StartupListener}
+ * before the application reports ready.
+ */
+public class Warmup {
+
+    /** The lookup entities the shop lists with a cached query. */
+    private static final Class<?>[] REFERENCE_DATA = {
+        Brand.class, Model.class, Color.class, Storage.class, Quality.class,
+        Status.class, City.class, DeliveryTypes.class, OrderStatus.class
+    };
+
+    private Warmup() {
+    }
+
+    /**
+     * Reads one row of every mapped entity, which fails on a missing table or
+     * column. Types are not compared, the database may use wider ones.
+     *
+     * @return one message per entity that could not be read
+     */
+    public static List<String> validateMappings(SessionFactory sessionFactory) {
+        List<String> problems = new ArrayList<>();
+        Session s = sessionFactory.openSession();
+        try {
+            for (String entityName : sessionFactory.getAllClassMetadata().keySet()) {
+                try {
+                    s.createCriteria(entityName).setMaxResults(1).list();
+                } catch (HibernateException e) {
+                    problems.add(entityName + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            s.close();
+        }
+        return problems;
+    }
+
+    /**
+     * Runs the cached lookup list queries once so the entity and query caches
+     * are filled before the first visitor arrives.
+     *
+     * @return the number of rows loaded
+     */
+    public static int primeReferenceData(SessionFactory sessionFactory) {
+        int rows = 0;
+        Session s = sessionFactory.openSession();
+        try {
+            for (Class<?> entityClass : REFERENCE_DATA) {
+                rows += s.createCriteria(entityClass)
+                        .setCacheable(true)
+                        .setCacheRegion(HibernateUtil.REFERENCE_REGION)
+                        .list().size();
+            }
+        } finally {
+            s.close();
+        }
+        return rows;
+    }
+}
@@ -14,7 +14,7 @@ import javax.servlet.http.HttpSession;
 /*
  * @author Oshen Sathsara <oshensathsara2003@gmail.com>
  */
-@WebFilter(urlPatterns = {"/admin.html", "/DashboardServlet", "/ProductServlet", "/OrderServlet", "/CustomerServlet", "/ReportServlet", "/AdminSettingsServlet"})
+@WebFilter(urlPatterns = {"/admin.html", "/DashboardServlet", "/ProductServlet", "/OrderServlet", "/CustomerServlet", "/ReportServlet", "/AdminSettingsServlet", "/PoolStatusServlet", "/StatisticsServlet"})
 public class AdminFilter implements Filter {
     
     @Override
@@ -0,0 +1,61 @@
+package model;
+
+import hibernate.RequestDeadline;
+import hibernate.SessionContext;
+import hibernate.StatementBudget;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Session-per-request: binds a {@link SessionContext} for the request and
+ * closes every Hibernate session still open when the request ends.
+ * Run with -Dphonehub.session.debug=true to log where leaked sessions were opened.
+ * Statements per request are checked against {@link StatementBudget}, their
+ * running time against {@link RequestDeadline}.
+ */
+@WebFilter(urlPatterns = {"/*"})
+public class HibernateSessionFilter implements Filter {
+
+    private boolean debug;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        debug = Boolean.getBoolean("phonehub.session.debug")
+                || Boolean.parseBoolean(filterConfig.getInitParameter("debug"));
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+
+        HttpServletRequest req = (HttpServletRequest) request;
+        String method = req.getMethod();
+        boolean readOnly = "GET".equals(method) || "HEAD".equals(method);
+
+        String path = req.getServletPath();
+        SessionContext context = SessionContext.begin(method + " " + path, readOnly, debug);
+        StatementBudget.apply(context, path);
+        RequestDeadline.apply(context, path);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            int leaks = context.end();
+            StatementBudget.record(path, context);
+            RequestDeadline.record(path, context);
+            if (leaks > 0 && !debug) {
+                System.err.println(leaks + " session(s) left open by " + context.getOwner());
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+}
@@ -0,0 +1,226 @@
+package model;
+
+import hibernate.CatalogIndex;
+import hibernate.ConnectionPool;
+import hibernate.HibernateUtil;
+import hibernate.Warmup;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import org.hibernate.SessionFactory;
+
+/**
+ * Builds Hibernate at deploy time instead of on the first request: validates
+ * the mappings, opens the pool's minimum connections, fills the reference
+ * data caches and loads the catalog index. With -Dphonehub.warmup.baseUrl=http://localhost:8080/PhoneHub
+ * it then replays the catalog GETs in warmup-requests.txt (or the file named
+ * by -Dphonehub.warmup.requests) against this server, -Dphonehub.warmup.rounds
+ * times, to warm the JIT. /ready answers 200 only once all of this is done.
+ */
+@WebListener
+public class StartupListener implements ServletContextListener {
+
+    private static final int DEFAULT_ROUNDS = 10;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    /** How long the replay waits for the server to start accepting requests. */
+    private static final long SERVER_WAIT_MILLIS = 60000;
+
+    private static volatile boolean ready;
+    private static volatile String state = "starting";
+
+    private Thread replay;
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    public static String getState() {
+        return state;
+    }
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        long start = System.currentTimeMillis();
+        try {
+            state = "building SessionFactory";
+            SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+
+            state = "validating mappings";
+            List<String> problems = Warmup.validateMappings(sessionFactory);
+            if (HibernateUtil.getReplicaPool() != null) {
+                problems.addAll(Warmup.validateMappings(HibernateUtil.getSessionFactory(HibernateUtil.Route.REPLICA)));
+            }
+            if (!problems.isEmpty()) {
+                state = "mapping errors: " + problems;
+                System.err.println("Not ready, " + state);
+                return;
+            }
+
+            state = "opening connections";
+            int connections = HibernateUtil.getConnectionPool().warmUp();
+            ConnectionPool replicaPool = HibernateUtil.getReplicaPool();
+            if (replicaPool != null) {
+                connections += replicaPool.warmUp();
+            }
+
+            state = "priming caches";
+            int rows = Warmup.primeReferenceData(sessionFactory);
+
+            int products = 0;
+            if (CatalogIndex.isEnabled()) {
+                state = "indexing catalog";
+                products = CatalogIndex.load(sessionFactory).getSize();
+            }
+
+            System.out.println("Bootstrap done in " + (System.currentTimeMillis() - start) + " ms: "
+                    + connections + " connections open, " + rows + " reference rows cached, "
+                    + products + " products indexed");
+        } catch (Throwable e) {
+            state = "bootstrap failed: " + e;
+            System.err.println("Not ready, " + state);
+            e.printStackTrace();
+            return;
+        }
+
+        final String baseUrl = System.getProperty("phonehub.warmup.baseUrl");
+        if (baseUrl == null || baseUrl.trim().isEmpty()) {
+            markReady();
+            return;
+        }
+        // requests can only be served once this method returns
+        state = "replaying warmup requests";
+        replay = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replay(baseUrl.trim());
+                } catch (InterruptedException e) {
+                    return; // undeployed while warming up
+                } catch (IOException e) {
+                    System.err.println("Warmup replay failed, continuing cold: " + e.getMessage());
+                }
+                if (!Thread.currentThread().isInterrupted()) {
+                    markReady();
+                }
+            }
+        }, "phonehub-warmup");
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        ready = false;
+        state = "stopping";
+        if (replay != null) {
+            replay.interrupt();
+        }
+        try {
+            HibernateUtil.shutdown();
+        } catch (Throwable e) {
+            System.err.println("Error shutting down Hibernate: " + e);
+        }
+    }
+
+    private static void markReady() {
+        state = "ready";
+        ready = true;
+    }
+
+    private void replay(String baseUrl) throws IOException, InterruptedException {
+        List<String> paths = readSample();
+        if (paths.isEmpty()) {
+            return;
+        }
+        awaitServer(baseUrl + paths.get(0));
+
+        int rounds = Integer.getInteger("phonehub.warmup.rounds", DEFAULT_ROUNDS);
+        int requests = 0;
+        int failures = 0;
+        long start = System.currentTimeMillis();
+        for (int round = 0; round < rounds; round++) {
+            for (String path : paths) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                requests++;
+                try {
+                    if (get(baseUrl + path) != HttpURLConnection.HTTP_OK) {
+                        failures++;
+                    }
+                } catch (IOException e) {
+                    failures++;
+                }
+            }
+        }
+        System.out.println("Warmup replayed " + requests + " requests in "
+                + (System.currentTimeMillis() - start) + " ms, " + failures + " failed");
+    }
+
+    /**
+     * The catalog GETs to replay, one path with query string per line.
+     */
+    private List<String> readSample() throws IOException {
+        String file = System.getProperty("phonehub.warmup.requests");
+        InputStream in = file != null
+                ? new FileInputStream(file)
+                : StartupListener.class.getResourceAsStream("/warmup-requests.txt");
+        List<String> paths = new ArrayList<>();
+        if (in == null) {
+            return paths;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    paths.add(line.startsWith("/") ? line : "/" + line);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private void awaitServer(String url) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + SERVER_WAIT_MILLIS;
+        while (true) {
+            try {
+                get(url);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(500);
+            }
+        }
+    }
+
+    private int get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // drain so the keep-alive connection is reused
+                }
+            }
+        }
+        return status;
+    }
+}
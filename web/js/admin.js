@@ -285,20 +285,26 @@ async function deleteProduct(id) {
 }
 
 // ORDERS
-async function loadOrders() {
+// loads the newest orders, or with "before" appends the page after them
+async function loadOrders(before) {
     const popup = new Notification();
     const tableBody = document.querySelector('#admin-order-table tbody');
     if (!tableBody)
         return;
 
-    tableBody.innerHTML = '<tr><td colspan="6" class="text-center">Loading...</td></tr>';
+    const moreRow = document.getElementById('admin-order-more');
+    if (moreRow)
+        moreRow.remove();
+    if (!before)
+        tableBody.innerHTML = '<tr><td colspan="6" class="text-center">Loading...</td></tr>';
 
     try {
-        const response = await fetch('OrderServlet?action=list');
+        const response = await fetch('OrderServlet?action=list' + (before ? '&before=' + before : ''));
         if (response.ok) {
             const json = await response.json();
             if (json.status) {
-                tableBody.innerHTML = '';
+                if (!before)
+                    tableBody.innerHTML = '';
                 json.orderList.forEach(order => {
                     const statusClass = getStatusClass(order.status);
                     tableBody.innerHTML += `
@@ -314,6 +320,17 @@ async function loadOrders() {
                         </tr>
                     `;
                 });
+                if (json.next) {
+                    tableBody.innerHTML += `
+                        <tr id="admin-order-more">
+                            <td colspan="6" class="text-center">
+                                <button class="btn btn-sm btn-outline-secondary" onclick="loadOrders(${json.next})">Load more</button>
+                            </td>
+                        </tr>
+                    `;
+                } else if (!before && json.orderList.length === 0) {
+                    tableBody.innerHTML = '<tr><td colspan="6" class="text-center">No orders found</td></tr>';
+                }
             } else {
                 tableBody.innerHTML = '<tr><td colspan="6" class="text-center">No orders found</td></tr>';
             }
@@ -0,0 +1,129 @@
+// Typeahead for the header search box: suggestions from SearchSuggestions as
+// the user types. On the shop page search.js runs the search, elsewhere the
+// box opens the shop page with the search key.
+
+const SUGGEST_DELAY = 150;
+
+function initHeaderSearch(form) {
+    const input = form.querySelector('input[type="text"]');
+    if (!input) return;
+
+    const onShopPage = !!document.getElementById('search-key');
+    let timer = null;
+    let lastKey = '';
+    let active = -1;
+
+    form.style.position = 'relative';
+    input.setAttribute('autocomplete', 'off');
+
+    const list = document.createElement('ul');
+    list.className = 'hm-suggestions';
+    list.style.cssText = 'display:none;position:absolute;left:0;right:0;top:100%;z-index:999;margin:0;padding:0;'
+            + 'list-style:none;background:#fff;border:1px solid #e1e1e1;box-shadow:0 4px 10px rgba(0,0,0,.08);';
+    form.appendChild(list);
+
+    function hide() {
+        list.style.display = 'none';
+        active = -1;
+    }
+
+    function search(key) {
+        input.value = key;
+        hide();
+        if (onShopPage) {
+            form.requestSubmit();
+        } else {
+            window.location.href = 'shop-list.html?searchKey=' + encodeURIComponent(key);
+        }
+    }
+
+    function highlight(index) {
+        const items = list.children;
+        for (let i = 0; i < items.length; i++) {
+            items[i].style.background = i === index ? '#f4f4f4' : '#fff';
+        }
+        active = index;
+    }
+
+    function render(suggestions) {
+        list.innerHTML = '';
+        suggestions.forEach((suggestion, i) => {
+            const item = document.createElement('li');
+            item.style.cssText = 'padding:8px 12px;cursor:pointer;display:flex;justify-content:space-between;';
+            const text = document.createElement('span');
+            text.textContent = suggestion.text;
+            const type = document.createElement('small');
+            type.textContent = suggestion.type === 'product' ? '' : suggestion.type;
+            type.style.color = '#999';
+            item.appendChild(text);
+            item.appendChild(type);
+            item.addEventListener('mouseenter', () => highlight(i));
+            // mousedown runs before the input loses focus and hides the list
+            item.addEventListener('mousedown', (e) => {
+                e.preventDefault();
+                search(suggestion.text);
+            });
+            list.appendChild(item);
+        });
+        active = -1;
+        list.style.display = suggestions.length > 0 ? 'block' : 'none';
+    }
+
+    async function suggest(key) {
+        try {
+            const response = await fetch('SearchSuggestions?q=' + encodeURIComponent(key));
+            if (!response.ok) return;
+            const json = await response.json();
+            // an older answer arriving late must not replace a newer one
+            if (json.status && key === lastKey) {
+                render(json.suggestions || []);
+            }
+        } catch (error) {
+            console.error('Suggestion error:', error);
+        }
+    }
+
+    input.addEventListener('input', () => {
+        clearTimeout(timer);
+        const key = input.value.trim();
+        lastKey = key;
+        if (key === '') {
+            hide();
+            return;
+        }
+        timer = setTimeout(() => suggest(key), SUGGEST_DELAY);
+    });
+
+    input.addEventListener('keydown', (e) => {
+        const count = list.children.length;
+        if (list.style.display === 'none' || count === 0) return;
+        if (e.key === 'ArrowDown') {
+            e.preventDefault();
+            highlight((active + 1) % count);
+        } else if (e.key === 'ArrowUp') {
+            e.preventDefault();
+            highlight((active - 1 + count) % count);
+        } else if (e.key === 'Enter' && active >= 0) {
+            e.preventDefault();
+            search(list.children[active].firstChild.textContent);
+        } else if (e.key === 'Escape') {
+            hide();
+        }
+    });
+
+    input.addEventListener('blur', hide);
+
+    if (!onShopPage) {
+        form.addEventListener('submit', (e) => {
+            e.preventDefault();
+            const key = input.value.trim();
+            if (key !== '') {
+                search(key);
+            }
+        });
+    }
+}
+
+document.addEventListener('DOMContentLoaded', function () {
+    document.querySelectorAll('form.hm-searchbox').forEach(initHeaderSearch);
+});
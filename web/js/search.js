@@ -4,7 +4,7 @@ let filters = {
     color: [],
     storage: [],
     quality: [],
-    priceRange: { min: 0, max: 1000000 }
+    priceRange: null // set once the slider is moved
 };
 
 
@@ -31,6 +31,7 @@ function initPriceRange() {
             slide: function(event, ui) {
                 $("#price-range-label").text("Rs. " + ui.values[0] + " - Rs. " + ui.values[1]);
                 filters.priceRange = { min: ui.values[0], max: ui.values[1] };
+                highlightPriceBars();
                 searchProduct(0);
             }
         });
@@ -105,7 +106,8 @@ function loadOptions(prefix, dataList, property) {
     });
 }
 
-async function searchProduct(firstResult) {
+// after: the "next" token of the page before, continues from its last product
+async function searchProduct(firstResult, after) {
     const popup = new Notification();
     try {
         showLoading();
@@ -117,6 +119,9 @@ async function searchProduct(firstResult) {
         params.append('searchKey', searchKey);
         params.append('firstResult', firstResult);
         params.append('sortBy', sortBy);
+        if (after) {
+            params.append('after', after);
+        }
         
 
         if (filters.brand.length > 0) {
@@ -145,14 +150,89 @@ async function searchProduct(firstResult) {
         console.log("Search response:", json); 
         
         updateProductView(json);
-        notif.success({ message: 'Products loaded successfully' });
+        updateFacetCounts(json.facets);
+        updateCorrection(json.didYouMean);
+        updateTruncated(json.truncated);
+        updatePriceHistogram(json.prices);
+        if (json.degraded) {
+            notif.warning({ message: json.message });
+        } else {
+            notif.success({ message: 'Products loaded successfully' });
+        }
     } catch (error) {
         console.error("Error in searchProduct:", error);
         notif.error({ message: 'Error searching products: ' + error.message });
     }
 }
 
-function updatePagination(totalProducts, currentFirst) {
+// shows how many products each filter option would match, empty ones are disabled
+function updateFacetCounts(facets) {
+    if (!facets) return;
+    ['brand', 'quality', 'color', 'storage'].forEach(prefix => {
+        const counts = facets[prefix] || {};
+        document.querySelectorAll(`#${prefix}-filter-list input[type="checkbox"]`).forEach(checkbox => {
+            const count = counts[checkbox.dataset.id] || 0;
+            const label = checkbox.nextElementSibling;
+            if (label) {
+                let badge = label.querySelector('.facet-count');
+                if (!badge) {
+                    badge = document.createElement('span');
+                    badge.className = 'facet-count';
+                    label.appendChild(badge);
+                }
+                badge.textContent = ` (${count})`;
+            }
+            checkbox.disabled = count === 0 && !checkbox.checked;
+        });
+    });
+}
+
+// the slider spans the prices of the products the other filters match, bars show how many cost what
+function updatePriceHistogram(prices) {
+    const slider = $("#slider-range");
+    if (!prices || !slider.length) return;
+
+    const min = Math.floor(prices.min);
+    const max = Math.max(Math.ceil(prices.max), min + 1);
+    slider.slider("option", { min: min, max: max });
+    if (filters.priceRange) {
+        slider.slider("values", [Math.max(filters.priceRange.min, min), Math.min(filters.priceRange.max, max)]);
+    } else {
+        slider.slider("values", [min, max]);
+    }
+    $("#price-range-label").text("Rs. " + slider.slider("values", 0) + " - Rs. " + slider.slider("values", 1));
+
+    let bars = document.getElementById('price-histogram');
+    if (!bars) {
+        bars = document.createElement('div');
+        bars.id = 'price-histogram';
+        bars.style.cssText = 'display:flex;align-items:flex-end;height:40px;gap:2px;margin-bottom:8px;';
+        slider[0].parentNode.insertBefore(bars, slider[0]);
+    }
+    const highest = Math.max(...prices.counts, 1);
+    bars.innerHTML = '';
+    prices.counts.forEach((count, i) => {
+        const from = prices.from + i * prices.width;
+        const bar = document.createElement('div');
+        bar.dataset.from = from;
+        bar.dataset.to = from + prices.width;
+        bar.title = `Rs. ${from} - Rs. ${from + prices.width}: ${count} item(s)`;
+        bar.style.cssText = `flex:1;background:#fed700;min-height:${count > 0 ? 2 : 0}px;height:${100 * count / highest}%;`;
+        bars.appendChild(bar);
+    });
+    highlightPriceBars();
+}
+
+// dims the bars outside the chosen price range
+function highlightPriceBars() {
+    const range = filters.priceRange;
+    document.querySelectorAll('#price-histogram div').forEach(bar => {
+        const inside = !range || (Number(bar.dataset.to) > range.min && Number(bar.dataset.from) <= range.max);
+        bar.style.opacity = inside ? '1' : '0.3';
+    });
+}
+
+function updatePagination(totalProducts, currentFirst, next) {
     const itemsPerPage = 9; 
     const totalPages = Math.ceil(totalProducts / itemsPerPage);
     const currentPage = Math.floor(currentFirst / itemsPerPage) + 1;
@@ -184,7 +264,7 @@ function updatePagination(totalProducts, currentFirst) {
 
     if (currentPage < totalPages) {
         linksHtml += `<li>
-            <a class="Next" href="#" onclick="searchProduct(${currentPage * itemsPerPage}); return false;">Next</a>
+            <a class="Next" href="#" onclick="searchProduct(${currentPage * itemsPerPage}, '${next || ''}'); return false;">Next</a>
         </li>`;
     }
 
@@ -197,7 +277,7 @@ function clearAllFilters() {
         color: [],
         storage: [],
         quality: [],
-        priceRange: { min: 0, max: 1000000 }
+        priceRange: null
     };
 
 
@@ -208,7 +288,7 @@ function clearAllFilters() {
 
     const slider = $("#slider-range");
     if (slider.length) {
-        slider.slider("values", [0, 1000000]);
+        slider.slider("values", [slider.slider("option", "min"), slider.slider("option", "max")]);
         $("#price-range-label").text("Rs. " + slider.slider("values", 0) + " - Rs. " + slider.slider("values", 1));
     }
 
@@ -292,7 +372,7 @@ function updateProductView(json) {
                                 <div class="price-box">
                                     <span class="new-price">Rs. ${product.price ? product.price.toLocaleString() : 'N/A'}</span>
                                 </div>
-                                <p>${product.description || ''}</p>
+                                <p>${product.summary || ''}</p>
                             </div>
                         </div>
                     </div>
@@ -317,7 +397,7 @@ function updateProductView(json) {
     }
 
 
-    updatePagination(json.totalProducts || 0, json.firstResult || 0);
+    updatePagination(json.totalProducts || 0, json.firstResult || 0, json.next);
     
 
     const toolbarAmount = document.querySelector('.toolbar-amount span');
@@ -328,6 +408,52 @@ function updateProductView(json) {
     }
 }
 
+// a misspelt search was matched with corrected words: say which, one click searches them
+function updateCorrection(didYouMean) {
+    const toolbarAmount = document.querySelector('.toolbar-amount');
+    if (!toolbarAmount) return;
+    let note = document.getElementById('did-you-mean');
+    if (!didYouMean) {
+        if (note) note.remove();
+        return;
+    }
+    if (!note) {
+        note = document.createElement('span');
+        note.id = 'did-you-mean';
+        note.style.marginLeft = '10px';
+        toolbarAmount.appendChild(note);
+    }
+    note.textContent = 'Did you mean ';
+    const link = document.createElement('a');
+    link.href = '#';
+    link.textContent = didYouMean;
+    link.addEventListener('click', (e) => {
+        e.preventDefault();
+        document.getElementById('search-key').value = didYouMean;
+        searchProduct(0);
+    });
+    note.appendChild(link);
+    note.appendChild(document.createTextNode('?'));
+}
+
+// a short search word started too many words to match them all: ask for more letters
+function updateTruncated(truncated) {
+    const toolbarAmount = document.querySelector('.toolbar-amount');
+    if (!toolbarAmount) return;
+    let note = document.getElementById('search-truncated');
+    if (!truncated) {
+        if (note) note.remove();
+        return;
+    }
+    if (!note) {
+        note = document.createElement('span');
+        note.id = 'search-truncated';
+        note.style.marginLeft = '10px';
+        toolbarAmount.appendChild(note);
+    }
+    note.textContent = 'Only the most common matches of a short word are shown, type more letters to see all.';
+}
+
 async function addToCart(productId, qty) {
     try {
         const response = await fetch('AddToCart', {
@@ -377,6 +503,12 @@ function indexOnloadFunctions() {
 document.addEventListener('DOMContentLoaded', function() {
     console.log("DOM Content Loaded - Initializing search functionality");
     
+    // the header search on other pages opens this page with its key
+    const searchKeyParam = new URLSearchParams(window.location.search).get('searchKey');
+    const searchKeyInput = document.getElementById('search-key');
+    if (searchKeyParam && searchKeyInput) {
+        searchKeyInput.value = searchKeyParam;
+    }
 
     loadData();
     